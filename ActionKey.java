@@ -34,11 +34,14 @@ public class ActionKey {
         amount = 0;
     }
 
-    public void press() {
+    // return true if the key was up (not a key repeat)
+    public boolean press() {
+        boolean wasReleased = (state == STATE_RELEASED);
         if (state != STATE_WAITING_FOR_RELEASE) {
             amount++;
             state = STATE_PRESSED;
         }
+        return wasReleased;
     }
 
     public void release() {
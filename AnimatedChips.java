@@ -0,0 +1,74 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+// chips of the chip set that are animated: an animated chip shows its
+// frames (chips of the chip set) one after another, a frame every period
+// ticks. the frame depends only on the tick, so the game never sees it.
+// the frames of the sea and the red crystal are made from their chip
+// when the chip set is loaded, into the empty chips after the last one
+public class AnimatedChips implements Common {
+    private static final int NUM_CHIPS = 64;
+
+    // frames of each chip (null: not animated) and ticks per frame
+    private static int[][] frames = new int[NUM_CHIPS][];
+    private static int[] periods = new int[NUM_CHIPS];
+
+    // make the frames in the chip set and define the animations
+    static void load(BufferedImage chips) {
+        // sea: the waves flow to the right
+        define(chips, 5, 20, 4, 16, CS / 4, 0);
+        // red crystal: it glitters downwards
+        define(chips, 6, 23, 4, 8, 0, CS / 4);
+    }
+
+    // n frames of chip: chip itself, then the chip shifted by (dx, dy)
+    // pixels a frame more (wrapping around), written from the chip first
+    // on. the pixels stay in the palette of the chip set
+    private static void define(BufferedImage chips, int chip, int first, int n, int period,
+                               int dx, int dy) {
+        WritableRaster raster = chips.getRaster();
+        int bands = raster.getNumBands();
+        int[] src = raster.getPixels((chip % 8) * CS, (chip / 8) * CS, CS, CS, (int[])null);
+        int[] dst = new int[src.length];
+        int[] f = new int[n];
+        f[0] = chip;
+        for (int i = 1; i < n; i++) {
+            for (int y = 0; y < CS; y++) {
+                for (int x = 0; x < CS; x++) {
+                    // the pixel that has moved to (x, y)
+                    int sx = Math.floorMod(x - dx * i, CS);
+                    int sy = Math.floorMod(y - dy * i, CS);
+                    System.arraycopy(src, (sy * CS + sx) * bands, dst, (y * CS + x) * bands, bands);
+                }
+            }
+            f[i] = first + i - 1;
+            raster.setPixels((f[i] % 8) * CS, (f[i] / 8) * CS, CS, CS, dst);
+        }
+        frames[chip] = f;
+        periods[chip] = period;
+    }
+
+    public static boolean isAnimated(int chip) {
+        return chip >= 0 && frames[chip] != null;
+    }
+
+    // the chip shown for chip at tick
+    public static int getFrame(int chip, long tick) {
+        int[] f = chip >= 0 ? frames[chip] : null;
+        if (f == null) {
+            return chip;
+        }
+        return f[(int)((tick / periods[chip]) % f.length)];
+    }
+
+    // the tile key (RenderSnapshot.tileKey()) shown for key at tick
+    public static int getFrameKey(int key, long tick) {
+        return RenderSnapshot.tileKey(getFrame(RenderSnapshot.getChip(key), tick),
+                                      getFrame(RenderSnapshot.getDecoration(key), tick));
+    }
+
+    // has the tile of the key an animated chip?
+    public static boolean isAnimatedKey(int key) {
+        return isAnimated(RenderSnapshot.getChip(key)) || isAnimated(RenderSnapshot.getDecoration(key));
+    }
+}
@@ -0,0 +1,29 @@
+import jdk.jfr.*;
+
+// a call to the audio engines (Java Flight Recorder)
+@Name("rpg.Audio")
+@Label("Audio")
+@Category("RPG")
+@StackTrace(false)
+@Description("Starting a BGM or a sound clip")
+public class AudioJfrEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(AudioJfrEvent.class);
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Name")
+    String name;
+
+    // return null (no allocation) unless a recording wants it
+    public static AudioJfrEvent start(String kind, String name) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        AudioJfrEvent e = new AudioJfrEvent();
+        e.kind = kind;
+        e.name = name;
+        e.begin();
+        return e;
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+// encodes and writes snapshots on a background thread, so that
+// autosave does not make the game loop hitch.
+// if snapshots come faster than they can be written, only the latest is written.
+public class AutoSaver implements Runnable {
+    private Path path;
+
+    // snapshot waiting to be written
+    private AtomicReference<WorldSnapshot> pending = new AtomicReference<WorldSnapshot>();
+    private Thread thread;
+
+    // the last snapshot, whose unchanged parts the next one reuses
+    private WorldSnapshot last;
+
+    public AutoSaver(Path path) {
+        this.path = path;
+        thread = new Thread(this, "AutoSaver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // take the first snapshot without writing it, so that the next
+    // snapshots only capture what has changed since the game started
+    public void prepare(MainPanel panel) {
+        last = panel.takeSnapshot(last);
+    }
+
+    // called from the game loop at a tick boundary. only the snapshot is
+    // taken here (PerfTest measures it as autosave)
+    public void save(MainPanel panel) {
+        last = panel.takeSnapshot(last);
+        pending.set(last);
+        LockSupport.unpark(thread);
+    }
+
+    public void run() {
+        while (true) {
+            WorldSnapshot s = pending.getAndSet(null);
+            if (s == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                SaveGame.write(s, path);
+            } catch (IOException | IllegalArgumentException e) {
+                // IllegalArgumentException: an event the format does not support
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -1,14 +1,12 @@
 import java.awt.*;
-import java.io.*;
-import java.awt.image.*;
-import javax.imageio.*;
 import java.util.ArrayList;
 
 public class Character implements Common {
     private static final int SPEED = 4;
     public static final double PROB_MOVE = 0.02;
+    // ticks per animation frame (300ms)
+    private static final int ANIMATION_PERIOD = 15;
 
-    private static BufferedImage image;
     private int id;
 
     // character's position (unit: tile)
@@ -18,8 +16,9 @@ public class Character implements Common {
 
     // character's direction (LEFT, RIGHT, UP or DOWN)
     private int direction;
-    // character's animation counter
-    private int count;
+    // animation counter shared by all characters (0 or 1)
+    private static int count;
+    private static int animationTicks;
 
     private boolean isMoving;
     private int moveLength;
@@ -29,12 +28,15 @@ public class Character implements Common {
 
     // Inventory system
     private ArrayList<String> inventory = new ArrayList<String>();
-
-    // thread for character animation
-    private Thread threadAnime;
+    // changes with every change of the inventory. versions are never
+    // reused, not even by another character (a new hero after a load)
+    private static int lastInventoryVersion = 0;
+    private int inventoryVersion = ++lastInventoryVersion;
 
     // reference to Map
     private Map map;
+    // next character on the same tile (maintained by Map)
+    Character nextInTile;
 
     public Character(int x, int y, int id, int direction,
                      int moveType, Map map) {
@@ -47,32 +49,21 @@ public class Character implements Common {
         this.direction = direction;
         this.moveType = moveType;
         this.map = map;
+    }
 
-        count = 0;
-
-        if (image == null) {
-            loadImage("image/character.gif");
+    // called by the game loop once per tick
+    public static void updateAnimation() {
+        animationTicks++;
+        if (animationTicks >= ANIMATION_PERIOD) {
+            animationTicks = 0;
+            count = 1 - count;
         }
-
-        // run thread
-        threadAnime = new Thread(new AnimationThread());
-        threadAnime.start();
     }
 
-    public void draw(Graphics g, int offsetX, int offsetY) {
-        int cx = (id % 8) * (CS * 2);
-        int cy = (id / 8) * (CS * 4);
+    // the current animation frame (see SpriteFrames)
+    public int getFrame() {
         // switch image based on animation counter
-        g.drawImage(image,
-                    px - offsetX,
-                    py - offsetY,
-                    px - offsetX + CS,
-                    py - offsetY + CS,
-                    cx + count * CS,
-                    cy + direction * CS,
-                    cx + CS + count * CS,
-                    cy + direction * CS + CS,
-                    null);
+        return SpriteFrames.getCharacterFrame(id, direction, count);
     }
 
     public boolean move() {
@@ -114,7 +105,7 @@ public class Character implements Common {
             if (moveLength >= CS) {
                 // pixel-based scrolling is completed
                 // hero moves to left tile
-                x--;
+                moveTo(x - 1, y);
                 px = x * CS;
                 isMoving = false;
                 return true;
@@ -137,7 +128,7 @@ public class Character implements Common {
                 px = map.getWidth() - CS;
             moveLength += Character.SPEED;
             if (moveLength >= CS) {
-                x++;
+                moveTo(x + 1, y);
                 px = x * CS;
                 isMoving = false;
                 return true;
@@ -160,7 +151,7 @@ public class Character implements Common {
             if (py < 0) py = 0;
             moveLength += Character.SPEED;
             if (moveLength >= CS) {
-                y--;
+                moveTo(x, y - 1);
                 py = y * CS;
                 isMoving = false;
                 return true;
@@ -183,7 +174,7 @@ public class Character implements Common {
                 py = map.getHeight() - CS;
             moveLength += Character.SPEED;
             if (moveLength >= CS) {
-                y++;
+                moveTo(x, y + 1);
                 py = y * CS;
                 isMoving = false;
                 return true;
@@ -196,153 +187,64 @@ public class Character implements Common {
         return false;
     }
 
-    // return the character which is in front of this character
-    public Character talkWith() {
-        int nextX = 0;
-        int nextY = 0;
+    // the tile in front of this character
+    public int getFrontX() {
         switch (direction) {
         case LEFT:
-            nextX = x - 1;
-            nextY = y;
-            break;
+            return x - 1;
         case RIGHT:
-            nextX = x + 1;
-            nextY = y;
-            break;
-        case UP:
-            nextX = x;
-            nextY = y - 1;
-            break;
-        case DOWN:
-            nextX = x;
-            nextY = y + 1;
-            break;
+            return x + 1;
+        default:
+            return x;
         }
-
-        // is there a character?
-        Character c = map.checkCharacter(nextX, nextY);
-        // a player and a character are opposed mutually.
-        if (c != null) {
-            switch (direction) {
-            case LEFT:
-                c.setDirection(RIGHT);
-                break;
-            case RIGHT:
-                c.setDirection(LEFT);
-                break;
-            case UP:
-                c.setDirection(DOWN);
-                break;
-            case DOWN:
-                c.setDirection(UP);
-                break;
-            }
-        }
-        return c;
-    }
-
-    public TreasureEvent search() {
-        // Check current position (standing on the chest)
-        Event event = map.checkEvent(x, y);
-        if (event instanceof TreasureEvent) {
-            return (TreasureEvent)event;
-        }
-        
-        // Also check forward position (facing the chest)
-        int nextX = 0;
-        int nextY = 0;
-        switch (direction) {
-            case LEFT:
-                nextX = x - 1;
-                nextY = y;
-                break;
-            case RIGHT:
-                nextX = x + 1;
-                nextY = y;
-                break;
-            case UP:
-                nextX = x;
-                nextY = y - 1;
-                break;
-            case DOWN:
-                nextX = x;
-                nextY = y + 1;
-                break;
-        }
-        
-        event = map.checkEvent(nextX, nextY);
-        if (event instanceof TreasureEvent) {
-            return (TreasureEvent)event;
-        }
-        
-        return null;
     }
 
-    public DoorEvent open() {
-        int nextX = 0;
-        int nextY = 0;
+    public int getFrontY() {
         switch (direction) {
-        case LEFT:
-            nextX = x - 1;
-            nextY = y;
-            break;
-        case RIGHT:
-            nextX = x + 1;
-            nextY = y;
-            break;
         case UP:
-            nextX = x;
-            nextY = y - 1;
-            break;
+            return y - 1;
         case DOWN:
-            nextX = x;
-            nextY = y + 1;
-            break;
+            return y + 1;
+        default:
+            return y;
         }
-        Event event = map.checkEvent(nextX, nextY);
-        if (event instanceof DoorEvent) {
-            DoorEvent door = (DoorEvent)event;
-            // Check if this is a special door that requires legendary key
-            if (door.getRequiredKey() != null && door.getRequiredKey().equals("LEGENDARY KEY")) {
-                // If it requires legendary key, check if player has it
-                if (hasItem("LEGENDARY KEY")) {
-                    return door;
-                }
-                // If not, return null to indicate door can't be opened
-                return null;
-            } else {
-                // Normal doors just require the regular KEY
-                if (hasItem("KEY")) {
-                    return door;
-                }
-            }
-        }
-        return null;
     }
 
-    public boolean isFacingDoor() {
-        int nextX = 0;
-        int nextY = 0;
-        switch (direction) {
+    // turn to face the character c, who is facing this character
+    public void turnTo(Character c) {
+        switch (c.getDirection()) {
         case LEFT:
-            nextX = x - 1;
-            nextY = y;
+            direction = RIGHT;
             break;
         case RIGHT:
-            nextX = x + 1;
-            nextY = y;
+            direction = LEFT;
             break;
         case UP:
-            nextX = x;
-            nextY = y - 1;
+            direction = DOWN;
             break;
         case DOWN:
-            nextX = x;
-            nextY = y + 1;
+            direction = UP;
             break;
         }
-        Event event = map.checkEvent(nextX, nextY);
-        return (event instanceof DoorEvent);
+    }
+
+    // put this character on (x, y) at once
+    public void setPosition(int x, int y, int direction) {
+        this.direction = direction;
+        isMoving = false;
+        moveLength = 0;
+        moveTo(x, y);
+        px = x * CS;
+        py = y * CS;
+    }
+
+    // move to another tile and tell the map about it
+    private void moveTo(int nextX, int nextY) {
+        int oldX = x;
+        int oldY = y;
+        x = nextX;
+        y = nextY;
+        map.moveCharacter(this, oldX, oldY);
     }
 
     public int getX() {
@@ -393,6 +295,7 @@ public class Character implements Common {
     // Inventory management methods
     public void addToInventory(String item) {
         inventory.add(item);
+        inventoryVersion = ++lastInventoryVersion;
     }
     
     public boolean hasItem(String itemName) {
@@ -405,35 +308,16 @@ public class Character implements Common {
     
     public void clearInventory() {
         inventory.clear();
+        inventoryVersion = ++lastInventoryVersion;
     }
     
     public void removeFromInventory(String itemName) {
-        inventory.remove(itemName);
-    }
-
-    private void loadImage(String filename) {
-        try {
-            image = ImageIO.read(getClass().getResource(filename));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (inventory.remove(itemName)) {
+            inventoryVersion = ++lastInventoryVersion;
         }
     }
 
-    // Animation Class
-    private class AnimationThread extends Thread {
-        public void run() {
-            while (true) {
-                if (count == 0) {
-                    count = 1;
-                } else if (count == 1) {
-                    count = 0;
-                }
-                try {
-                    Thread.sleep(300);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+    public int getInventoryVersion() {
+        return inventoryVersion;
     }
 }
@@ -0,0 +1,194 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// the static layers of the map (tiles and decoration) composited into
+// images of CHUNK x CHUNK tiles, so that drawing a tile or a whole chunk
+// is one blit however many layers there are. a tile is composited again
+// only when its chips differ from the ones in the chunk, and the least
+// recently drawn chunk is reused for a new one. each chunk lists its
+// animated tiles, so that only they are composited and drawn again when
+// their frame changes (renderer).
+public class ChunkCache implements Common {
+    // tiles per side of a chunk
+    public static final int CHUNK = 8;
+    // the screen shows at most 4 x 4 chunks
+    private static final int MAX_CHUNKS = 24;
+
+    private int numChunks = 0;
+    private int[] chunkMapNo = new int[MAX_CHUNKS];
+    private int[] chunkX = new int[MAX_CHUNKS];
+    private int[] chunkY = new int[MAX_CHUNKS];
+    private long[] lastUsed = new long[MAX_CHUNKS];
+    private BufferedImage[] images = new BufferedImage[MAX_CHUNKS];
+    private Graphics[] graphics = new Graphics[MAX_CHUNKS];
+    // the tile key (RenderSnapshot.tileKey()) of each tile of the chunk
+    // and the frames of its chips composited (-1: none yet)
+    private int[][] keys = new int[MAX_CHUNKS][];
+    private int[][] frameKeys = new int[MAX_CHUNKS][];
+    // the tiles (index: y * CHUNK + x) with an animated chip
+    private int[][] animated = new int[MAX_CHUNKS][];
+    private int[] numAnimated = new int[MAX_CHUNKS];
+
+    private long frame = 0;
+    private int mapNo;
+    private long tick;
+    // the chunk found last (tiles are looked up row by row)
+    private int last = -1;
+
+    // the number of tiles composited
+    private long composited = 0;
+
+    public void beginFrame(int mapNo, long tick) {
+        this.mapNo = mapNo;
+        this.tick = tick;
+        frame++;
+        last = -1;
+    }
+
+    // composite the tile (tx, ty), with the frames of its chips at the
+    // tick, into its chunk unless it is already there
+    public void prepare(int tx, int ty, int key) {
+        int c = find(tx / CHUNK, ty / CHUNK);
+        int i = (ty % CHUNK) * CHUNK + tx % CHUNK;
+        if (keys[c][i] != key) {
+            setAnimated(c, i, AnimatedChips.isAnimatedKey(key));
+            keys[c][i] = key;
+        }
+        int frameKey = AnimatedChips.getFrameKey(key, tick);
+        if (frameKeys[c][i] == frameKey) {
+            return;
+        }
+        Graphics g = graphics[c];
+        int x = (tx % CHUNK) * CS;
+        int y = (ty % CHUNK) * CS;
+        g.setColor(Color.WHITE);
+        g.fillRect(x, y, CS, CS);
+        SpriteFrames.draw(g, SpriteFrames.getChipFrame(RenderSnapshot.getChip(frameKey)), x, y);
+        int decoration = RenderSnapshot.getDecoration(frameKey);
+        if (decoration >= 0) {
+            SpriteFrames.draw(g, SpriteFrames.getChipFrame(decoration), x, y);
+        }
+        frameKeys[c][i] = frameKey;
+        composited++;
+    }
+
+    // add the tile i of chunk c to the animated tiles or remove it
+    private void setAnimated(int c, int i, boolean on) {
+        int k = 0;
+        while (k < numAnimated[c] && animated[c][k] != i) {
+            k++;
+        }
+        if (on && k == numAnimated[c]) {
+            animated[c][numAnimated[c]++] = i;
+        } else if (!on && k < numAnimated[c]) {
+            animated[c][k] = animated[c][--numAnimated[c]];
+        }
+    }
+
+    // mark the animated tiles on the screen whose frame at the tick of
+    // the snapshot is not the one composited
+    public void markAnimated(RenderSnapshot s, DirtyRegion dirty) {
+        for (int c = 0; c < numChunks; c++) {
+            if (chunkMapNo[c] != s.mapNo) {
+                continue;
+            }
+            for (int k = 0; k < numAnimated[c]; k++) {
+                int i = animated[c][k];
+                // (unit: tile from the first visible tile)
+                int col = chunkX[c] * CHUNK + i % CHUNK - s.firstTileX;
+                int row = chunkY[c] * CHUNK + i / CHUNK - s.firstTileY;
+                if (col < 0 || col >= s.tileCols || row < 0 || row >= s.tileRows) {
+                    continue;
+                }
+                if (AnimatedChips.getFrameKey(keys[c][i], s.tick) != frameKeys[c][i]) {
+                    dirty.markCell(col, row);
+                }
+            }
+        }
+    }
+
+    // draw the prepared tile (tx, ty) at its place on the screen
+    public void drawTile(Graphics g, int tx, int ty, int offsetX, int offsetY) {
+        blit(g, find(tx / CHUNK, ty / CHUNK), tx, ty, 1, 1, offsetX, offsetY);
+    }
+
+    // draw the prepared tiles of the area with a blit per chunk
+    public void drawArea(Graphics g, int firstTileX, int firstTileY, int cols, int rows,
+                         int offsetX, int offsetY) {
+        int lastTileX = firstTileX + cols;
+        int lastTileY = firstTileY + rows;
+        for (int cy = firstTileY / CHUNK; cy * CHUNK < lastTileY; cy++) {
+            for (int cx = firstTileX / CHUNK; cx * CHUNK < lastTileX; cx++) {
+                // the part of the chunk in the area (unit: tile)
+                int x0 = Math.max(cx * CHUNK, firstTileX);
+                int y0 = Math.max(cy * CHUNK, firstTileY);
+                int x1 = Math.min(cx * CHUNK + CHUNK, lastTileX);
+                int y1 = Math.min(cy * CHUNK + CHUNK, lastTileY);
+                blit(g, find(cx, cy), x0, y0, x1 - x0, y1 - y0, offsetX, offsetY);
+            }
+        }
+    }
+
+    // draw cols x rows tiles of chunk c from the tile (tx, ty)
+    private void blit(Graphics g, int c, int tx, int ty, int cols, int rows, int offsetX, int offsetY) {
+        int sx = (tx % CHUNK) * CS;
+        int sy = (ty % CHUNK) * CS;
+        int w = cols * CS;
+        int h = rows * CS;
+        int x = tx * CS - offsetX;
+        int y = ty * CS - offsetY;
+        g.drawImage(images[c], x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
+    }
+
+    // the index of the chunk (cx, cy) of the current map
+    private int find(int cx, int cy) {
+        if (last >= 0 && chunkX[last] == cx && chunkY[last] == cy && chunkMapNo[last] == mapNo) {
+            return last;
+        }
+        int c = -1;
+        for (int i = 0; i < numChunks; i++) {
+            if (chunkX[i] == cx && chunkY[i] == cy && chunkMapNo[i] == mapNo) {
+                c = i;
+                break;
+            }
+        }
+        if (c == -1) {
+            c = allocate();
+            chunkMapNo[c] = mapNo;
+            chunkX[c] = cx;
+            chunkY[c] = cy;
+        }
+        lastUsed[c] = frame;
+        last = c;
+        return c;
+    }
+
+    // a new chunk, or the least recently used one emptied
+    private int allocate() {
+        int c;
+        if (numChunks < MAX_CHUNKS) {
+            c = numChunks++;
+            images[c] = new BufferedImage(CHUNK * CS, CHUNK * CS, BufferedImage.TYPE_INT_RGB);
+            graphics[c] = images[c].getGraphics();
+            keys[c] = new int[CHUNK * CHUNK];
+            frameKeys[c] = new int[CHUNK * CHUNK];
+            animated[c] = new int[CHUNK * CHUNK];
+        } else {
+            c = 0;
+            for (int i = 1; i < numChunks; i++) {
+                if (lastUsed[i] < lastUsed[c]) {
+                    c = i;
+                }
+            }
+        }
+        Arrays.fill(keys[c], -1);
+        Arrays.fill(frameKeys[c], -1);
+        numAnimated[c] = 0;
+        return c;
+    }
+
+    public long getCompositedCount() {
+        return composited;
+    }
+}
@@ -0,0 +1,68 @@
+import java.awt.*;
+
+// the map, the position of the hero and the dropped gameplay events
+// (top left of the screen)
+public class DebugPanel extends HudPanel {
+    private static final Font FONT = new Font("Monospaced", Font.BOLD, 16);
+
+    // "name (cols,rows)" and the BGM of each map
+    private String[] mapLabels;
+    private String[] bgmNames;
+
+    private int mapNo = -1;
+    private int heroX, heroY;
+    private int heroPX, heroPY;
+    private int droppedEvents;
+
+    public DebugPanel(String[] mapLabels, String[] bgmNames) {
+        super(0, 0);
+        this.mapLabels = mapLabels;
+        this.bgmNames = bgmNames;
+    }
+
+    protected boolean update(RenderSnapshot s) {
+        if (s.mapNo == mapNo && s.heroX == heroX && s.heroY == heroY
+                && s.heroPX == heroPX && s.heroPY == heroPY
+                && s.droppedEvents == droppedEvents) {
+            return false;
+        }
+        mapNo = s.mapNo;
+        heroX = s.heroX;
+        heroY = s.heroY;
+        heroPX = s.heroPX;
+        heroPY = s.heroPY;
+        droppedEvents = s.droppedEvents;
+        return true;
+    }
+
+    protected int getPanelWidth() {
+        return 320;
+    }
+
+    protected int getPanelHeight() {
+        return 84;
+    }
+
+    protected void render(Graphics2D g) {
+        g.setFont(FONT);
+        g.setColor(Color.YELLOW);
+        g.drawString(mapLabels[mapNo], 4, 16);
+        drawPair(g, heroX, heroY, 4, 32);
+        drawPair(g, heroPX, heroPY, 4, 48);
+        g.drawString(bgmNames[mapNo], 4, 64);
+        int len = formatString("EVENTS DROPPED ", text, 0);
+        len = formatInt(droppedEvents, text, len);
+        g.drawChars(text, 0, len, 4, 80);
+    }
+
+    // draw "(a,b)" without allocating a string
+    private void drawPair(Graphics2D g, int a, int b, int x, int y) {
+        int len = 0;
+        text[len++] = '(';
+        len = formatInt(a, text, len);
+        text[len++] = ',';
+        len = formatInt(b, text, len);
+        text[len++] = ')';
+        g.drawChars(text, 0, len, x, y);
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+// the parts of the screen that have to be redrawn, in cells of the
+// visible tiles (so that a dirty cell is redrawn from its tile up).
+// the dirty cells are presented as a few rectangles: runs of dirty
+// cells in a row, merged with the same runs of the rows below.
+public class DirtyRegion implements Common {
+    // screen position of the upper left cell (unit: pixel)
+    private int originX, originY;
+    private int cols, rows;
+    private boolean[] cells = new boolean[32 * 32];
+    private int count;
+
+    // rectangles to present (screen coordinates)
+    private int numRects;
+    private int[] rectX = new int[64];
+    private int[] rectY = new int[64];
+    private int[] rectW = new int[64];
+    private int[] rectH = new int[64];
+    // the row runs being merged (index: first column, value: rect + 1)
+    private int[] openRect = new int[32];
+
+    // start over with no dirty cell on the visible tiles of the snapshot
+    public void reset(RenderSnapshot s) {
+        originX = s.firstTileX * CS - s.offsetX;
+        originY = s.firstTileY * CS - s.offsetY;
+        cols = s.tileCols;
+        rows = s.tileRows;
+        if (cells.length < cols * rows) {
+            cells = new boolean[cols * rows];
+        }
+        if (openRect.length < cols + 1) {
+            openRect = new int[cols + 1];
+        }
+        for (int i = 0; i < cols * rows; i++) {
+            cells[i] = false;
+        }
+        count = 0;
+    }
+
+    // do the cells cover the whole screen?
+    public boolean coversScreen() {
+        return originX <= 0 && originY <= 0
+            && originX + cols * CS >= MainPanel.WIDTH
+            && originY + rows * CS >= MainPanel.HEIGHT;
+    }
+
+    public void markAll() {
+        for (int i = 0; i < cols * rows; i++) {
+            cells[i] = true;
+        }
+        count = cols * rows;
+    }
+
+    // mark the cells under the rectangle (screen coordinates)
+    public void mark(int x, int y, int w, int h) {
+        int firstCol = Math.max(0, Math.floorDiv(x - originX, CS));
+        int lastCol = Math.min(cols - 1, Math.floorDiv(x + w - 1 - originX, CS));
+        int firstRow = Math.max(0, Math.floorDiv(y - originY, CS));
+        int lastRow = Math.min(rows - 1, Math.floorDiv(y + h - 1 - originY, CS));
+        for (int i = firstRow; i <= lastRow; i++) {
+            for (int j = firstCol; j <= lastCol; j++) {
+                if (!cells[i * cols + j]) {
+                    cells[i * cols + j] = true;
+                    count++;
+                }
+            }
+        }
+    }
+
+    public void markCell(int col, int row) {
+        if (!cells[row * cols + col]) {
+            cells[row * cols + col] = true;
+            count++;
+        }
+    }
+
+    public boolean isCellDirty(int col, int row) {
+        return cells[row * cols + col];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public boolean isAll() {
+        return count == cols * rows;
+    }
+
+    // is any cell under the rectangle dirty?
+    public boolean intersects(int x, int y, int w, int h) {
+        return countUnder(x, y, w, h, true) > 0;
+    }
+
+    // are all the cells under the rectangle dirty?
+    public boolean covers(int x, int y, int w, int h) {
+        return countUnder(x, y, w, h, false) == 0;
+    }
+
+    // the number of cells under the rectangle that are dirty (or clean)
+    private int countUnder(int x, int y, int w, int h, boolean dirty) {
+        int firstCol = Math.max(0, Math.floorDiv(x - originX, CS));
+        int lastCol = Math.min(cols - 1, Math.floorDiv(x + w - 1 - originX, CS));
+        int firstRow = Math.max(0, Math.floorDiv(y - originY, CS));
+        int lastRow = Math.min(rows - 1, Math.floorDiv(y + h - 1 - originY, CS));
+        int n = 0;
+        for (int i = firstRow; i <= lastRow; i++) {
+            for (int j = firstCol; j <= lastCol; j++) {
+                if (cells[i * cols + j] == dirty) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    // turn the dirty cells into rectangles (clipped to the screen)
+    public void buildRects() {
+        numRects = 0;
+        for (int j = 0; j <= cols; j++) {
+            openRect[j] = 0;
+        }
+        for (int i = 0; i < rows; i++) {
+            int j = 0;
+            while (j < cols) {
+                if (!cells[i * cols + j]) {
+                    // a run that does not go on in this row is closed
+                    openRect[j] = 0;
+                    j++;
+                    continue;
+                }
+                int start = j;
+                while (j < cols && cells[i * cols + j]) {
+                    j++;
+                }
+                int r = openRect[start] - 1;
+                if (r >= 0 && rectW[r] == (j - start) * CS
+                        && rectY[r] + rectH[r] == originY + i * CS) {
+                    // the same run as in the row above
+                    rectH[r] += CS;
+                } else {
+                    r = addRect(originX + start * CS, originY + i * CS, (j - start) * CS, CS);
+                    openRect[start] = r + 1;
+                }
+                for (int k = start + 1; k < j; k++) {
+                    openRect[k] = 0;
+                }
+            }
+        }
+        // clip to the screen
+        for (int r = 0; r < numRects; r++) {
+            int x0 = Math.max(rectX[r], 0);
+            int y0 = Math.max(rectY[r], 0);
+            int x1 = Math.min(rectX[r] + rectW[r], MainPanel.WIDTH);
+            int y1 = Math.min(rectY[r] + rectH[r], MainPanel.HEIGHT);
+            rectX[r] = x0;
+            rectY[r] = y0;
+            rectW[r] = Math.max(0, x1 - x0);
+            rectH[r] = Math.max(0, y1 - y0);
+        }
+    }
+
+    private int addRect(int x, int y, int w, int h) {
+        if (numRects == rectX.length) {
+            int n = numRects * 2;
+            rectX = Arrays.copyOf(rectX, n);
+            rectY = Arrays.copyOf(rectY, n);
+            rectW = Arrays.copyOf(rectW, n);
+            rectH = Arrays.copyOf(rectH, n);
+        }
+        rectX[numRects] = x;
+        rectY[numRects] = y;
+        rectW[numRects] = w;
+        rectH[numRects] = h;
+        return numRects++;
+    }
+
+    public int getRectCount() {
+        return numRects;
+    }
+
+    public int getRectX(int i) {
+        return rectX[i];
+    }
+
+    public int getRectY(int i) {
+        return rectY[i];
+    }
+
+    public int getRectWidth(int i) {
+        return rectW[i];
+    }
+
+    public int getRectHeight(int i) {
+        return rectH[i];
+    }
+
+    public int getCellCount() {
+        return cols * rows;
+    }
+
+    public int getDirtyCount() {
+        return count;
+    }
+}
@@ -4,6 +4,11 @@ public abstract class Event {
     protected int id;
     protected boolean isHit;
 
+    // next event on the same tile (maintained by Map)
+    Event nextInTile;
+    // index in the event file, -1 if created during the game (set by Map)
+    int baselineIndex = -1;
+
     public Event(int x, int y, int id, boolean isHit) {
         this.x = x;
         this.y = y;
@@ -0,0 +1,55 @@
+import java.awt.*;
+
+// the frame times of the renderer (bottom of the screen, toggled by F3).
+// the graph moves every frame, so it is rendered every frame it is shown
+public class FrameGraphPanel extends HudPanel {
+    private static final Font FONT = new Font("Monospaced", Font.BOLD, 16);
+    private static final int HEIGHT = 136;
+
+    private FrameTimer timer;
+    private long budgetMicros;
+    private boolean shown = false;
+
+    public FrameGraphPanel(FrameTimer timer, long budgetMicros) {
+        super(0, MainPanel.HEIGHT - HEIGHT);
+        this.timer = timer;
+        this.budgetMicros = budgetMicros;
+    }
+
+    // the timer of the thread that renders
+    public void setTimer(FrameTimer timer) {
+        this.timer = timer;
+    }
+
+    protected boolean update(RenderSnapshot s) {
+        boolean changed = s.showFrameGraph || shown;
+        shown = s.showFrameGraph;
+        return changed;
+    }
+
+    protected int getPanelWidth() {
+        return shown ? MainPanel.WIDTH : 0;
+    }
+
+    protected int getPanelHeight() {
+        return shown ? HEIGHT : 0;
+    }
+
+    // "phase p50/p99/maxus" of each phase next to the graph
+    protected void render(Graphics2D g) {
+        timer.draw(g, 4, 4, 128, budgetMicros);
+        g.setFont(FONT);
+        g.setColor(Color.YELLOW);
+        for (int i = 0; i < FrameTimer.NUM_PHASES; i++) {
+            int len = formatString(FrameTimer.getPhaseName(i), text, 0);
+            text[len++] = ' ';
+            len = formatInt(timer.percentile(i, 50), text, len);
+            text[len++] = '/';
+            len = formatInt(timer.percentile(i, 99), text, len);
+            text[len++] = '/';
+            len = formatInt(timer.getMax(i), text, len);
+            len = formatString("us", text, len);
+            g.drawChars(text, 0, len, 264, 20 + i * 20);
+        }
+    }
+}
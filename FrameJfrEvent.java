@@ -0,0 +1,70 @@
+import jdk.jfr.*;
+
+// one frame of the game loop (Java Flight Recorder)
+@Name("rpg.Frame")
+@Label("Frame")
+@Category("RPG")
+@StackTrace(false)
+@Description("One frame of the game loop and the time of each phase")
+public class FrameJfrEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(FrameJfrEvent.class);
+
+    @Label("Tick")
+    long tick;
+
+    @Label("Map")
+    String mapName;
+
+    @Label("Characters")
+    int characters;
+
+    @Label("Events")
+    int events;
+
+    @Label("Input")
+    @Timespan(Timespan.NANOSECONDS)
+    long input;
+
+    @Label("Update")
+    @Timespan(Timespan.NANOSECONDS)
+    long update;
+
+    @Label("Render")
+    @Timespan(Timespan.NANOSECONDS)
+    long render;
+
+    @Label("Print")
+    @Timespan(Timespan.NANOSECONDS)
+    long print;
+
+    @Label("Sleep")
+    @Timespan(Timespan.NANOSECONDS)
+    long sleep;
+
+    // begin a frame, or return null (no allocation) unless a recording wants it
+    public static FrameJfrEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        FrameJfrEvent e = new FrameJfrEvent();
+        e.begin();
+        return e;
+    }
+
+    // end the frame with the phases measured by the timer
+    public void commit(long tick, Map map, FrameTimer timer) {
+        end();
+        if (shouldCommit()) {
+            this.tick = tick;
+            mapName = map.getMapName();
+            characters = map.getCharacters().size();
+            events = map.getEvents().size();
+            input = timer.getLast(FrameTimer.INPUT);
+            update = timer.getLast(FrameTimer.UPDATE);
+            render = timer.getLast(FrameTimer.RENDER);
+            print = timer.getLast(FrameTimer.PRINT);
+            sleep = timer.getLast(FrameTimer.SLEEP);
+            commit();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+
+// measures where the time of each frame goes.
+// the game loop marks the end of each phase; the durations go into
+// lock-free histograms that a timer thread dumps to a log file.
+public class FrameTimer {
+    // phases of a frame
+    public static final int INPUT = 0;
+    public static final int UPDATE = 1;
+    public static final int RENDER = 2;
+    public static final int PRINT = 3;
+    public static final int SLEEP = 4;
+    // the whole frame
+    public static final int FRAME = 5;
+    public static final int NUM_PHASES = 6;
+
+    private static final String[] PHASE_NAMES =
+        {"input", "update", "render", "print", "sleep", "frame"};
+    private static final Color[] PHASE_COLORS =
+        {Color.CYAN, Color.GREEN, Color.ORANGE, Color.MAGENTA, Color.DARK_GRAY};
+
+    // the number of frames in the overlay graph
+    private static final int HISTORY = 128;
+
+    private Histogram[] histograms = new Histogram[NUM_PHASES];
+
+    // recent durations for the overlay (game loop only, unit: us)
+    private int[][] history = new int[HISTORY][NUM_PHASES];
+    private int historyPos = 0;
+
+    // the durations of the last frame (unit: ns)
+    private long[] last = new long[NUM_PHASES];
+
+    private long frameStart;
+    private long phaseStart;
+
+    private java.util.Timer logTimer;
+
+    public FrameTimer() {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            histograms[i] = new Histogram();
+        }
+        frameStart = phaseStart = System.nanoTime();
+    }
+
+    // start a frame
+    public void begin() {
+        frameStart = phaseStart = System.nanoTime();
+    }
+
+    // the phase ends now
+    public void mark(int phase) {
+        long now = System.nanoTime();
+        record(phase, now - phaseStart);
+        phaseStart = now;
+    }
+
+    // the frame ends now
+    public void end() {
+        record(FRAME, System.nanoTime() - frameStart);
+        historyPos = (historyPos + 1) % HISTORY;
+    }
+
+    private void record(int phase, long nanos) {
+        last[phase] = nanos;
+        int us = (int)Math.min(nanos / 1000, Integer.MAX_VALUE);
+        histograms[phase].record(us);
+        history[historyPos][phase] = us;
+    }
+
+    // the p-th percentile of the phase (unit: us, within 1/8)
+    public long percentile(int phase, double p) {
+        return histograms[phase].percentile(p);
+    }
+
+    // the duration of the phase in the last frame (unit: ns)
+    public long getLast(int phase) {
+        return last[phase];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    public long getMax(int phase) {
+        return histograms[phase].getMax();
+    }
+
+    // the total duration of the phase (unit: us)
+    public long getSum(int phase) {
+        return histograms[phase].getSum();
+    }
+
+    // the number of durations recorded for the phase
+    public long getCount(int phase) {
+        return histograms[phase].getCount();
+    }
+
+    // clear the histograms (any thread)
+    public void reset() {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            histograms[i].reset();
+        }
+    }
+
+    // append the histograms to the file every period (ms) and clear them
+    public void startLog(final String filename, long period) {
+        logTimer = new java.util.Timer("FrameTimer", true);
+        logTimer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                try (PrintWriter out = new PrintWriter(new FileWriter(filename, true))) {
+                    out.println(summary(System.currentTimeMillis() + " "));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                reset();
+            }
+        }, period, period);
+    }
+
+    // one line per phase: name p50 p99 max (unit: us)
+    public String summary(String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_PHASES; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(prefix).append(PHASE_NAMES[i])
+              .append(" p50=").append(percentile(i, 50))
+              .append(" p99=").append(percentile(i, 99))
+              .append(" max=").append(getMax(i));
+        }
+        return sb.toString();
+    }
+
+    // stacked bars of the recent frames, with a line at the frame budget
+    public void draw(Graphics g, int x, int y, int height, long budgetMicros) {
+        // 1 pixel = 2 frame budgets / height
+        double scale = height / (2.0 * budgetMicros);
+        g.setColor(Color.BLACK);
+        g.fillRect(x, y, HISTORY * 2, height);
+        for (int i = 0; i < HISTORY; i++) {
+            int[] frame = history[(historyPos + 1 + i) % HISTORY];
+            int bottom = y + height;
+            for (int phase = 0; phase < SLEEP + 1; phase++) {
+                int h = (int)(frame[phase] * scale);
+                if (bottom - h < y) {
+                    h = bottom - y;
+                }
+                g.setColor(PHASE_COLORS[phase]);
+                g.fillRect(x + i * 2, bottom - h, 2, h);
+                bottom -= h;
+            }
+        }
+        g.setColor(Color.RED);
+        g.drawLine(x, y + height / 2, x + HISTORY * 2, y + height / 2);
+    }
+}
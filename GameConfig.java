@@ -0,0 +1,58 @@
+// command line options
+//
+// --seed n            seed of the random number generator
+// --record file       record the input of this session
+// --replay file       replay a recorded session
+// --speed n           replay speed (1: normal, 0: as fast as possible)
+// --headless          no window, no sound (replay only)
+// --frame-log file    append frame time percentiles to the file every 10 seconds
+// --world name        play the maps generated by WorldGenerator with this name
+// --metrics-port n    serve metrics on http://127.0.0.1:n/metrics
+// --render-thread     render on another thread than the game logic
+// --full-redraw       redraw and present the whole screen every frame
+public class GameConfig {
+    public long seed = System.nanoTime();
+    public String recordFile;
+    public String replayFile;
+    public int replaySpeed = 1;
+    public boolean headless;
+    public String frameLogFile;
+    public String world;
+    public int metricsPort;
+    public boolean renderThread;
+    public boolean fullRedraw;
+
+    public static GameConfig parse(String[] args) {
+        GameConfig config = new GameConfig();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--seed")) {
+                config.seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--record")) {
+                config.recordFile = args[++i];
+            } else if (arg.equals("--replay")) {
+                config.replayFile = args[++i];
+            } else if (arg.equals("--speed")) {
+                config.replaySpeed = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--headless")) {
+                config.headless = true;
+            } else if (arg.equals("--metrics-port")) {
+                config.metricsPort = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--render-thread")) {
+                config.renderThread = true;
+            } else if (arg.equals("--full-redraw")) {
+                config.fullRedraw = true;
+            } else if (arg.equals("--world")) {
+                config.world = args[++i];
+            } else if (arg.equals("--frame-log")) {
+                config.frameLogFile = args[++i];
+            } else {
+                throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (config.headless && config.replayFile == null) {
+            throw new IllegalArgumentException("--headless needs --replay");
+        }
+        return config;
+    }
+}
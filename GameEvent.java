@@ -0,0 +1,47 @@
+// a gameplay event published through GameEventBus.
+// slots are preallocated by the bus and reused, so listeners
+// must not keep a reference to a GameEvent.
+public class GameEvent {
+    // event types
+    public static final int STEP = 0;
+    public static final int TREASURE_FOUND = 1;
+    public static final int DOOR_OPENED = 2;
+    public static final int WARP = 3;
+    public static final int DEATH = 4;
+    public static final int TALK = 5;
+    public static final int NUM_TYPES = 6;
+
+    int type;
+    // map number and tile where the event happened
+    int mapNo;
+    int x;
+    int y;
+    // item name, message, etc.
+    String text;
+    // the event or character which caused this event
+    Object source;
+
+    public int getType() {
+        return type;
+    }
+
+    public int getMapNo() {
+        return mapNo;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Object getSource() {
+        return source;
+    }
+}
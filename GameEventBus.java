@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+// queues gameplay events in a ring buffer of preallocated slots and
+// dispatches them to the listeners subscribed to each event type.
+// publish() and dispatch() do not allocate unless listeners publish more
+// events than the ring holds. both must be called from the game loop thread.
+public class GameEventBus {
+    // the ring grows up to this many slots while dispatching. beyond
+    // that, listeners publish events forever and the new ones are dropped
+    public static final int MAX_CAPACITY = 4096;
+
+    private GameEvent[] ring;
+    // next slot to dispatch / to publish
+    private int head;
+    private int tail;
+    private int size;
+
+    // event type -> listeners
+    private GameEventListener[][] listeners;
+
+    private boolean isDispatching;
+    // the number of events dropped because the ring was full at
+    // MAX_CAPACITY while dispatching (shown in the debug HUD and metrics)
+    private int dropped;
+
+    public GameEventBus() {
+        this(64);
+    }
+
+    public GameEventBus(int capacity) {
+        ring = new GameEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new GameEvent();
+        }
+        listeners = new GameEventListener[GameEvent.NUM_TYPES][0];
+    }
+
+    public void subscribe(int type, GameEventListener listener) {
+        GameEventListener[] l = listeners[type];
+        l = Arrays.copyOf(l, l.length + 1);
+        l[l.length - 1] = listener;
+        listeners[type] = l;
+    }
+
+    public void unsubscribe(int type, GameEventListener listener) {
+        GameEventListener[] l = listeners[type];
+        for (int i = 0; i < l.length; i++) {
+            if (l[i] == listener) {
+                GameEventListener[] newListeners = new GameEventListener[l.length - 1];
+                System.arraycopy(l, 0, newListeners, 0, i);
+                System.arraycopy(l, i + 1, newListeners, i, l.length - i - 1);
+                listeners[type] = newListeners;
+                return;
+            }
+        }
+    }
+
+    public void publish(int type, int mapNo, int x, int y, String text, Object source) {
+        // nobody is listening
+        if (listeners[type].length == 0) {
+            return;
+        }
+        if (size == ring.length) {
+            if (!isDispatching) {
+                dispatch();
+            } else if (ring.length < MAX_CAPACITY) {
+                // published by a listener: the queued events cannot be
+                // delivered now, so make room for this one
+                grow();
+            } else {
+                dropped++;
+                return;
+            }
+        }
+        GameEvent e = ring[tail];
+        e.type = type;
+        e.mapNo = mapNo;
+        e.x = x;
+        e.y = y;
+        e.text = text;
+        e.source = source;
+        tail = (tail + 1) % ring.length;
+        size++;
+    }
+
+    // deliver queued events in order.
+    // events published by listeners are delivered in the same call.
+    public void dispatch() {
+        if (isDispatching) {
+            return;
+        }
+        isDispatching = true;
+        try {
+            while (size > 0) {
+                GameEvent e = ring[head];
+                GameEventListener[] l = listeners[e.type];
+                for (int i = 0; i < l.length; i++) {
+                    l[i].onGameEvent(e);
+                }
+                // do not keep references to dead objects
+                e.text = null;
+                e.source = null;
+                head = (head + 1) % ring.length;
+                size--;
+            }
+        } finally {
+            isDispatching = false;
+        }
+    }
+
+    // double the ring, keeping the queued events in order
+    private void grow() {
+        GameEvent[] newRing = new GameEvent[ring.length * 2];
+        for (int i = 0; i < size; i++) {
+            newRing[i] = ring[(head + i) % ring.length];
+        }
+        for (int i = size; i < newRing.length; i++) {
+            newRing[i] = new GameEvent();
+        }
+        ring = newRing;
+        head = 0;
+        tail = size;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+}
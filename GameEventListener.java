@@ -0,0 +1,3 @@
+public interface GameEventListener {
+    public void onGameEvent(GameEvent e);
+}
@@ -0,0 +1,62 @@
+import java.util.concurrent.atomic.*;
+
+// numbers about the game loop that other threads (MetricsServer) can read.
+// the game loop writes them with lazySet once per tick and never waits
+// for a reader; a reader may see counts of different ticks.
+public class GameMetrics {
+    private String[] mapNames;
+
+    private AtomicLong ticks = new AtomicLong();
+    private AtomicInteger mapNo = new AtomicInteger();
+    private AtomicIntegerArray characters;
+    private AtomicIntegerArray events;
+    private AtomicInteger droppedEvents = new AtomicInteger();
+
+    public GameMetrics(Map[] maps) {
+        mapNames = new String[maps.length];
+        for (int i = 0; i < maps.length; i++) {
+            mapNames[i] = maps[i].getMapName();
+        }
+        characters = new AtomicIntegerArray(maps.length);
+        events = new AtomicIntegerArray(maps.length);
+    }
+
+    // called by the game loop at the end of a tick
+    public void update(long tick, Map[] maps, int currentMapNo, GameEventBus eventBus) {
+        ticks.lazySet(tick);
+        mapNo.lazySet(currentMapNo);
+        droppedEvents.lazySet(eventBus.getDropped());
+        for (int i = 0; i < maps.length; i++) {
+            characters.lazySet(i, maps[i].getCharacters().size());
+            events.lazySet(i, maps[i].getEvents().size());
+        }
+    }
+
+    public int getMapCount() {
+        return mapNames.length;
+    }
+
+    public String getMapName(int i) {
+        return mapNames[i];
+    }
+
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    public int getMapNo() {
+        return mapNo.get();
+    }
+
+    public int getCharacters(int i) {
+        return characters.get(i);
+    }
+
+    public int getEvents(int i) {
+        return events.get(i);
+    }
+
+    public int getDroppedEvents() {
+        return droppedEvents.get();
+    }
+}
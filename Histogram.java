@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.*;
+
+// lock-free histogram of durations (unit: us). one thread records,
+// any thread can read percentiles or reset it.
+public class Histogram {
+    // values below 16us have their own bucket, larger ones share a
+    // bucket with 1/8 of their power of two.
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int NUM_BUCKETS = LINEAR + (31 - 4) * SUB_BUCKETS;
+
+    private AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private AtomicLong max = new AtomicLong();
+    // the sum of the values (unit: us)
+    private AtomicLong sum = new AtomicLong();
+
+    public void record(long us) {
+        int v = (int)Math.min(Math.max(us, 0), Integer.MAX_VALUE);
+        buckets.incrementAndGet(bucketOf(v));
+        sum.addAndGet(v);
+        if (v > max.get()) {
+            // only the recording thread raises it (a reset() in between may lose one value)
+            max.set(v);
+        }
+    }
+
+    private static int bucketOf(int us) {
+        if (us < LINEAR) {
+            return us;
+        }
+        int exp = 31 - Integer.numberOfLeadingZeros(us);
+        int sub = (us >> (exp - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+    }
+
+    // the largest value of the bucket (unit: us)
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exp = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS + sub + 1) << (exp - 3)) - 1;
+    }
+
+    // the p-th percentile (unit: us, within 1/8)
+    public long percentile(double p) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * p / 100.0);
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += buckets.get(i);
+            if (count >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        max.set(0);
+        sum.set(0);
+    }
+}
@@ -0,0 +1,40 @@
+import java.awt.*;
+import java.util.ArrayList;
+
+// the HUD layer drawn over the world: a list of panels, each cached in
+// its own image. a panel that does not change costs the renderer one
+// compare of its values per frame and nothing else, so panels can be
+// added (quest log, minimap, stats) without slowing down every frame.
+// used by the renderer only.
+public class Hud {
+    private ArrayList<HudPanel> panels = new ArrayList<HudPanel>();
+
+    // panels are drawn in the order they are added
+    public void add(HudPanel panel) {
+        panels.add(panel);
+    }
+
+    // render the panels whose values changed in the snapshot again, and
+    // mark their areas in dirty (null: the whole screen is redrawn)
+    public void update(RenderSnapshot s, DirtyRegion dirty) {
+        for (int i = 0; i < panels.size(); i++) {
+            panels.get(i).refresh(s, dirty);
+        }
+    }
+
+    // the number of times the panels have been rendered
+    public int getRenderCount() {
+        int n = 0;
+        for (int i = 0; i < panels.size(); i++) {
+            n += panels.get(i).getRenderCount();
+        }
+        return n;
+    }
+
+    // draw the panels over the dirty cells (all if dirty is null)
+    public void draw(Graphics g, DirtyRegion dirty) {
+        for (int i = 0; i < panels.size(); i++) {
+            panels.get(i).draw(g, dirty);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// a panel of the HUD. the panel is rendered into its own image only when
+// the values it shows change; every frame it is just drawn (where the
+// screen under it is redrawn). a subclass copies its values from the
+// render snapshot in update() and renders them in render().
+public abstract class HudPanel {
+    // screen position of the upper left corner (unit: pixel)
+    private final int x, y;
+    // size of the rendered panel (0: hidden)
+    private int width, height;
+
+    // the rendered panel (transparent where nothing is drawn)
+    private BufferedImage image;
+    private Graphics2D imageGraphics;
+    // a row of transparent pixels
+    private int[] clearRow;
+    private boolean rendered = false;
+    private int renderCount = 0;
+
+    // text formatted in place, so that rendering does not allocate
+    protected char[] text = new char[64];
+
+    protected HudPanel(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    // copy the values shown from the snapshot and return whether they
+    // differ from the ones rendered
+    protected abstract boolean update(RenderSnapshot s);
+
+    // the size of the panel for the current values (0: hidden)
+    protected abstract int getPanelWidth();
+    protected abstract int getPanelHeight();
+
+    // render the current values (in panel coordinates)
+    protected abstract void render(Graphics2D g);
+
+    // render the panel again if its values have changed, and mark where
+    // it was and where it is now (dirty may be null)
+    void refresh(RenderSnapshot s, DirtyRegion dirty) {
+        if (!update(s) && rendered) {
+            return;
+        }
+        mark(dirty);
+        width = getPanelWidth();
+        height = getPanelHeight();
+        if (width > 0 && height > 0) {
+            if (image == null || image.getWidth() < width || image.getHeight() < height) {
+                if (imageGraphics != null) {
+                    imageGraphics.dispose();
+                }
+                image = new BufferedImage(Math.max(width, image == null ? 0 : image.getWidth()),
+                                          Math.max(height, image == null ? 0 : image.getHeight()),
+                                          BufferedImage.TYPE_INT_ARGB);
+                imageGraphics = image.createGraphics();
+                clearRow = new int[image.getWidth()];
+            }
+            // clearing through the graphics switches its composite or
+            // alpha, which makes drawing on it allocate
+            for (int i = 0; i < image.getHeight(); i++) {
+                image.getRaster().setDataElements(0, i, image.getWidth(), 1, clearRow);
+            }
+            render(imageGraphics);
+            renderCount++;
+        }
+        rendered = true;
+        mark(dirty);
+    }
+
+    private void mark(DirtyRegion dirty) {
+        if (dirty != null && width > 0 && height > 0) {
+            dirty.mark(x, y, width, height);
+        }
+    }
+
+    // draw the panel if it is over a dirty cell (always if dirty is null).
+    // the text is not antialiased, so drawing it twice gives the same pixels
+    void draw(Graphics g, DirtyRegion dirty) {
+        if (width == 0 || height == 0
+                || (dirty != null && !dirty.intersects(x, y, width, height))) {
+            return;
+        }
+        g.drawImage(image, x, y, x + width, y + height, 0, 0, width, height, null);
+    }
+
+    // the number of times the panel has been rendered
+    public int getRenderCount() {
+        return renderCount;
+    }
+
+    // write n in decimal at pos and return the position after it
+    protected static int formatInt(long n, char[] buf, int pos) {
+        if (n < 0) {
+            buf[pos++] = '-';
+            n = -n;
+        }
+        int digits = 1;
+        for (long m = n / 10; m > 0; m /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (char)('0' + n % 10);
+            n /= 10;
+        }
+        return pos + digits;
+    }
+
+    // write s at pos and return the position after it
+    protected static int formatString(String s, char[] buf, int pos) {
+        s.getChars(0, s.length(), buf, pos);
+        return pos + s.length();
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// key events from the AWT event thread to the game loop.
+// single producer (AWT) and single consumer (game loop) ring buffer
+// without locks; the game loop drains it once per tick, so that the
+// action keys are only touched by the game loop.
+// each event keeps the System.nanoTime() it arrived at.
+public class InputQueue {
+    private int[] keyCodes;
+    private boolean[] pressed;
+    private long[] times;
+    private int mask;
+
+    // the next slot to write (producer) and to read (consumer)
+    private AtomicLong head = new AtomicLong();
+    private AtomicLong tail = new AtomicLong();
+
+    // the number of events dropped because the queue was full
+    private volatile long dropped;
+
+    // capacity must be a power of two
+    public InputQueue(int capacity) {
+        keyCodes = new int[capacity];
+        pressed = new boolean[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    // called from the AWT event thread
+    public boolean offer(int keyCode, boolean isPressed, long time) {
+        long h = head.get();
+        if (h - tail.get() > mask) {
+            dropped++;
+            return false;
+        }
+        int i = (int)(h & mask);
+        keyCodes[i] = keyCode;
+        pressed[i] = isPressed;
+        times[i] = time;
+        // publish the slot
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    // called from the game loop. returns false if the queue is empty.
+    public boolean poll(Entry e) {
+        long t = tail.get();
+        if (t == head.get()) {
+            return false;
+        }
+        int i = (int)(t & mask);
+        e.keyCode = keyCodes[i];
+        e.pressed = pressed[i];
+        e.time = times[i];
+        // give the slot back
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    // a key event taken from the queue (reused by the game loop)
+    public static class Entry {
+        public int keyCode;
+        public boolean pressed;
+        // System.nanoTime() of the key event
+        public long time;
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.*;
+
+// records the input of every frame with the random seed,
+// so that a session can be replayed by InputReplay
+//
+// int magic, short version, long seed,
+// then runs of (byte input, varint the number of frames)
+public class InputRecorder {
+    static final int MAGIC = 0x52504749;  // "RPGI"
+    static final short VERSION = 1;
+
+    private DataOutputStream out;
+    // current run
+    private int input = -1;
+    private int count = 0;
+    private long frames = 0;
+
+    public InputRecorder(String filename, long seed) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+    }
+
+    // called once per frame from the game loop
+    public synchronized void record(int input) {
+        if (out == null) {
+            return;
+        }
+        if (input != this.input && count > 0) {
+            writeRun();
+        }
+        this.input = input;
+        count++;
+        frames++;
+    }
+
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            if (count > 0) {
+                writeRun();
+            }
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    private void writeRun() {
+        try {
+            out.writeByte(input);
+            // varint
+            int n = count;
+            while ((n & ~0x7f) != 0) {
+                out.writeByte((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            out.writeByte(n);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        count = 0;
+    }
+}
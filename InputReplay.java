@@ -0,0 +1,69 @@
+import java.io.*;
+
+// plays back the input recorded by InputRecorder
+public class InputReplay {
+    private DataInputStream in;
+    private long seed;
+    // current run
+    private int input;
+    private int count = 0;
+
+    public InputReplay(String filename) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException("not a recorded session: " + filename);
+        }
+        short version = in.readShort();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        seed = in.readLong();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // return the input of the next frame, or -1 at the end of the session
+    public int next() {
+        if (count == 0) {
+            if (!readRun()) {
+                return -1;
+            }
+        }
+        count--;
+        return input;
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean readRun() {
+        try {
+            int b = in.read();
+            if (b == -1) {
+                in.close();
+                return false;
+            }
+            input = b;
+            // varint
+            int n = 0;
+            int shift = 0;
+            do {
+                b = in.readUnsignedByte();
+                n |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            count = n;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
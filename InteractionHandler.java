@@ -0,0 +1,5 @@
+// handles the hero's action (SPACE key) on an event or a character
+public interface InteractionHandler<T> {
+    // return true if the action was handled
+    boolean interact(T target, Character hero, Map map);
+}
@@ -0,0 +1,59 @@
+import java.util.*;
+
+// dispatches the hero's action (SPACE key) to the handler registered
+// for the type of the event or character on the target tile
+public class Interactions {
+    // Event or Character class -> handler
+    private HashMap<Class<?>, InteractionHandler<?>> handlers;
+
+    public Interactions() {
+        handlers = new HashMap<Class<?>, InteractionHandler<?>>();
+    }
+
+    public <T> void register(Class<T> type, InteractionHandler<? super T> handler) {
+        handlers.put(type, handler);
+    }
+
+    public void unregister(Class<?> type) {
+        handlers.remove(type);
+    }
+
+    // the hero acts on events under the hero, then on events and
+    // the character in front of the hero.
+    // return false if nothing handled the action.
+    public boolean interact(Character hero, Map map) {
+        // events under the hero (ex. a treasure the hero stands on)
+        for (Event event = map.checkEvent(hero.getX(), hero.getY());
+                event != null; event = event.nextInTile) {
+            if (dispatch(event, hero, map)) {
+                return true;
+            }
+        }
+
+        // the tile in front of the hero
+        int frontX = hero.getFrontX();
+        int frontY = hero.getFrontY();
+        for (Event event = map.checkEvent(frontX, frontY);
+                event != null; event = event.nextInTile) {
+            if (dispatch(event, hero, map)) {
+                return true;
+            }
+        }
+
+        Character c = map.checkCharacter(frontX, frontY);
+        if (c != null) {
+            return dispatch(c, hero, map);
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean dispatch(Object target, Character hero, Map map) {
+        InteractionHandler<Object> handler =
+                (InteractionHandler<Object>) handlers.get(target.getClass());
+        if (handler == null) {
+            return false;
+        }
+        return handler.interact(target, hero, map);
+    }
+}
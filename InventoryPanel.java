@@ -0,0 +1,47 @@
+import java.awt.*;
+
+// the items of the hero (top right of the screen)
+public class InventoryPanel extends HudPanel {
+    private static final Font FONT = new Font("SansSerif", Font.BOLD, 12);
+    private static final int WIDTH = 150;
+
+    private int version = -1;
+    private String[] items = new String[16];
+    private int numItems;
+
+    public InventoryPanel() {
+        super(MainPanel.WIDTH - WIDTH, 0);
+    }
+
+    protected boolean update(RenderSnapshot s) {
+        if (s.inventoryVersion == version) {
+            return false;
+        }
+        version = s.inventoryVersion;
+        numItems = s.inventorySize;
+        if (items.length < numItems) {
+            items = new String[numItems * 2];
+        }
+        System.arraycopy(s.inventory, 0, items, 0, numItems);
+        return true;
+    }
+
+    protected int getPanelWidth() {
+        return WIDTH;
+    }
+
+    protected int getPanelHeight() {
+        return 28 + numItems * 20;
+    }
+
+    protected void render(Graphics2D g) {
+        g.setFont(FONT);
+        g.setColor(Color.BLACK);
+        int indent = g.getFontMetrics().stringWidth("- ");
+        g.drawString("INVENTORY:", 0, 20);
+        for (int i = 0; i < numItems; i++) {
+            g.drawString("- ", 0, 40 + (i * 20));
+            g.drawString(items[i], indent, 40 + (i * 20));
+        }
+    }
+}
@@ -1,18 +1,53 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.*;
 
-class MainPanel extends JPanel implements KeyListener, Runnable, Common {
+class MainPanel extends JPanel implements KeyListener, Runnable, ScriptHost, Common {
     public static final int WIDTH = 640;
     public static final int HEIGHT = 640;
 
     // 20ms/frame = 50fps
     private static final int PERIOD = 20;
 
+    // the number of script instructions per frame
+    private static final int SCRIPT_BUDGET = 64;
+
+    // quick save file
+    private static final String SAVE_FILE = "rpg.sav";
+    // autosave file and interval (frames)
+    private static final String AUTOSAVE_FILE = "autosave.sav";
+    private static final int AUTOSAVE_PERIOD = 50 * 60;
+
+    // rewind snapshot interval (frames) and memory budget (bytes)
+    private static final int REWIND_PERIOD = 25;
+    private static final long REWIND_MEMORY = 8 * 1024 * 1024;
+
+    // frame time log interval (ms)
+    private static final int FRAME_LOG_PERIOD = 10 * 1000;
+
     // debug mode
     private static final boolean DEBUG_MODE = true;
 
+    // input bits of a frame (recorded by InputRecorder)
+    private static final int INPUT_LEFT = 1;
+    private static final int INPUT_RIGHT = 2;
+    private static final int INPUT_UP = 4;
+    private static final int INPUT_DOWN = 8;
+    private static final int INPUT_SPACE = 16;
+
+    private GameConfig config;
+    // records the input of this session
+    private InputRecorder recorder;
+    // plays back a recorded session instead of the keyboard
+    private InputReplay replay;
+
+    private volatile boolean running = true;
+
     // map list
     private Map[] maps;
     // current map number
@@ -27,15 +62,108 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
     private ActionKey upKey;
     private ActionKey downKey;
     private ActionKey spaceKey;
+    private ActionKey saveKey;
+    private ActionKey loadKey;
+    private ActionKey rewindKey;
+    private ActionKey forwardKey;
+    private ActionKey resumeKey;
+    private ActionKey frameGraphKey;
+    private ActionKey minimapKey;
+
+    // key events from the AWT event thread
+    private InputQueue inputQueue = new InputQueue(256);
+    private InputQueue.Entry inputEntry = new InputQueue.Entry();
+
+    // time from a key press to the first presented frame showing the
+    // tick that applied it (unit: us, recorded by the renderer)
+    private Histogram inputLatency = new Histogram();
+    // the earliest key press applied but not presented yet (game loop, 0: none)
+    private long pendingInputTime = 0;
+    // the key press time of the last presented frame (set by the renderer)
+    private AtomicLong presentedInputTime = new AtomicLong();
+
+    // writes autosaves in the background
+    private AutoSaver autoSaver;
+    private int autosaveTimer = 0;
+    private boolean autosaveRequested = false;
+
+    // recent history for debugging (F6 back, F7 forward, F8 resume)
+    private RewindBuffer rewindBuffer;
+    private long tickCount = 0;
+    // the snapshot shown while scrubbing, or -1 while playing
+    private int rewindIndex = -1;
+
+    // time of each phase of a frame (F3 shows the graph)
+    private FrameTimer frameTimer = new FrameTimer();
+    // the frames of the render thread, if any, are timed separately
+    private FrameTimer renderTimer = frameTimer;
+    private boolean showFrameGraph = false;
+    private boolean showMinimap = false;
+    // the minimap in the last snapshot (game loop)
+    private Minimap capturedMinimap;
+
+    // published every tick for the metrics endpoint
+    private GameMetrics gameMetrics;
+    private MetricsServer metricsServer;
+
+    // set by the AWT thread when the window is closing
+    private volatile boolean quitRequested = false;
 
     private Thread gameLoop;
-    private Random rand = new Random();
+
+    // snapshots of the world from the game loop to the renderer
+    private RenderBuffer renderBuffer = new RenderBuffer();
+    // draws the latest snapshot while the game loop runs the next tick
+    // (--render-thread). it never touches the world, so the game logic
+    // is the same with or without it.
+    private Thread renderThread;
+    private volatile boolean rendering = false;
+    // the tick of the snapshot the render thread drew last
+    private volatile long renderedTick = -1;
+    // the snapshot drawn last (renderer)
+    private RenderSnapshot drawnSnapshot;
+
+    // only what changed since the last drawn frame is redrawn and
+    // presented (renderer)
+    private RenderSnapshot lastDrawn = new RenderSnapshot();
+    // the static layers of the map composited in chunks
+    private ChunkCache chunks = new ChunkCache();
+    private DirtyRegion dirty = new DirtyRegion();
+    private boolean redrawAll = true;
+    // the message window alone has changed (it is opaque)
+    private boolean windowChanged;
+    // a frame has been drawn but not presented
+    private boolean presentPending;
+    // set when Swing has painted over the panel
+    private volatile boolean presentAll = false;
+
+    private GameRandom rand;
+
+    // spawn region of the legendary key in the cave
+    private int keyRegion;
+
+    // SPACE key handlers for each type of events and characters
+    private Interactions interactions = new Interactions();
+
+    // gameplay events (treasure found, door opened, etc.)
+    private GameEventBus eventBus = new GameEventBus();
+
+    // compiles the event scripts of the maps (and numbers their flags)
+    private ScriptCompiler scriptCompiler = new ScriptCompiler();
+    // runs event scripts
+    private ScriptEngine scriptEngine = new ScriptEngine(this);
 
     private MessageWindow messageWindow;
     private static Rectangle WND_RECT = new Rectangle(142, 480, 356, 140);
 
-    private MidiEngine midiEngine = new MidiEngine();
-    private WaveEngine waveEngine = new WaveEngine();
+    // inventory and debug information over the world (renderer)
+    private Hud hud = new Hud();
+    private FrameGraphPanel frameGraphPanel;
+    private MinimapPanel minimapPanel;
+
+    // no sound in headless mode
+    private MidiEngine midiEngine;
+    private WaveEngine waveEngine;
 
     // BGM
     // from TAM Music Factory http://www.tam-music.com/
@@ -48,20 +176,48 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
     private Image dbImage = null;
 
     public MainPanel() {
+        this(new GameConfig());
+    }
+
+    // in headless mode, the caller runs the game loop by run()
+    public MainPanel(GameConfig config) {
+        this.config = config;
+
         setPreferredSize(new Dimension(WIDTH, HEIGHT));
 
         setFocusable(true);
         addKeyListener(this);
 
+        // a session that cannot be replayed or recorded must not run as
+        // a live one (with --headless it would never end)
+        long seed = config.seed;
+        if (config.replayFile != null) {
+            try {
+                replay = new InputReplay(config.replayFile);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot replay " + config.replayFile + ": " + e, e);
+            }
+            seed = replay.getSeed();
+        } else if (config.recordFile != null) {
+            try {
+                recorder = new InputRecorder(config.recordFile, seed);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot record to " + config.recordFile + ": " + e, e);
+            }
+        }
+        // every random choice comes from this seed
+        rand = new GameRandom(seed);
+
         // Show game instructions popup
-        JOptionPane.showMessageDialog(this,
+        if (!config.headless && replay == null) JOptionPane.showMessageDialog(this,
             "<html><h2>Welcome to the RPG Game!</h2>" +
             "<ul>" +
             "<li>Find the Legendary Key in the cave</li>" +
             "<li>Navigate through the maze and village</li>" +
             "<li>Bring the Key to the Queen to win the game</li>" +
             "</ul>" +
-            "<p>Use arrow keys to move and SPACE to interact</p></html>",
+            "<p>Use arrow keys to move and SPACE to interact</p>" +
+            "<p>F5 to save, F9 to load</p></html>",
             "Game Instructions",
             JOptionPane.INFORMATION_MESSAGE);
 
@@ -71,21 +227,58 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         upKey = new ActionKey();
         downKey = new ActionKey();
         spaceKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        saveKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        loadKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        rewindKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        forwardKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        resumeKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        frameGraphKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
+        minimapKey = new ActionKey(ActionKey.DETECT_INITIAL_PRESS_ONLY);
 
         // create map
-        maps = new Map[4];
-        maps[0] = new Map("map/castle.map", "event/castle.evt", "castle", this);
-        maps[1] = new Map("map/field.map", "event/field.evt", "field", this);
-        maps[2] = new Map("map/cave.map", "event/cave.evt", "cave", this);
-        maps[3] = new Map("map/village.map", "event/village.evt", "village", this);
-        
-        // Randomize the legendary key position in the cave
-        randomizeLegendaryKeyPosition();
+        if (config.world != null) {
+            loadWorld(config.world);
+        } else {
+            maps = new Map[4];
+            maps[0] = new Map("map/castle.map", "event/castle.evt", "castle", this);
+            maps[1] = new Map("map/field.map", "event/field.evt", "field", this);
+            maps[2] = new Map("map/cave.map", "event/cave.evt", "cave", this);
+            maps[3] = new Map("map/village.map", "event/village.evt", "village", this);
+
+            // the key may appear anywhere but near the edge of the cave
+            keyRegion = maps[2].addSpawnRegion(4, 4, maps[2].getCol() - 8, maps[2].getRow() - 8);
+
+            // Randomize the legendary key position in the cave
+            randomizeLegendaryKeyPosition();
+        }
+        for (Map map : maps) {
+            map.checkWarps(maps);
+        }
         
         mapNo = 0;  // initial map
 
+        hud.add(new InventoryPanel());
+        minimapPanel = new MinimapPanel();
+        hud.add(minimapPanel);
+        if (DEBUG_MODE) {
+            String[] mapLabels = new String[maps.length];
+            String[] mapBgms = new String[maps.length];
+            for (int i = 0; i < maps.length; i++) {
+                mapLabels[i] = maps[i].getMapName() + " (" + maps[i].getCol() + "," + maps[i].getRow() + ")";
+                mapBgms[i] = maps[i].getBgmName();
+            }
+            hud.add(new DebugPanel(mapLabels, mapBgms));
+            hud.add(new RewindPanel());
+            frameGraphPanel = new FrameGraphPanel(renderTimer, PERIOD * 1000);
+            hud.add(frameGraphPanel);
+        }
+
         // create character
-        hero = new Character(6, 6, 0, DOWN, 0, maps[mapNo]);
+        if (config.world != null) {
+            hero = spawnHero(maps[0].getCol() / 2, maps[0].getRow() / 2);
+        } else {
+            hero = spawnHero(6, 6);
+        }
 
         // add characters to the map
         maps[mapNo].addCharacter(hero);
@@ -93,28 +286,107 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         // create message window
         messageWindow = new MessageWindow(WND_RECT);
 
+        // register SPACE key handlers
+        interactions.register(TreasureEvent.class, this::takeTreasure);
+        interactions.register(DoorEvent.class, this::openDoor);
+        interactions.register(Character.class, this::talkTo);
+        interactions.register(ScriptEvent.class, this::talkToScript);
+
         // load BGM and sound clips
-        loadSound();
+        if (!config.headless) {
+            midiEngine = new MidiEngine();
+            waveEngine = new WaveEngine();
+            loadSound();
+        }
+
+        // audio and message window react to gameplay events
+        subscribeGameEvents();
 
-        midiEngine.play(maps[mapNo].getBgmName());
+        // autosave every minute and whenever the hero enters another map
+        // (not while replaying)
+        if (replay == null && !config.headless) {
+            autoSaver = new AutoSaver(Paths.get(AUTOSAVE_FILE));
+            autoSaver.prepare(this);
+            eventBus.subscribe(GameEvent.WARP, e -> autosaveRequested = true);
+        }
+
+        // scrubbing would break a recorded session
+        if (DEBUG_MODE && replay == null && recorder == null && !config.headless) {
+            rewindBuffer = new RewindBuffer(REWIND_MEMORY);
+        }
+
+        if (config.frameLogFile != null) {
+            frameTimer.startLog(config.frameLogFile, FRAME_LOG_PERIOD);
+        }
+
+        gameMetrics = new GameMetrics(maps);
+        if (config.metricsPort > 0) {
+            try {
+                metricsServer = new MetricsServer(config.metricsPort, gameMetrics,
+                                                  frameTimer, inputLatency,
+                                                  midiEngine, waveEngine);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        playBgm(maps[mapNo].getBgmName());
 
         // start game loop
-        gameLoop = new Thread(this);
-        gameLoop.start();
+        if (!config.headless) {
+            gameLoop = new Thread(this);
+            gameLoop.start();
+        }
     }
 
     public void run() {
         long beforeTime, timeDiff, sleepTime;
 
+        if (config.renderThread) {
+            startRenderThread();
+        }
+
         beforeTime = System.currentTimeMillis();
-        while (true) {
-            checkInput();
-            gameUpdate();
-            gameRender();
-            printScreen();
+        while (running) {
+            if (quitRequested) {
+                // save the game at a tick boundary and quit. a recorded or
+                // replayed session does not touch the saved game, as
+                // saving is not allowed while recording
+                if (replay == null && recorder == null) {
+                    saveGame();
+                }
+                closeSession();
+                System.exit(0);
+            }
+
+            frameTimer.begin();
+            FrameJfrEvent frameEvent = FrameJfrEvent.start();
+            tick();
+            if (renderThread != null) {
+                // the render thread draws and prints the snapshot
+                publishFrame();
+                frameTimer.mark(FrameTimer.RENDER);
+                frameTimer.mark(FrameTimer.PRINT);
+            } else {
+                gameRender();
+                frameTimer.mark(FrameTimer.RENDER);
+                printScreen();
+                frameTimer.mark(FrameTimer.PRINT);
+            }
+
+            // replay as fast as possible
+            if (replay != null && config.replaySpeed <= 0) {
+                frameTimer.mark(FrameTimer.SLEEP);
+                frameTimer.end();
+                if (frameEvent != null) {
+                    frameEvent.commit(tickCount, maps[mapNo], frameTimer);
+                }
+                beforeTime = System.currentTimeMillis();
+                continue;
+            }
 
             timeDiff = System.currentTimeMillis() - beforeTime;
-            sleepTime = PERIOD - timeDiff;
+            sleepTime = getPeriod() - timeDiff;
             // sleep at least 5ms
             if (sleepTime <= 0) {
                 sleepTime = 5;
@@ -125,40 +397,156 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            frameTimer.mark(FrameTimer.SLEEP);
+            frameTimer.end();
+            if (frameEvent != null) {
+                frameEvent.commit(tickCount, maps[mapNo], frameTimer);
+            }
 
             beforeTime = System.currentTimeMillis();
         }
+        stopRenderThread();
     }
 
-    private void checkInput() {
+    // one frame of the game logic
+    public void tick() {
+        drainInput();
+        if (frameGraphKey.isPressed()) {
+            showFrameGraph = !showFrameGraph;
+        }
+        if (minimapKey.isPressed()) {
+            showMinimap = !showMinimap;
+        }
+        // the world is paused while scrubbing
+        if (checkRewindInput()) {
+            frameTimer.mark(FrameTimer.INPUT);
+            return;
+        }
+        if (!checkInput()) {
+            // the replayed session has ended: stop at its last frame
+            return;
+        }
+        frameTimer.mark(FrameTimer.INPUT);
+        eventBus.dispatch();
+        gameUpdate();
+        eventBus.dispatch();
+        autosave();
+
+        tickCount++;
+        if (rewindBuffer != null && tickCount % REWIND_PERIOD == 0) {
+            rewindBuffer.capture(this, tickCount);
+        }
+        gameMetrics.update(tickCount, maps, mapNo, eventBus);
+        frameTimer.mark(FrameTimer.UPDATE);
+    }
+
+    // return true while scrubbing through the rewind buffer
+    private boolean checkRewindInput() {
+        if (rewindBuffer == null) {
+            return false;
+        }
+        int index = rewindIndex;
+        if (rewindKey.isPressed()) {
+            if (index == -1) {
+                // start scrubbing: the indices must stay put from here
+                rewindBuffer.hold();
+                index = rewindBuffer.size() - 1;
+            } else if (index > 0) {
+                index--;
+            }
+        }
+        if (forwardKey.isPressed() && index != -1
+                && index < rewindBuffer.size() - 1) {
+            index++;
+        }
+        if (index != rewindIndex && index != -1) {
+            try {
+                restoreSnapshot(rewindBuffer.get(index));
+                tickCount = rewindBuffer.getTick(index);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        rewindIndex = index;
+
+        if (resumeKey.isPressed() && rewindIndex != -1) {
+            // forget the future and play from here
+            rewindBuffer.truncate(rewindIndex);
+            rewindIndex = -1;
+        }
+        return rewindIndex != -1;
+    }
+
+    private int getPeriod() {
+        if (replay != null && config.replaySpeed > 1) {
+            return Math.max(1, PERIOD / config.replaySpeed);
+        }
+        return PERIOD;
+    }
+
+    // return false when a headless replay has ended (no tick to play)
+    private boolean checkInput() {
+        int input;
+        if (replay != null) {
+            input = replay.next();
+            if (input == -1) {
+                // end of the recorded session
+                replay = null;
+                input = 0;
+                if (config.headless) {
+                    running = false;
+                    return false;
+                }
+            }
+        } else {
+            input = pollInput();
+            // saving and loading would break a recorded session
+            if (recorder == null) {
+                if (saveKey.isPressed()) {
+                    saveGame();
+                }
+                if (loadKey.isPressed()) {
+                    loadGame();
+                }
+            }
+        }
+        if (recorder != null) {
+            recorder.record(input);
+        }
+
         if (messageWindow.isVisible()) {
-            messageWindowCheckInput();
+            messageWindowCheckInput(input);
         } else {
-            mainWindowCheckInput();
+            mainWindowCheckInput(input);
         }
+        return true;
+    }
+
+    // read the action keys once per frame
+    private int pollInput() {
+        int input = 0;
+        if (leftKey.isPressed()) input |= INPUT_LEFT;
+        if (rightKey.isPressed()) input |= INPUT_RIGHT;
+        if (upKey.isPressed()) input |= INPUT_UP;
+        if (downKey.isPressed()) input |= INPUT_DOWN;
+        if (spaceKey.isPressed()) input |= INPUT_SPACE;
+        return input;
     }
 
     private void gameUpdate() {
+        Character.updateAnimation();
+        messageWindow.update();
+        scriptEngine.update(SCRIPT_BUDGET);
+
         if (!messageWindow.isVisible()) {
             heroMove();
             characterMove();
         }
     }
 
-    private void gameRender() {
-        if (dbImage == null) {
-            // buffer image
-            dbImage = createImage(WIDTH, HEIGHT);
-            if (dbImage == null) {
-                return;
-            } else {
-                // device context of buffer image
-                dbg = dbImage.getGraphics();
-            }
-        }
-
-        dbg.setColor(Color.WHITE);
-        dbg.fillRect(0, 0, WIDTH, HEIGHT);
+    // copy what the renderer needs from the world (game loop)
+    private void captureFrame(RenderSnapshot s) {
+        s.tick = tickCount;
 
         // calculate offset so that the hero is in the center of a screen.
         int offsetX = hero.getPX() - MainPanel.WIDTH / 2;
@@ -176,186 +564,355 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         } else if (offsetY > maps[mapNo].getHeight() - MainPanel.HEIGHT) {
             offsetY = maps[mapNo].getHeight() - MainPanel.HEIGHT;
         }
+        s.offsetX = offsetX;
+        s.offsetY = offsetY;
+
+        maps[mapNo].capture(s, offsetX, offsetY);
+        messageWindow.capture(s);
+
+        s.mapNo = mapNo;
+        s.heroX = hero.getX();
+        s.heroY = hero.getY();
+        s.heroPX = hero.getPX();
+        s.heroPY = hero.getPY();
+        s.setInventory(hero.getInventory(), hero.getInventoryVersion());
+        s.rewindIndex = rewindIndex;
+        s.rewindSize = rewindBuffer != null ? rewindBuffer.size() : 0;
+        s.droppedEvents = eventBus.getDropped();
+        s.showFrameGraph = showFrameGraph;
+        Minimap minimap = showMinimap ? maps[mapNo].getMinimap() : null;
+        if (capturedMinimap != null && capturedMinimap != minimap) {
+            // hidden, or another map: stop keeping it up to date
+            capturedMinimap.deactivate();
+        }
+        capturedMinimap = minimap;
+        if (minimap != null) {
+            minimap.capture(s);
+        } else {
+            s.minimap = null;
+        }
+        s.inputTime = pendingInputTime;
+    }
+
+    // hand a snapshot of this tick to the renderer (game loop)
+    public void publishFrame() {
+        captureFrame(renderBuffer.getBack());
+        renderBuffer.publish();
+        if (renderThread != null) {
+            LockSupport.unpark(renderThread);
+        }
+    }
+
+    // render this tick on the calling thread (no render thread).
+    // in headless mode, the caller renders into an offscreen image
+    public void gameRender() {
+        publishFrame();
+        drawFrame(renderBuffer.take());
+    }
+
+    // draw the snapshot into the buffer image (renderer)
+    private void drawFrame(RenderSnapshot s) {
+        if (dbImage == null) {
+            // buffer image
+            if (config.headless) {
+                dbImage = new java.awt.image.BufferedImage(
+                    WIDTH, HEIGHT, java.awt.image.BufferedImage.TYPE_INT_RGB);
+            } else {
+                dbImage = createImage(WIDTH, HEIGHT);
+            }
+            if (dbImage == null) {
+                return;
+            } else {
+                // device context of buffer image
+                dbg = dbImage.getGraphics();
+            }
+        }
+
+        drawnSnapshot = s;
+
+        dirty.reset(s);
+        windowChanged = false;
+        if (redrawAll || config.fullRedraw || !s.isSameView(lastDrawn)
+                || !dirty.coversScreen()) {
+            dirty.markAll();
+            redrawAll = false;
+            hud.update(s, null);
+        } else {
+            s.markChanges(lastDrawn, dirty);
+            chunks.markAnimated(s, dirty);
+            markWindowChanges(s, lastDrawn);
+            hud.update(s, dirty);
+            if (dirty.isEmpty() && !windowChanged) {
+                // nothing to draw or present
+                lastDrawn.copyFrom(s);
+                return;
+            }
+            s.markOverlappingSprites(dirty);
+        }
+        boolean all = dirty.isAll();
+        presentPending = true;
+
+        if (all) {
+            dbg.setColor(Color.WHITE);
+            dbg.fillRect(0, 0, WIDTH, HEIGHT);
+        }
 
         // draw map
-        maps[mapNo].draw(dbg, offsetX, offsetY);
+        s.drawWorld(dbg, all ? null : dirty, chunks);
 
         // draw message window
-        messageWindow.draw(dbg);
+        if (all || windowChanged || intersectsDirty(WND_RECT)) {
+            messageWindow.draw(dbg, s);
+        }
+
+        // the panels of the HUD are drawn again where a tile under them is dirty
+        hud.draw(dbg, all ? null : dirty);
+        lastDrawn.copyFrom(s);
+    }
 
-        // display inventory in top right
-        Font inventoryFont = new Font("SansSerif", Font.BOLD, 12);
-        dbg.setFont(inventoryFont);
-        dbg.setColor(Color.BLACK);
-        ArrayList<String> inventory = hero.getInventory();
-        dbg.drawString("INVENTORY:", WIDTH - 150, 20);
-        for (int i = 0; i < inventory.size(); i++) {
-            dbg.drawString("- " + inventory.get(i), WIDTH - 150, 40 + (i * 20));
+    // mark the message window if it differs from the last drawn frame
+    private void markWindowChanges(RenderSnapshot s, RenderSnapshot last) {
+        if (s.messageVisible != last.messageVisible) {
+            // the tiles under the window appear or disappear
+            markDirty(WND_RECT);
+        } else if (s.messageVisible && (s.messageLength != last.messageLength
+                   || s.messageCursor != last.messageCursor
+                   || !Arrays.equals(s.messageText, 0, s.messageLength,
+                                     last.messageText, 0, last.messageLength))) {
+            windowChanged = true;
         }
+    }
 
-        // display debug information
-        if (DEBUG_MODE) {
-            Font font = new Font("SansSerif", Font.BOLD, 16);
-            dbg.setFont(font);
-            dbg.setColor(Color.YELLOW);
-            dbg.drawString(maps[mapNo].getMapName() + " (" + maps[mapNo].getCol() + "," + maps[mapNo].getRow() + ")", 4, 16);
-            dbg.drawString("(" + hero.getX() + "," + hero.getY() + ") ", 4, 32);
-            dbg.drawString("(" + hero.getPX() + "," + hero.getPY() + ")", 4, 48);
-            dbg.drawString(maps[mapNo].getBgmName(), 4, 64);
+    private void markDirty(Rectangle r) {
+        dirty.mark(r.x, r.y, r.width, r.height);
+    }
+
+    private boolean intersectsDirty(Rectangle r) {
+        return dirty.intersects(r.x, r.y, r.width, r.height);
+    }
+
+    public void startRenderThread() {
+        if (renderThread != null) {
+            return;
+        }
+        renderTimer = new FrameTimer();
+        if (frameGraphPanel != null) {
+            frameGraphPanel.setTimer(renderTimer);
         }
+        rendering = true;
+        renderThread = new Thread(this::renderLoop, "Renderer");
+        renderThread.setDaemon(true);
+        renderThread.start();
     }
 
+    public void stopRenderThread() {
+        if (renderThread == null) {
+            return;
+        }
+        rendering = false;
+        LockSupport.unpark(renderThread);
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        renderThread = null;
+        renderTimer = frameTimer;
+        if (frameGraphPanel != null) {
+            frameGraphPanel.setTimer(renderTimer);
+        }
+    }
+
+    // draw and print each snapshot the game loop publishes. when the game
+    // loop is faster, the snapshots in between are skipped.
+    private void renderLoop() {
+        while (rendering) {
+            renderTimer.begin();
+            while (rendering && !renderBuffer.hasFresh()) {
+                LockSupport.park(this);
+            }
+            renderTimer.mark(FrameTimer.SLEEP);
+            RenderSnapshot s = renderBuffer.take();
+            drawFrame(s);
+            renderTimer.mark(FrameTimer.RENDER);
+            printScreen();
+            renderTimer.mark(FrameTimer.PRINT);
+            renderTimer.end();
+            renderedTick = s.tick;
+        }
+    }
+
+    // the tick of the last frame drawn by the render thread (-1: none)
+    public long getRenderedTick() {
+        return renderedTick;
+    }
+
+    // present the changed parts of the buffer image, or nothing if the
+    // last frame has not changed anything
     private void printScreen() {
-        Graphics g = getGraphics();
-        if ((g != null) && (dbImage != null)) {
-            g.drawImage(dbImage, 0, 0, null);
+        boolean all = presentAll;
+        if (presentPending || all) {
+            presentAll = false;
+            presentPending = false;
+            Graphics g = getGraphics();
+            if ((g != null) && (dbImage != null)) {
+                if (all || dirty.isAll()) {
+                    g.drawImage(dbImage, 0, 0, null);
+                } else {
+                    dirty.buildRects();
+                    for (int i = 0; i < dirty.getRectCount(); i++) {
+                        presentRect(g, dirty.getRectX(i), dirty.getRectY(i),
+                                    dirty.getRectWidth(i), dirty.getRectHeight(i));
+                    }
+                    if (windowChanged) {
+                        presentRect(g, WND_RECT.x, WND_RECT.y, WND_RECT.width, WND_RECT.height);
+                    }
+                }
+            }
+            Toolkit.getDefaultToolkit().sync();
+            if (g != null) {
+                g.dispose();
+            }
         }
-        Toolkit.getDefaultToolkit().sync();
-        if (g != null) {
-            g.dispose();
+
+        // the first frame that shows a key press (the display's own
+        // latency after sync() is not included)
+        RenderSnapshot s = drawnSnapshot;
+        if (s != null && s.inputTime != 0 && s.inputTime != presentedInputTime.get()) {
+            inputLatency.record((System.nanoTime() - s.inputTime) / 1000);
+            presentedInputTime.lazySet(s.inputTime);
         }
     }
 
-    private void mainWindowCheckInput() {
-        if (leftKey.isPressed()) {
+    private void presentRect(Graphics g, int x, int y, int w, int h) {
+        g.drawImage(dbImage, x, y, x + w, y + h, x, y, x + w, y + h, null);
+    }
+
+    // Swing has cleared the panel; the next frame presents everything
+    public void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        presentAll = true;
+    }
+
+    // the buffer image of the last frame
+    public Image getFrameImage() {
+        return dbImage;
+    }
+
+    // the number of tiles redrawn in the last frame
+    public int getRedrawnTiles() {
+        return dirty.getDirtyCount();
+    }
+
+    public Histogram getInputLatency() {
+        return inputLatency;
+    }
+
+    public Hud getHud() {
+        return hud;
+    }
+
+    public MinimapPanel getMinimapPanel() {
+        return minimapPanel;
+    }
+
+    private void mainWindowCheckInput(int input) {
+        if ((input & INPUT_LEFT) != 0) {
             if (!hero.isMoving()) {
                 hero.setDirection(LEFT);
                 hero.setMoving(true);
             }
         }
 
-        if (rightKey.isPressed()) {
+        if ((input & INPUT_RIGHT) != 0) {
             if (!hero.isMoving()) {
                 hero.setDirection(RIGHT);
                 hero.setMoving(true);
             }
         }
 
-        if (upKey.isPressed()) {
+        if ((input & INPUT_UP) != 0) {
             if (!hero.isMoving()) {
                 hero.setDirection(UP);
                 hero.setMoving(true);
             }
         }
 
-        if (downKey.isPressed()) {
+        if ((input & INPUT_DOWN) != 0) {
             if (!hero.isMoving()) {
                 hero.setDirection(DOWN);
                 hero.setMoving(true);
             }
         }
 
-        if (spaceKey.isPressed()) {
+        if ((input & INPUT_SPACE) != 0) {
             // cannot open window if hero is moving
             if (hero.isMoving()) {
                 return;
             }
 
-            // search
-            TreasureEvent treasure = hero.search();
-            if (treasure != null) {
-                // Normal treasures
-                waveEngine.play("treasure");
-                messageWindow.setMessage("HERO DISCOVERED/" + treasure.getItemName());
+            // search, open a door or talk
+            if (!interactions.interact(hero, maps[mapNo])) {
+                messageWindow.setMessage("THERE IS NO ONE/IN THAT DIRECTION");
                 messageWindow.show();
-                maps[mapNo].removeEvent(treasure);
-                
-                // Add item to inventory for normal treasures
-                hero.addToInventory(treasure.getItemName());
-                return;
             }
+        }
+    }
 
-            // door
-            DoorEvent door = hero.open();
-            if (door != null) {
-                waveEngine.play("door");
-                maps[mapNo].removeEvent(door);
-                return;
-            } else if (hero.isFacingDoor()) {
-                // Check what key is required
-                Event event = null;
-                int nextX = 0, nextY = 0;
-                
-                // Determine the coordinates of the tile the hero is facing
-                switch (hero.getDirection()) {
-                    case LEFT:
-                        nextX = hero.getX() - 1;
-                        nextY = hero.getY();
-                        break;
-                    case RIGHT:
-                        nextX = hero.getX() + 1;
-                        nextY = hero.getY();
-                        break;
-                    case UP:
-                        nextX = hero.getX();
-                        nextY = hero.getY() - 1;
-                        break;
-                    case DOWN:
-                        nextX = hero.getX();
-                        nextY = hero.getY() + 1;
-                        break;
-                }
-                
-                event = maps[mapNo].checkEvent(nextX, nextY);
-                
-                if (event instanceof DoorEvent) {
-                    DoorEvent facingDoor = (DoorEvent) event;
-                    String requiredKey = facingDoor.getRequiredKey();
-                    
-                    if (requiredKey.equals("LEGENDARY KEY")) {
-                        if (!hero.hasItem("LEGENDARY KEY")) {
-                            messageWindow.setMessage("YOU NEED THE LEGENDARY KEY/TO OPEN THIS DOOR");
-                            messageWindow.show();
-                            return;
-                        }
-                    } else {
-                        messageWindow.setMessage("YOU NEED A KEY/TO OPEN THIS DOOR");
-                        messageWindow.show();
-                        return;
-                    }
-                }
-            }
+    private boolean takeTreasure(TreasureEvent treasure, Character hero, Map map) {
+        // Normal treasures
+        eventBus.publish(GameEvent.TREASURE_FOUND, mapNo, treasure.x, treasure.y,
+                         treasure.getItemName(), treasure);
+        map.removeEvent(treasure);
 
-            // talk
-            if (!messageWindow.isVisible()) {
-                Character c = hero.talkWith();
-                if (c != null) {
-                    // Check if talking to the queen with legendary key
-                    if (mapNo == 3 && c.getX() == 12 && c.getY() == 10 && 
-                        hero.hasItem("LEGENDARY KEY")) {
-                        // Win condition!
-                        messageWindow.setMessage("CONGRATULATIONS BRAVE HERO!/YOU HAVE SAVED OUR REALM/WITH THE LEGENDARY KEY!");
-                        messageWindow.show();
-                        
-                        // Show win message and exit
-                        new Thread(() -> {
-                            try {
-                                Thread.sleep(2000);
-                                JOptionPane.showMessageDialog(null, 
-                                    "WINNER!", 
-                                    "GAME OVER", 
-                                    JOptionPane.INFORMATION_MESSAGE);
-                                System.exit(0);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }).start();
-                        
-                        return;
-                    }
-                    
-                    messageWindow.setMessage(c.getMessage());
-                    messageWindow.show();
-                } else {
-                    messageWindow.setMessage("THERE IS NO ONE/IN THAT DIRECTION");
-                    messageWindow.show();
-                }
-            }
+        // Add item to inventory for normal treasures
+        hero.addToInventory(treasure.getItemName());
+        return true;
+    }
+
+    private boolean openDoor(DoorEvent door, Character hero, Map map) {
+        // Check what key is required
+        String requiredKey = door.getRequiredKey();
+        if (hero.hasItem(requiredKey)) {
+            eventBus.publish(GameEvent.DOOR_OPENED, mapNo, door.x, door.y, requiredKey, door);
+            map.removeEvent(door);
+        } else if (requiredKey.equals("KEY")) {
+            messageWindow.setMessage("YOU NEED A KEY/TO OPEN THIS DOOR");
+            messageWindow.show();
+        } else {
+            messageWindow.setMessage("YOU NEED THE " + requiredKey + "/TO OPEN THIS DOOR");
+            messageWindow.show();
         }
+        return true;
+    }
+
+    private boolean talkTo(Character c, Character hero, Map map) {
+        // a player and a character are opposed mutually.
+        c.turnTo(hero);
+
+        eventBus.publish(GameEvent.TALK, mapNo, c.getX(), c.getY(), c.getMessage(), c);
+        return true;
+    }
+
+    private boolean talkToScript(ScriptEvent event, Character hero, Map map) {
+        if (event.getTrigger() != ScriptEvent.TALK) {
+            return false;
+        }
+        // a character on the event faces the hero
+        Character c = map.checkCharacter(event.x, event.y);
+        if (c != null && c != hero) {
+            c.turnTo(hero);
+        }
+        return scriptEngine.start(event, map);
+    }
+
+    // handlers for new event types can be registered from outside
+    public Interactions getInteractions() {
+        return interactions;
     }
 
-    private void messageWindowCheckInput() {
-        if (spaceKey.isPressed()) {
+    private void messageWindowCheckInput(int input) {
+        if ((input & INPUT_SPACE) != 0) {
             if (messageWindow.nextPage()) {
                 messageWindow.hide();
             }
@@ -368,85 +925,152 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
                 // Check if player is on a deadly red crystal (tile 6)
                 if (maps[mapNo].getTileAt(hero.getX(), hero.getY()) == 6) {
                     // Player died
-                    waveEngine.play("door"); // Use door sound as death sound
-                    messageWindow.setMessage("YOU TOUCHED A RED CRYSTAL!/GAME OVER!");
-                    messageWindow.show();
+                    eventBus.publish(GameEvent.DEATH, mapNo, hero.getX(), hero.getY(),
+                                     "YOU TOUCHED A RED CRYSTAL!/GAME OVER!", hero);
                     hero.clearInventory();
                     // Respawn at entrance of current map
                     maps[mapNo].removeCharacter(hero);
                     if (mapNo == 2) { // Cave map
-                        hero = new Character(9, 3, 0, DOWN, 0, maps[mapNo]);
+                        hero = spawnHero(9, 3);
                     } else {
                         // Default respawn for other maps
-                        hero = new Character(6, 6, 0, DOWN, 0, maps[mapNo]);
+                        hero = spawnHero(6, 6);
                     }
                     maps[mapNo].addCharacter(hero);
                     return;
                 }
+
+                eventBus.publish(GameEvent.STEP, mapNo, hero.getX(), hero.getY(), null, hero);
                 
-                Event event = maps[mapNo].checkEvent(hero.getX(), hero.getY());
-                if (event instanceof MoveEvent) {
-                    waveEngine.play("step");
-                    // move to another map
-                    MoveEvent m = (MoveEvent)event;
-                    maps[mapNo].removeCharacter(hero);
-                    
-                    // Save inventory before changing maps
-                    ArrayList<String> savedInventory = new ArrayList<>(hero.getInventory());
-                    
-                    int previousMapNo = mapNo;
-                    mapNo = m.destMapNo;
-                    
-                    // If entering the cave map, randomize the legendary key position
-                    if (mapNo == 2 && previousMapNo != 2) {
-                        randomizeLegendaryKeyPosition();
-                    }
-                    
-                    // Ensure destination is not a wall or invalid area
-                    int safeX = m.destX;
-                    int safeY = m.destY;
-                    // If destination is a wall, find the nearest valid spot
-                    if (maps[mapNo].isHit(safeX, safeY)) {
-                        // Try nearby spaces in a small radius
-                        for (int radius = 1; radius < 5; radius++) {
-                            boolean found = false;
-                            for (int dx = -radius; dx <= radius && !found; dx++) {
-                                for (int dy = -radius; dy <= radius && !found; dy++) {
-                                    int testX = safeX + dx;
-                                    int testY = safeY + dy;
-                                    // Validate coordinates are in bounds
-                                    if (testX >= 0 && testX < maps[mapNo].getCol() && 
-                                        testY >= 0 && testY < maps[mapNo].getRow()) {
-                                        if (!maps[mapNo].isHit(testX, testY)) {
-                                            safeX = testX;
-                                            safeY = testY;
-                                            found = true;
-                                            break;
-                                        }
-                                    }
-                                }
-                            }
-                            if (found) break;
-                        }
-                    }
-                    
-                    hero = new Character(safeX, safeY, 0, DOWN, 0, maps[mapNo]);
-                    
-                    // Restore inventory after changing maps
-                    for (String item : savedInventory) {
-                        hero.addToInventory(item);
+                for (Event event = maps[mapNo].checkEvent(hero.getX(), hero.getY());
+                        event != null; event = event.nextInTile) {
+                    if (event instanceof MoveEvent) {
+                        // move to another map
+                        MoveEvent m = (MoveEvent)event;
+                        warp(m.destMapNo, m.destX, m.destY);
+                        break;
+                    } else if (event instanceof ScriptEvent
+                            && ((ScriptEvent)event).getTrigger() == ScriptEvent.STEP) {
+                        scriptEngine.start((ScriptEvent)event, maps[mapNo]);
+                        break;
                     }
-                    
-                    maps[mapNo].addCharacter(hero);
-                    midiEngine.play(maps[mapNo].getBgmName());
                 }
             }
         }
     }
 
+    // move the hero to (destX, destY) of another map
+    public void warp(int destMapNo, int destX, int destY) {
+        MapTransitionJfrEvent jfrEvent = MapTransitionJfrEvent.start(maps[mapNo].getMapName());
+        maps[mapNo].removeCharacter(hero);
+        
+        // Save inventory before changing maps
+        ArrayList<String> savedInventory = new ArrayList<>(hero.getInventory());
+        
+        int previousMapNo = mapNo;
+        mapNo = destMapNo;
+        
+        // If entering the cave map, randomize the legendary key position
+        if (mapNo == 2 && previousMapNo != 2) {
+            randomizeLegendaryKeyPosition();
+        }
+        
+        // Ensure destination is not a wall or invalid area
+        hero = spawnHero(destX, destY);
+        
+        // Restore inventory after changing maps
+        for (String item : savedInventory) {
+            hero.addToInventory(item);
+        }
+        
+        maps[mapNo].addCharacter(hero);
+        eventBus.publish(GameEvent.WARP, mapNo, hero.getX(), hero.getY(),
+                         maps[mapNo].getBgmName(), hero);
+
+        if (jfrEvent != null) {
+            jfrEvent.to = maps[mapNo].getMapName();
+            jfrEvent.x = hero.getX();
+            jfrEvent.y = hero.getY();
+            jfrEvent.characters = maps[mapNo].getCharacters().size();
+            jfrEvent.events = maps[mapNo].getEvents().size();
+            jfrEvent.commit();
+        }
+    }
+
+    public void showMessage(String message) {
+        messageWindow.setMessage(message);
+        messageWindow.show();
+    }
+
+    public boolean isMessageVisible() {
+        return messageWindow.isVisible();
+    }
+
+    public void playSound(String name) {
+        if (waveEngine != null) {
+            waveEngine.play(name);
+        }
+    }
+
+    private void playBgm(String name) {
+        if (midiEngine != null) {
+            midiEngine.play(name);
+        }
+    }
+
+    public void win() {
+        closeSession();
+        if (config.headless) {
+            System.out.println("WINNER!");
+            running = false;
+            return;
+        }
+
+        // Show win message and exit
+        new Thread(() -> {
+            try {
+                Thread.sleep(2000);
+                JOptionPane.showMessageDialog(null, 
+                    "WINNER!", 
+                    "GAME OVER", 
+                    JOptionPane.INFORMATION_MESSAGE);
+                System.exit(0);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }).start();
+    }
+
+    public Character getHero() {
+        return hero;
+    }
+
+    public Map getCurrentMap() {
+        return maps[mapNo];
+    }
+
+    public ScriptCompiler getScriptCompiler() {
+        return scriptCompiler;
+    }
+
+    // the number of maps (also while they are being loaded)
+    public int getNumMaps() {
+        return maps.length;
+    }
+
+    // create the hero on the walkable tile nearest to (x, y) of the current map
+    private Character spawnHero(int x, int y) {
+        int safe = maps[mapNo].getNearestWalkable(x, y);
+        if (safe != -1) {
+            x = safe % maps[mapNo].getCol();
+            y = safe / maps[mapNo].getCol();
+        }
+        return new Character(x, y, 0, DOWN, 0, maps[mapNo]);
+    }
+
     private void characterMove() {
         // get characters in the map
-        Vector<Character> characters = maps[mapNo].getCharacters();
+        ArrayList<Character> characters = maps[mapNo].getCharacters();
         // move each character
         for (int i = 0; i < characters.size(); i++) {
             Character c = characters.get(i);
@@ -461,47 +1085,217 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         }
     }
 
+    // called from the AWT event thread. the game loop applies the
+    // key events to the action keys at the start of the next tick.
     public void keyPressed(KeyEvent e) {
-        int keyCode = e.getKeyCode();
+        inputQueue.offer(e.getKeyCode(), true, System.nanoTime());
+    }
+
+    public void keyReleased(KeyEvent e) {
+        inputQueue.offer(e.getKeyCode(), false, System.nanoTime());
+    }
 
-        if (keyCode == KeyEvent.VK_LEFT) {
-            leftKey.press();
+    // apply the queued key events in order (game loop). a press and
+    // release within one tick still counts as a press (see ActionKey).
+    private void drainInput() {
+        // the renderer has presented the pending press
+        if (pendingInputTime != 0 && presentedInputTime.get() == pendingInputTime) {
+            pendingInputTime = 0;
         }
-        if (keyCode == KeyEvent.VK_RIGHT) {
-            rightKey.press();
+        while (inputQueue.poll(inputEntry)) {
+            ActionKey key = getActionKey(inputEntry.keyCode);
+            if (key == null) {
+                continue;
+            }
+            if (inputEntry.pressed) {
+                // measure the latency of one new press at a time
+                if (key.press() && pendingInputTime == 0) {
+                    pendingInputTime = inputEntry.time;
+                }
+            } else {
+                key.release();
+            }
         }
-        if (keyCode == KeyEvent.VK_UP) {
-            upKey.press();
+    }
+
+    private ActionKey getActionKey(int keyCode) {
+        switch (keyCode) {
+        case KeyEvent.VK_LEFT:
+            return leftKey;
+        case KeyEvent.VK_RIGHT:
+            return rightKey;
+        case KeyEvent.VK_UP:
+            return upKey;
+        case KeyEvent.VK_DOWN:
+            return downKey;
+        case KeyEvent.VK_SPACE:
+            return spaceKey;
+        case KeyEvent.VK_F5:
+            return saveKey;
+        case KeyEvent.VK_F9:
+            return loadKey;
+        case KeyEvent.VK_F6:
+            return rewindKey;
+        case KeyEvent.VK_F3:
+            return frameGraphKey;
+        case KeyEvent.VK_M:
+            return minimapKey;
+        case KeyEvent.VK_F7:
+            return forwardKey;
+        case KeyEvent.VK_F8:
+            return resumeKey;
+        default:
+            return null;
+        }
+    }
+
+    public void keyTyped(KeyEvent e) {
+    }
+
+    private void subscribeGameEvents() {
+        // sound
+        if (!config.headless) {
+            eventBus.subscribe(GameEvent.TREASURE_FOUND, e -> waveEngine.play("treasure"));
+            eventBus.subscribe(GameEvent.DOOR_OPENED, e -> waveEngine.play("door"));
+            eventBus.subscribe(GameEvent.DEATH, e -> waveEngine.play("door")); // Use door sound as death sound
+            eventBus.subscribe(GameEvent.WARP, e -> waveEngine.play("step"));
+
+            // BGM of the new map
+            eventBus.subscribe(GameEvent.WARP, e -> midiEngine.play(e.getText()));
+        }
+
+        // message window
+        eventBus.subscribe(GameEvent.TREASURE_FOUND,
+                e -> showMessage("HERO DISCOVERED/" + e.getText()));
+        eventBus.subscribe(GameEvent.DEATH, e -> showMessage(e.getText()));
+        eventBus.subscribe(GameEvent.TALK, e -> showMessage(e.getText()));
+    }
+
+    // audio, UI, telemetry and scripts can subscribe to gameplay events
+    public GameEventBus getEventBus() {
+        return eventBus;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // a checksum of the whole world, to compare replays
+    public long getStateChecksum() {
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(SaveGame.encode(takeSnapshot()));
+        return crc.getValue();
+    }
+
+    // finish the recorded or replayed session, so that a recording is
+    // complete before the game exits
+    public void closeSession() {
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
         }
-        if (keyCode == KeyEvent.VK_DOWN) {
-            downKey.press();
+        if (replay != null) {
+            replay.close();
+            replay = null;
         }
-        if (keyCode == KeyEvent.VK_SPACE) {
-            spaceKey.press();
+    }
+
+    // called from the AWT thread. the game loop saves the game and quits.
+    // if the game loop has died, nobody would quit: quit at once
+    public void requestQuit() {
+        quitRequested = true;
+        if (gameLoop != null && !gameLoop.isAlive()) {
+            closeSession();
+            System.exit(1);
         }
     }
 
-    public void keyReleased(KeyEvent e) {
-        int keyCode = e.getKeyCode();
+    public WorldSnapshot takeSnapshot() {
+        return WorldSnapshot.capture(maps, mapNo, hero, rand, scriptEngine);
+    }
+
+    // take a snapshot reusing unchanged parts of the previous one
+    public WorldSnapshot takeSnapshot(WorldSnapshot previous) {
+        return WorldSnapshot.capture(maps, mapNo, hero, rand, scriptEngine, previous);
+    }
 
-        if (keyCode == KeyEvent.VK_LEFT) {
-            leftKey.release();
+    // called at a tick boundary
+    private void autosave() {
+        if (autoSaver == null) {
+            return;
         }
-        if (keyCode == KeyEvent.VK_RIGHT) {
-            rightKey.release();
+        autosaveTimer++;
+        if (autosaveTimer >= AUTOSAVE_PERIOD) {
+            autosaveRequested = true;
         }
-        if (keyCode == KeyEvent.VK_UP) {
-            upKey.release();
+        // do not save in the middle of a script
+        if (autosaveRequested && !scriptEngine.isRunning()) {
+            autoSaver.save(this);
+            autosaveTimer = 0;
+            autosaveRequested = false;
         }
-        if (keyCode == KeyEvent.VK_DOWN) {
-            downKey.release();
+    }
+
+    // put the world back to the snapshot
+    public void restoreSnapshot(WorldSnapshot s) {
+        scriptEngine.stop();
+        messageWindow.hide();
+        maps[mapNo].removeCharacter(hero);
+
+        for (int i = 0; i < maps.length && i < s.maps.length; i++) {
+            WorldSnapshot.MapState m = s.maps[i];
+            maps[i].restoreTiles(m.tiles);
+            maps[i].restoreEvents(m.removedEvents, m.addedEvents);
+            ArrayList<Character> characters = maps[i].getCharacters();
+            for (int j = 0; j < characters.size() && j < m.npcX.length; j++) {
+                characters.get(j).setPosition(m.npcX[j], m.npcY[j], m.npcDirection[j]);
+            }
+        }
+
+        rand.setState(s.randomState);
+        for (int i = 0; i < s.flags.length; i++) {
+            scriptEngine.setFlag(i, s.flags[i]);
+        }
+
+        mapNo = s.mapNo;
+        hero = new Character(s.heroX, s.heroY, 0, s.heroDirection, 0, maps[mapNo]);
+        for (int i = 0; i < s.inventory.length; i++) {
+            hero.addToInventory(s.inventory[i]);
         }
-        if (keyCode == KeyEvent.VK_SPACE) {
-            spaceKey.release();
+        maps[mapNo].addCharacter(hero);
+        playBgm(maps[mapNo].getBgmName());
+    }
+
+    private void saveGame() {
+        try {
+            SaveGame.write(takeSnapshot(), Paths.get(SAVE_FILE));
+            showMessage("GAME SAVED");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            // an event the saved game format does not support
+            e.printStackTrace();
+            showMessage("THIS GAME CANNOT BE SAVED");
         }
     }
 
-    public void keyTyped(KeyEvent e) {
+    // load the newer of the quick save and the autosave
+    private void loadGame() {
+        try {
+            Path path = Paths.get(SAVE_FILE);
+            Path autosavePath = Paths.get(AUTOSAVE_FILE);
+            if (Files.exists(autosavePath) && (!Files.exists(path)
+                    || Files.getLastModifiedTime(autosavePath).compareTo(
+                           Files.getLastModifiedTime(path)) > 0)) {
+                path = autosavePath;
+            }
+            restoreSnapshot(SaveGame.read(path, WorldSnapshot.fingerprint(maps)));
+            showMessage("GAME LOADED");
+        } catch (NoSuchFileException e) {
+            showMessage("THERE IS NO SAVED GAME");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void loadSound() {
@@ -516,13 +1310,42 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         }
     }
 
+    // Place a treasure on a random free tile of the spawn region.
+    // return false if the region has no free tile.
+    private boolean placeRandomTreasure(Map map, int region, String itemName) {
+        int tile = map.pickFreeTile(region, rand);
+        if (tile == -1) {
+            return false;
+        }
+        map.addEvent(new TreasureEvent(tile % map.getCol(), tile / map.getCol(), itemName));
+        return true;
+    }
+
+    // maps generated by WorldGenerator: map/<name>0.map, map/<name>1.map, ...
+    private void loadWorld(String name) {
+        // count the maps first, so that scripts know which maps they may warp to
+        int n = 0;
+        while (getClass().getResource("map/" + name + n + ".map") != null) {
+            n++;
+        }
+        if (n == 0) {
+            throw new IllegalArgumentException("world not found: map/" + name + "0.map");
+        }
+        maps = new Map[n];
+        for (int i = 0; i < n; i++) {
+            maps[i] = new Map("map/" + name + i + ".map", "event/" + name + i + ".evt", "field", this);
+        }
+    }
+
     // Method to randomize the legendary key position in the cave map
     private void randomizeLegendaryKeyPosition() {
+        // generated worlds have no cave
+        if (config.world != null) return;
         Map caveMap = maps[2]; // Cave map is at index 2
         if (caveMap == null) return;
         
         // Find the legendary key event and remove it
-        Vector<Event> events = caveMap.getEvents();
+        ArrayList<Event> events = caveMap.getEvents();
         TreasureEvent legendaryKeyEvent = null;
         
         for (int i = 0; i < events.size(); i++) {
@@ -539,37 +1362,8 @@ class MainPanel extends JPanel implements KeyListener, Runnable, Common {
         
         if (legendaryKeyEvent == null) return;
         
-        // Find valid positions (not walls, not other events, not red crystals)
-        ArrayList<Point> validPositions = new ArrayList<>();
-        
-        for (int y = 4; y < caveMap.getRow() - 4; y++) {
-            for (int x = 4; x < caveMap.getCol() - 4; x++) {
-                // Skip walls and red crystals
-                int tileValue = caveMap.getTileAt(x, y);
-                if (tileValue == 4 || tileValue == 6) continue; // Skip walls (4) and red crystals (6)
-                
-                // Skip if another event exists at this position
-                boolean hasEvent = false;
-                for (Event event : events) {
-                    if (event.x == x && event.y == y) {
-                        hasEvent = true;
-                        break;
-                    }
-                }
-                
-                if (!hasEvent) {
-                    validPositions.add(new Point(x, y));
-                }
-            }
-        }
-        
-        if (validPositions.size() > 0) {
-            // Select a random position
-            Point randomPos = validPositions.get(rand.nextInt(validPositions.size()));
-            
-            // Create a new legendary key event at the random position
-            TreasureEvent newKeyEvent = new TreasureEvent(randomPos.x, randomPos.y, "LEGENDARY KEY");
-            caveMap.addEvent(newKeyEvent);
-        }
+        // Place a new legendary key event at a random free position
+        // (not walls, not other events, not red crystals)
+        placeRandomTreasure(caveMap, keyRegion, "LEGENDARY KEY");
     }
 }
\ No newline at end of file
@@ -1,12 +1,24 @@
 import java.awt.*;
 import java.io.*;
 import java.util.*;
-import java.awt.image.*;
-import javax.imageio.*;
 
 public class Map implements Common {
     // map data
+    // rows are copied on write once they are shared with a snapshot
     private int[][] map;
+    // a row whose epoch differs from tileEpoch is shared with a snapshot
+    private int[] rowEpoch;
+    private int tileEpoch;
+
+    // optional layers (null: none): decoration drawn over the tiles and
+    // overlay drawn over the characters. a tile of a layer is a chip or
+    // -1 (none). they are only drawn and never change, so the game only
+    // looks at the tiles of the map above
+    private int[][] decoration;
+    private int[][] overlay;
+
+    // incremented whenever events are added or removed
+    private int eventVersion;
 
     // map size (tile)
     private int row;
@@ -16,32 +28,71 @@ public class Map implements Common {
     private int width;
     private int height;
 
-    // chip set
-    private static BufferedImage image;
-
     // characters in this map
-    private Vector<Character> characters = new Vector<Character>();
+    // the world is only read and written by the game loop (no locks)
+    private ArrayList<Character> characters = new ArrayList<Character>();
+    // the characters on the screen in drawing order (reused by capture())
+    private SpriteLayer sprites = new SpriteLayer();
     // events in this map
-    private Vector<Event> events = new Vector<Event>();
+    private ArrayList<Event> events = new ArrayList<Event>();
 
     // reference to MainPanel
     private MainPanel panel;
 
     private String mapFile;
+    private String eventFile;
     private String bgmName;
 
+    // nearest walkable tile of each tile (index: y * col + x)
+    // rebuilt by multi-source BFS whenever tiles or blocking events change
+    private int[] nearestWalkable;
+    private boolean nearestWalkableDirty = true;
+
+    // scratch of the BFS searches above, reused so that they do not allocate
+    private int[] bfsQueue;
+    // bfsSeen[i] == bfsStamp: the tile i is already queued by this BFS
+    private int[] bfsSeen;
+    private int bfsStamp;
+
+    // first event and first character on each tile (index: y * col + x)
+    // the others on the same tile are chained by nextInTile
+    private Event[] eventAt;
+    private Character[] characterAt;
+
+    // the number of events and blocking events on each tile (index: y * col + x)
+    private int[] eventCount;
+    private int[] hitEventCount;
+
+    // events loaded from the event file
+    private Event[] baselineEvents;
+
+    // colors of the tiles for the minimap (null while loading)
+    private Minimap minimap;
+
+    // spawn regions: free tiles (walkable and without events) in a rectangle
+    private ArrayList<Rectangle> spawnRegionRects = new ArrayList<Rectangle>();
+    private ArrayList<TileSet> spawnRegions = new ArrayList<TileSet>();
+
+    // identifies what was loaded from the .map and .evt files, so that a
+    // saved game is only restored into the maps it was saved from
+    private long fingerprint;
+
     public Map(String mapFile, String eventFile, String bgmName, MainPanel panel) {
         this.mapFile = mapFile;
+        this.eventFile = eventFile;
         this.bgmName = bgmName;
+        this.panel = panel;
 
         load(mapFile);
         loadEvent(eventFile);
-        if (image == null) {
-            loadImage("image/mapchip.gif");
-        }
+        fingerprint = computeFingerprint();
+
+        buildNearestWalkable();
+        minimap = new Minimap(this);
     }
 
-    public void draw(Graphics g, int offsetX, int offsetY) {
+    // copy the visible part of this map into the render snapshot
+    public void capture(RenderSnapshot s, int offsetX, int offsetY) {
         // display xrange of map (unit:pixel)
         int firstTileX = pixelsToTiles(offsetX);
         int lastTileX = firstTileX + pixelsToTiles(MainPanel.WIDTH) + 1;
@@ -54,99 +105,465 @@ public class Map implements Common {
         lastTileX = Math.min(lastTileX, col);
         lastTileY = Math.min(lastTileY, row);
 
+        int cols = lastTileX - firstTileX;
+        s.setTileArea(firstTileX, firstTileY, cols, lastTileY - firstTileY);
         for (int i = firstTileY; i < lastTileY; i++) {
             for (int j = firstTileX; j < lastTileX; j++) {
-                int cx = (map[i][j] % 8) * CS;
-                int cy = (map[i][j] / 8) * CS;
-                g.drawImage(image,
-                            tilesToPixels(j) - offsetX,
-                            tilesToPixels(i) - offsetY,
-                            tilesToPixels(j) - offsetX + CS,
-                            tilesToPixels(i) - offsetY + CS,
-                            cx, cy, cx + CS, cy + CS, panel);
-
-                // draw events on (i, j)
-                for (int n = 0; n < events.size(); n++) {
-                    Event event = events.get(n);
-                    if (event.x == j && event.y == i) {
-                        cx = (event.id % 8) * CS;
-                        cy = (event.id / 8) * CS;
-                        g.drawImage(image,
-                                    tilesToPixels(j) - offsetX,
-                                    tilesToPixels(i) - offsetY,
-                                    tilesToPixels(j) - offsetX + CS,
-                                    tilesToPixels(i) - offsetY + CS,
-                                    cx, cy, cx + CS, cy + CS, panel);
-                    }
+                int k = (i - firstTileY) * cols + (j - firstTileX);
+                s.tiles[k] = RenderSnapshot.tileKey(map[i][j],
+                                                    decoration != null ? decoration[i][j] : -1);
+                s.overlays[k] = overlay != null ? overlay[i][j] : -1;
+
+                // events on (i, j)
+                for (Event event = eventAt[i * col + j]; event != null; event = event.nextInTile) {
+                    // invisible event
+                    if (event.id < 0) continue;
+                    s.addSprite(tilesToPixels(j) - offsetX, tilesToPixels(i) - offsetY,
+                                SpriteFrames.getChipFrame(event.id));
                 }
             }
         }
 
-        // draw characters in this map
-        for (int i = 0; i < characters.size(); i++) {
-            Character c = characters.get(i);
-            c.draw(g, offsetX, offsetY);
+        // characters on the screen, from the back to the front. they are
+        // found through the tiles, so only the characters near the view are
+        // visited. a moving character is still on the tile it comes from,
+        // so look one tile further around the view
+        sprites.clear();
+        int top = Math.max(firstTileY - 1, 0);
+        int bottom = Math.min(lastTileY + 1, row);
+        int left = Math.max(firstTileX - 1, 0);
+        int right = Math.min(lastTileX + 1, col);
+        for (int i = top; i < bottom; i++) {
+            for (int j = left; j < right; j++) {
+                for (Character c = characterAt[i * col + j]; c != null; c = c.nextInTile) {
+                    int x = c.getPX() - offsetX;
+                    int y = c.getPY() - offsetY;
+                    if (x > -CS && x < MainPanel.WIDTH && y > -CS && y < MainPanel.HEIGHT) {
+                        sprites.add(c);
+                    }
+                }
+            }
+        }
+        sprites.sort();
+        for (int i = 0; i < sprites.size(); i++) {
+            Character c = sprites.get(i);
+            s.addSprite(c.getPX() - offsetX, c.getPY() - offsetY, c.getFrame());
         }
     }
 
     public boolean isHit(int x, int y) {
-        if (map[y][x] == 1 ||    // wall
-            map[y][x] == 2 ||    // throan
-            map[y][x] == 4 ||    // cave wall
-            map[y][x] == 5) {    // sea
+        if (isHitTile(map[y][x])) {
             return true;
         }
 
+        int tile = y * col + x;
         // Are there other characters?
-        for (int i = 0; i < characters.size(); i++) {
-            Character c = characters.get(i);
-            if (c.getX() == x && c.getY() == y) {
-                return true;
-            }
-        }
-
-        // Are there events?
-        for (int i = 0; i < events.size(); i++) {
-            Event event = events.get(i);
-            if (event.x == x && event.y == y) {
-                return event.isHit;
-            }
+        if (characterAt[tile] != null) {
+            return true;
         }
 
-        return false;
+        // Are there blocking events?
+        return hitEventCount[tile] != 0;
     }
 
     public void addCharacter(Character c) {
         characters.add(c);
+        linkCharacter(c, c.getX(), c.getY());
     }
 
     public void removeCharacter(Character c) {
-        characters.remove(c);
+        if (characters.remove(c)) {
+            unlinkCharacter(c, c.getX(), c.getY());
+        }
+    }
+
+    // called by Character when c has moved from (oldX, oldY) to another tile
+    public void moveCharacter(Character c, int oldX, int oldY) {
+        if (unlinkCharacter(c, oldX, oldY)) {
+            linkCharacter(c, c.getX(), c.getY());
+        }
     }
 
     // is there a character in (x, y) ?
     public Character checkCharacter(int x, int y) {
-        for (int i = 0; i < characters.size(); i++) {
-            Character c = characters.get(i);
-            if (c.getX() == x && c.getY() == y) {
-                return c;
-            }
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            return null;
         }
-        return null;
+        return characterAt[y * col + x];
     }
 
+    // return the first event in (x, y). the others are chained by Event.nextInTile
     public Event checkEvent(int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            return null;
+        }
+        return eventAt[y * col + x];
+    }
+
+    public void removeEvent(Event event) {
+        if (events.remove(event)) {
+            unlinkEvent(event);
+            countEvent(event, -1);
+            updateMinimap(event.x, event.y);
+            if (event.isHit) {
+                nearestWalkableDirty = true;
+            }
+        }
+    }
+
+    // return the index (y * col + x) of the walkable tile nearest to (x, y)
+    // with no character on it. walkable means the hero can stand there
+    // safely: no wall, no sea, no red crystal and no blocking event.
+    // return -1 only if the map has no such tile at all.
+    public int getNearestWalkable(int x, int y) {
+        if (nearestWalkableDirty) {
+            buildNearestWalkable();
+        }
+        // clipping
+        x = Math.max(0, Math.min(x, col - 1));
+        y = Math.max(0, Math.min(y, row - 1));
+        int tile = nearestWalkable[y * col + x];
+        // the table does not know the characters, which move every tick
+        if (tile == -1 || characterAt[tile] == null) {
+            return tile;
+        }
+        return findNearestFree(x, y);
+    }
+
+    public boolean isWalkable(int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            return false;
+        }
+        int tile = map[y][x];
+        if (isHitTile(tile) || tile == 6) {    // red crystal is deadly
+            return false;
+        }
+        return hitEventCount[y * col + x] == 0;
+    }
+
+    public Event[] getBaselineEvents() {
+        return baselineEvents;
+    }
+
+    // replace the events of this map with the events in the event file
+    // except the removed ones, plus the added ones
+    public void restoreEvents(int[] removed, Event[] added) {
+        // remove all events at once
         for (int i = 0; i < events.size(); i++) {
-            Event event = events.get(i);
-            if (event.x == x && event.y == y) {
-                return event;
+            events.get(i).nextInTile = null;
+        }
+        events.clear();
+        Arrays.fill(eventAt, null);
+        Arrays.fill(eventCount, 0);
+        Arrays.fill(hitEventCount, 0);
+        eventVersion++;
+        rebuildSpawnRegions();
+        nearestWalkableDirty = true;
+
+        // SaveGame has checked that the indices are from these events
+        boolean[] isRemoved = new boolean[baselineEvents.length];
+        for (int i = 0; i < removed.length; i++) {
+            isRemoved[removed[i]] = true;
+        }
+        for (int i = 0; i < baselineEvents.length; i++) {
+            if (!isRemoved[i]) {
+                addEvent(baselineEvents[i]);
             }
         }
-        return null;
+        for (int i = 0; i < added.length; i++) {
+            addEvent(added[i]);
+        }
+        minimap.reset();
     }
 
-    public void removeEvent(Event event) {
-        events.remove(event);
+    // share the tile rows with a snapshot. setTileAt() copies a shared row
+    // before writing it, so the returned rows never change.
+    public int[][] shareTiles() {
+        tileEpoch++;
+        return map.clone();
+    }
+
+    // replace the tiles with the snapshot's (same size only)
+    public void restoreTiles(int[][] tiles) {
+        if (tiles.length != row || tiles[0].length != col) {
+            return;
+        }
+        // the rows stay shared with the snapshot
+        map = tiles.clone();
+        tileEpoch++;
+        nearestWalkableDirty = true;
+        rebuildSpawnRegions();
+        minimap.reset();
+    }
+
+    // CRC of the tiles, the events and the characters as loaded
+    private long computeFingerprint() {
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        byte[] bytes = new byte[col];
+        for (int i = 0; i < row; i++) {
+            for (int j = 0; j < col; j++) {
+                bytes[j] = (byte)map[i][j];
+            }
+            crc.update(bytes);
+        }
+        for (Event event : baselineEvents) {
+            crc.update(event.toString().getBytes());
+        }
+        for (Character c : characters) {
+            crc.update(c.getX());
+            crc.update(c.getY());
+        }
+        return crc.getValue();
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getEventVersion() {
+        return eventVersion;
+    }
+
+    // add a spawn region and return its id.
+    // the region keeps track of walkable tiles without events in the rectangle.
+    public int addSpawnRegion(int x, int y, int width, int height) {
+        Rectangle rect = new Rectangle(x, y, width, height).intersection(
+                new Rectangle(0, 0, col, row));
+        TileSet free = new TileSet(row * col);
+        for (int i = rect.y; i < rect.y + rect.height; i++) {
+            for (int j = rect.x; j < rect.x + rect.width; j++) {
+                if (isFree(j, i)) {
+                    free.add(i * col + j);
+                }
+            }
+        }
+        spawnRegionRects.add(rect);
+        spawnRegions.add(free);
+        return spawnRegions.size() - 1;
+    }
+
+    // the number of free tiles in the spawn region
+    public int getFreeTileCount(int region) {
+        return spawnRegions.get(region).size();
+    }
+
+    // return the index (y * col + x) of a random free tile in the spawn region,
+    // or -1 if the region is full
+    public int pickFreeTile(int region, Random rand) {
+        return spawnRegions.get(region).pick(rand);
+    }
+
+    // walkable and no event
+    private boolean isFree(int x, int y) {
+        return isWalkable(x, y) && eventCount[y * col + x] == 0;
+    }
+
+    // update spawn regions containing (x, y)
+    private void updateFreeTile(int x, int y) {
+        boolean free = isFree(x, y);
+        int tile = y * col + x;
+        for (int i = 0; i < spawnRegions.size(); i++) {
+            if (spawnRegionRects.get(i).contains(x, y)) {
+                if (free) {
+                    spawnRegions.get(i).add(tile);
+                } else {
+                    spawnRegions.get(i).remove(tile);
+                }
+            }
+        }
+    }
+
+    private void linkEvent(Event event) {
+        if (event.x < 0 || event.x >= col || event.y < 0 || event.y >= row) {
+            return;
+        }
+        int tile = event.y * col + event.x;
+        event.nextInTile = eventAt[tile];
+        eventAt[tile] = event;
+    }
+
+    private void unlinkEvent(Event event) {
+        if (event.x < 0 || event.x >= col || event.y < 0 || event.y >= row) {
+            return;
+        }
+        int tile = event.y * col + event.x;
+        if (eventAt[tile] == event) {
+            eventAt[tile] = event.nextInTile;
+        } else {
+            for (Event e = eventAt[tile]; e != null; e = e.nextInTile) {
+                if (e.nextInTile == event) {
+                    e.nextInTile = event.nextInTile;
+                    break;
+                }
+            }
+        }
+        event.nextInTile = null;
+    }
+
+    private void linkCharacter(Character c, int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            return;
+        }
+        int tile = y * col + x;
+        c.nextInTile = characterAt[tile];
+        characterAt[tile] = c;
+        updateMinimap(x, y);
+    }
+
+    // return false if c was not linked to (x, y)
+    private boolean unlinkCharacter(Character c, int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            return false;
+        }
+        int tile = y * col + x;
+        if (characterAt[tile] == c) {
+            characterAt[tile] = c.nextInTile;
+            c.nextInTile = null;
+            updateMinimap(x, y);
+            return true;
+        }
+        for (Character other = characterAt[tile]; other != null; other = other.nextInTile) {
+            if (other.nextInTile == c) {
+                other.nextInTile = c.nextInTile;
+                c.nextInTile = null;
+                // the first character is still there
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateMinimap(int x, int y) {
+        if (minimap != null) {
+            minimap.update(x, y);
+        }
+    }
+
+    public Minimap getMinimap() {
+        return minimap;
+    }
+
+    private void rebuildSpawnRegions() {
+        for (int i = 0; i < spawnRegions.size(); i++) {
+            Rectangle rect = spawnRegionRects.get(i);
+            for (int y = rect.y; y < rect.y + rect.height; y++) {
+                for (int x = rect.x; x < rect.x + rect.width; x++) {
+                    updateFreeTile(x, y);
+                }
+            }
+        }
+    }
+
+    private void countEvent(Event event, int n) {
+        eventVersion++;
+        if (event.x < 0 || event.x >= col || event.y < 0 || event.y >= row) {
+            return;
+        }
+        int tile = event.y * col + event.x;
+        eventCount[tile] += n;
+        if (event.isHit) {
+            hitEventCount[tile] += n;
+        }
+        updateFreeTile(event.x, event.y);
+    }
+
+    private static boolean isHitTile(int tile) {
+        return tile == 1 ||    // wall
+               tile == 2 ||    // throan
+               tile == 4 ||    // cave wall
+               tile == 5;      // sea
+    }
+
+    // multi-source BFS from every walkable tile, so that each tile
+    // remembers the walkable tile closest to it
+    private void buildNearestWalkable() {
+        int size = row * col;
+        if (nearestWalkable == null || nearestWalkable.length != size) {
+            nearestWalkable = new int[size];
+        }
+        Arrays.fill(nearestWalkable, -1);
+
+        beginSearch();
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < row; i++) {
+            for (int j = 0; j < col; j++) {
+                if (isWalkable(j, i)) {
+                    int tile = i * col + j;
+                    nearestWalkable[tile] = tile;
+                    bfsSeen[tile] = bfsStamp;
+                    bfsQueue[tail++] = tile;
+                }
+            }
+        }
+
+        while (head < tail) {
+            int cur = bfsQueue[head++];
+            int next = pushNeighbours(cur, tail);
+            for (; tail < next; tail++) {
+                nearestWalkable[bfsQueue[tail]] = nearestWalkable[cur];
+            }
+        }
+
+        nearestWalkableDirty = false;
+    }
+
+    // BFS from (x, y) to the nearest walkable tile with no character on it
+    // (-1: none). only used when the tile from the table is taken
+    private int findNearestFree(int x, int y) {
+        beginSearch();
+        int head = 0;
+        int tail = 0;
+        bfsSeen[y * col + x] = bfsStamp;
+        bfsQueue[tail++] = y * col + x;
+        while (head < tail) {
+            int cur = bfsQueue[head++];
+            if (isWalkable(cur % col, cur / col) && characterAt[cur] == null) {
+                return cur;
+            }
+            tail = pushNeighbours(cur, tail);
+        }
+        return -1;
+    }
+
+    // start a new BFS on the scratch buffers: no tile is seen yet
+    private void beginSearch() {
+        int size = row * col;
+        if (bfsQueue == null || bfsQueue.length != size) {
+            bfsQueue = new int[size];
+            bfsSeen = new int[size];
+            bfsStamp = 0;
+        }
+        bfsStamp++;
+        if (bfsStamp == 0) {
+            // wrapped around: forget the old stamps
+            Arrays.fill(bfsSeen, 0);
+            bfsStamp = 1;
+        }
+    }
+
+    // queue the neighbours of cur not seen yet by this BFS
+    // and return the new tail of the queue
+    private int pushNeighbours(int cur, int tail) {
+        int cx = cur % col;
+        int cy = cur / col;
+        if (cx > 0 && bfsSeen[cur - 1] != bfsStamp) {
+            bfsSeen[cur - 1] = bfsStamp;
+            bfsQueue[tail++] = cur - 1;
+        }
+        if (cx < col - 1 && bfsSeen[cur + 1] != bfsStamp) {
+            bfsSeen[cur + 1] = bfsStamp;
+            bfsQueue[tail++] = cur + 1;
+        }
+        if (cy > 0 && bfsSeen[cur - col] != bfsStamp) {
+            bfsSeen[cur - col] = bfsStamp;
+            bfsQueue[tail++] = cur - col;
+        }
+        if (cy < row - 1 && bfsSeen[cur + col] != bfsStamp) {
+            bfsSeen[cur + col] = bfsStamp;
+            bfsQueue[tail++] = cur + col;
+        }
+        return tail;
     }
 
     public static int pixelsToTiles(double pixels) {
@@ -173,16 +590,22 @@ public class Map implements Common {
         return height;
     }
 
-    public Vector<Character> getCharacters() {
+    public ArrayList<Character> getCharacters() {
         return characters;
     }
 
-    public Vector<Event> getEvents() {
+    public ArrayList<Event> getEvents() {
         return events;
     }
 
     public void addEvent(Event event) {
         events.add(event);
+        linkEvent(event);
+        countEvent(event, 1);
+        updateMinimap(event.x, event.y);
+        if (event.isHit) {
+            nearestWalkableDirty = true;
+        }
     }
 
     public String getBgmName() {
@@ -193,10 +616,12 @@ public class Map implements Common {
         return mapFile;
     }
 
+    // a broken file is reported as IllegalArgumentException
+    // with the file name and the line number
     private void load(String filename) {
+        MapLoadJfrEvent jfrEvent = MapLoadJfrEvent.start(filename);
+        LineNumberReader br = new LineNumberReader(new InputStreamReader(open(filename)));
         try {
-            BufferedReader br = new BufferedReader(
-                new InputStreamReader(getClass().getResourceAsStream(filename)));
             // load row and col
             String line = br.readLine();
             row = Integer.parseInt(line);
@@ -207,21 +632,65 @@ public class Map implements Common {
             height = row * CS;
             // load map data
             map = new int[row][col];
+            rowEpoch = new int[row];
+            eventAt = new Event[row * col];
+            characterAt = new Character[row * col];
+            eventCount = new int[row * col];
+            hitEventCount = new int[row * col];
             for (int i=0; i<row; i++) {
                 line = br.readLine();
                 for (int j=0; j<col; j++) {
-                    map[i][j] = Integer.parseInt(line.charAt(j) + "");
+                    map[i][j] = line.charAt(j) - '0';
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            // layers: "LAYER decoration" or "LAYER overlay" and row lines
+            // of chips ('0' + chip, '.' for none)
+            while ((line = br.readLine()) != null) {
+                if (line.equals("LAYER decoration")) {
+                    decoration = loadLayer(br);
+                } else if (line.equals("LAYER overlay")) {
+                    overlay = loadLayer(br);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // RuntimeException: a short line (or file) or a wrong number
+            throw new IllegalArgumentException(filename + ": line " + br.getLineNumber() + ": "
+                                               + e, e);
+        }
+        if (jfrEvent != null) {
+            jfrEvent.rows = row;
+            jfrEvent.cols = col;
+            jfrEvent.commit();
+        }
+    }
+
+    private int[][] loadLayer(BufferedReader br) throws IOException {
+        int[][] layer = new int[row][col];
+        for (int i = 0; i < row; i++) {
+            String line = br.readLine();
+            for (int j = 0; j < col; j++) {
+                char c = line.charAt(j);
+                layer[i][j] = c == '.' ? -1 : c - '0';
+            }
+        }
+        return layer;
+    }
+
+    private InputStream open(String filename) {
+        InputStream in = getClass().getResourceAsStream(filename);
+        if (in == null) {
+            throw new IllegalArgumentException(filename + ": not found");
         }
+        return in;
     }
 
+    // a broken file is reported as IllegalArgumentException
+    // with the file name and the line number
     private void loadEvent(String filename) {
+        MapLoadJfrEvent jfrEvent = MapLoadJfrEvent.start(filename);
+        InputStream in = open(filename);
         try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    getClass().getResourceAsStream(filename), "UTF-8"));
+            LineNumberReader br = new LineNumberReader(new InputStreamReader(in, "UTF-8"));
             String line;
             while ((line = br.readLine()) != null) {
                 // skip null lines
@@ -230,26 +699,42 @@ public class Map implements Common {
                 if (line.startsWith("#")) continue;
                 StringTokenizer st = new StringTokenizer(line, ",");
                 String eventType = st.nextToken();
-                if (eventType.equals("CHARACTER")) {
-                    makeCharacterEvent(st);
-                } else if (eventType.equals("TREASURE")) {
-                    makeTreasureEvent(st);
-                } else if (eventType.equals("DOOR")) {
-                    makeDoorEvent(st);
-                } else if (eventType.equals("MOVE")) {
-                    makeMoveEvent(st);
+                try {
+                    if (eventType.equals("CHARACTER")) {
+                        makeCharacterEvent(st);
+                    } else if (eventType.equals("TREASURE")) {
+                        makeTreasureEvent(st);
+                    } else if (eventType.equals("DOOR")) {
+                        makeDoorEvent(st);
+                    } else if (eventType.equals("MOVE")) {
+                        makeMoveEvent(st);
+                    } else if (eventType.equals("SCRIPT")) {
+                        makeScriptEvent(st, br);
+                    }
+                } catch (NumberFormatException | NoSuchElementException e) {
+                    // a wrong number or a missing field of this line
+                    // (script errors already tell their line)
+                    throw new IllegalArgumentException(filename + ": line " + br.getLineNumber()
+                                                       + ": " + line + ": " + e, e);
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(filename + ": " + e.getMessage(), e);
         }
-    }
 
-    private void loadImage(String filename) {
-        try {
-            image = ImageIO.read(getClass().getResource(filename));
-        } catch (IOException e) {
-            e.printStackTrace();
+        // remember the events in the file so that saved games only
+        // have to record the differences
+        baselineEvents = events.toArray(new Event[events.size()]);
+        for (int i = 0; i < baselineEvents.length; i++) {
+            baselineEvents[i].baselineIndex = i;
+        }
+
+        if (jfrEvent != null) {
+            jfrEvent.rows = row;
+            jfrEvent.cols = col;
+            jfrEvent.characters = characters.size();
+            jfrEvent.events = events.size();
+            jfrEvent.commit();
         }
     }
 
@@ -262,7 +747,7 @@ public class Map implements Common {
         String message = st.nextToken();
         Character c = new Character(x, y, id, direction, moveType, this);
         c.setMessage(message);
-        characters.add(c);
+        addCharacter(c);
     }
 
     private void makeTreasureEvent(StringTokenizer st) {
@@ -270,7 +755,7 @@ public class Map implements Common {
         int y = Integer.parseInt(st.nextToken());
         String itemName = st.nextToken();
         TreasureEvent t = new TreasureEvent(x, y, itemName);
-        events.add(t);
+        addEvent(t);
     }
 
     private void makeDoorEvent(StringTokenizer st) {
@@ -283,7 +768,7 @@ public class Map implements Common {
         } else {
             d = new DoorEvent(x, y);
         }
-        events.add(d);
+        addEvent(d);
     }
 
     private void makeMoveEvent(StringTokenizer st) {
@@ -294,7 +779,49 @@ public class Map implements Common {
         int destX = Integer.parseInt(st.nextToken());
         int destY = Integer.parseInt(st.nextToken());
         MoveEvent m = new MoveEvent(x, y, chipNo, destMapNo, destX, destY);
-        events.add(m);
+        addEvent(m);
+    }
+
+    private void makeScriptEvent(StringTokenizer st, LineNumberReader br) throws IOException {
+        int x = Integer.parseInt(st.nextToken());
+        int y = Integer.parseInt(st.nextToken());
+        String trigger = st.nextToken();
+        // script lines until ENDSCRIPT
+        int firstLine = br.getLineNumber() + 1;
+        ArrayList<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = br.readLine()) != null && !line.trim().equals("ENDSCRIPT")) {
+            lines.add(line);
+        }
+        Script script;
+        try {
+            script = panel.getScriptCompiler().compile(lines, firstLine, panel.getNumMaps());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(eventFile + ": " + e.getMessage(), e);
+        }
+        ScriptEvent e = new ScriptEvent(x, y,
+                trigger.equals("STEP") ? ScriptEvent.STEP : ScriptEvent.TALK, script);
+        addEvent(e);
+    }
+
+    // check that the WARPs of the scripts land inside their maps. called
+    // once all the maps are loaded, since a WARP may go to a later one
+    public void checkWarps(Map[] maps) {
+        for (Event event : events) {
+            if (!(event instanceof ScriptEvent)) continue;
+            Script script = ((ScriptEvent)event).getScript();
+            int[] code = script.getCode();
+            for (int address : script.getWarps()) {
+                Map dest = maps[code[address + 1]];
+                int x = code[address + 2];
+                int y = code[address + 3];
+                if (x < 0 || x >= dest.col || y < 0 || y >= dest.row) {
+                    throw new IllegalArgumentException(eventFile + ": script at (" + event.x + ", "
+                            + event.y + "): WARP to (" + x + ", " + y + ") outside map "
+                            + code[address + 1]);
+                }
+            }
+        }
     }
 
     public void show() {
@@ -315,7 +842,15 @@ public class Map implements Common {
 
     public void setTileAt(int x, int y, int tileValue) {
         if (x >= 0 && x < col && y >= 0 && y < row) {
+            if (rowEpoch[y] != tileEpoch) {
+                // copy on write
+                map[y] = map[y].clone();
+                rowEpoch[y] = tileEpoch;
+            }
             map[y][x] = tileValue;
+            nearestWalkableDirty = true;
+            updateFreeTile(x, y);
+            updateMinimap(x, y);
         }
     }
 }
@@ -0,0 +1,36 @@
+import jdk.jfr.*;
+
+// loading a map file or an event file (Java Flight Recorder)
+@Name("rpg.MapLoad")
+@Label("Map Load")
+@Category("RPG")
+@Description("Loading a map file or an event file")
+public class MapLoadJfrEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(MapLoadJfrEvent.class);
+
+    @Label("File")
+    String file;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Columns")
+    int cols;
+
+    @Label("Characters")
+    int characters;
+
+    @Label("Events")
+    int events;
+
+    // return null (no allocation) unless a recording wants it
+    public static MapLoadJfrEvent start(String file) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        MapLoadJfrEvent e = new MapLoadJfrEvent();
+        e.file = file;
+        e.begin();
+        return e;
+    }
+}
@@ -0,0 +1,39 @@
+import jdk.jfr.*;
+
+// the hero moving to another map (Java Flight Recorder)
+@Name("rpg.MapTransition")
+@Label("Map Transition")
+@Category("RPG")
+@Description("The hero moving to another map")
+public class MapTransitionJfrEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(MapTransitionJfrEvent.class);
+
+    @Label("From")
+    String from;
+
+    @Label("To")
+    String to;
+
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+
+    @Label("Characters")
+    int characters;
+
+    @Label("Events")
+    int events;
+
+    // return null (no allocation) unless a recording wants it
+    public static MapTransitionJfrEvent start(String from) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        MapTransitionJfrEvent e = new MapTransitionJfrEvent();
+        e.from = from;
+        e.begin();
+        return e;
+    }
+}
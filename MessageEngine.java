@@ -1,6 +1,5 @@
 import java.awt.*;
 import java.util.*;
-import javax.swing.*;
 // in this class, Character does not means Player!
 import java.lang.Character;
 
@@ -15,24 +14,37 @@ public class MessageEngine {
     public static final int GREEN = 320;
     public static final int BLUE = 480;
 
-    // font image
+    // font image (the atlas)
     private Image fontImage;
-    // Japanese kana's position
+    // Japanese kana's position in font.gif
     private HashMap<Character, Point> kana2Pos;
+    // the same positions in the atlas indexed by char, so that drawing
+    // does not box chars
+    private Point[] glyphPos;
 
     // current color
     private int color;
 
     public MessageEngine() {
-        // load Japanese font image
-        ImageIcon icon = new ImageIcon(getClass().getResource("image/font.gif"));
-        fontImage = icon.getImage();
+        // Japanese font image
+        fontImage = SpriteFrames.getImage();
 
         color = WHITE;
 
         // calculate each kana's position
         kana2Pos = new HashMap<Character, Point>();
         createHash();
+
+        int maxChar = 0;
+        for (Character c : kana2Pos.keySet()) {
+            maxChar = Math.max(maxChar, c.charValue());
+        }
+        glyphPos = new Point[maxChar + 1];
+        for (java.util.Map.Entry<Character, Point> e : kana2Pos.entrySet()) {
+            Point p = e.getValue();
+            glyphPos[e.getKey().charValue()] = new Point(SpriteFrames.getFontX() + p.x,
+                                                         SpriteFrames.getFontY() + p.y);
+        }
     }
 
     public void setColor(int c) {
@@ -52,7 +64,10 @@ public class MessageEngine {
     }
 
     public void drawCharacter(int x, int y, char c, Graphics g) {
-        Point pos = kana2Pos.get(new Character(c));
+        if (c >= glyphPos.length) {
+            return;
+        }
+        Point pos = glyphPos[c];
         if (pos == null) {
             return;
         }
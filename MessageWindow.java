@@ -1,7 +1,4 @@
 import java.awt.*;
-import javax.swing.*;
-import java.util.*;
-import java.util.Timer;
 
 public class MessageWindow {
     // width of white border
@@ -11,6 +8,8 @@ public class MessageWindow {
     private static final int MAX_CHAR_PER_LINE = 20;
     private static final int MAX_LINE_PER_PAGE = 3;
     private static final int MAX_CHAR_PER_PAGE = MAX_CHAR_PER_LINE * MAX_LINE_PER_PAGE;
+    // ticks the cursor is shown, then hidden (200ms as in cursor.gif)
+    private static final int CURSOR_BLINK_PERIOD = 10;
 
     // outer frame
     private Rectangle rect;
@@ -22,8 +21,10 @@ public class MessageWindow {
     // message window is visible ?
     private boolean isVisible = false;
 
-    // cursor animation gif
-    private Image cursorImage;
+    // the cursor is the first frame of the cursor animation gif (the
+    // window blinks it in step with the game, so that every frame shows
+    // a known state)
+    private int cursorTicks;
 
     // message array
     private char[] text = new char[128 * MAX_CHAR_PER_LINE];
@@ -31,11 +32,14 @@ public class MessageWindow {
     private int curPage = 0;
     private int curPos;
     private boolean nextFlag = false;
+    // is the message flowing ?
+    private boolean isFlowing = false;
+    private int messageLength;
 
-    private MessageEngine messageEngine;
+    // recorded while the window is visible
+    private MessageWindowJfrEvent jfrEvent;
 
-    private Timer timer;
-    private TimerTask task;
+    private MessageEngine messageEngine;
 
     public MessageWindow(Rectangle rect) {
         this.rect = rect;
@@ -52,16 +56,25 @@ public class MessageWindow {
                 120);
 
         messageEngine = new MessageEngine();
+    }
 
-        // load cursor image
-        ImageIcon icon = new ImageIcon(getClass().getResource("image/cursor.gif"));
-        cursorImage = icon.getImage();
-
-        timer = new Timer();
+    // copy the shown part of the current page into the render snapshot
+    public void capture(RenderSnapshot s) {
+        s.messageVisible = isVisible;
+        if (!isVisible) {
+            return;
+        }
+        System.arraycopy(text, curPage * MAX_CHAR_PER_PAGE, s.messageText, 0, curPos);
+        s.messageLength = curPos;
+        // a blinking cursor if the current page is not the last page
+        s.messageCursor = curPage < maxPage && nextFlag
+            && (cursorTicks / CURSOR_BLINK_PERIOD) % 2 == 0;
     }
 
-    public void draw(Graphics g) {
-        if (isVisible == false) {
+    // draw the window of the snapshot. only reads the fields set in the
+    // constructor, so that the render thread can call it.
+    public void draw(Graphics g, RenderSnapshot s) {
+        if (!s.messageVisible) {
             return;
         }
 
@@ -75,22 +88,23 @@ public class MessageWindow {
                    innerRect.width, innerRect.height);
 
         // draw a current page
-        for (int i = 0; i < curPos; i++) {
-            char c = text[curPage * MAX_CHAR_PER_PAGE + i];
+        for (int i = 0; i < s.messageLength; i++) {
+            char c = s.messageText[i];
             int dx = textRect.x + MessageEngine.FONT_WIDTH * (i % MAX_CHAR_PER_LINE);
             int dy = textRect.y + (LINE_HEIGHT + MessageEngine.FONT_HEIGHT) * (i / MAX_CHAR_PER_LINE);
             messageEngine.drawCharacter(dx, dy, c, g);
         }
 
-        // draw a cursor if the current page is not the last page
-        if (curPage < maxPage && nextFlag) {
+        // draw a cursor
+        if (s.messageCursor) {
             int dx = textRect.x + (MAX_CHAR_PER_LINE / 2) * MessageEngine.FONT_WIDTH - 8;
             int dy = textRect.y + (LINE_HEIGHT + MessageEngine.FONT_HEIGHT) * 3;
-            g.drawImage(cursorImage, dx, dy, null);
+            SpriteFrames.drawCursor(g, dx, dy);
         }
     }
 
     public void setMessage(String msg) {
+        messageLength = msg.length();
         curPos = 0;
         curPage = 0;
         nextFlag = false;
@@ -116,14 +130,26 @@ public class MessageWindow {
 
         maxPage = p / MAX_CHAR_PER_PAGE;
 
-        task = new FlowingMessageTask();
-        timer.schedule(task, 0L, 20L);
+        isFlowing = true;
+    }
+
+    // called every frame by the game loop, so that the message flows
+    // one character per frame in step with the game
+    public void update() {
+        if (isFlowing && !nextFlag) {
+            curPos++;
+            if (curPos % MAX_CHAR_PER_PAGE == 0) {
+                nextFlag = true;
+                cursorTicks = 0;
+            }
+        } else {
+            cursorTicks++;
+        }
     }
 
     public boolean nextPage() {
         if (curPage == maxPage) {
-            task.cancel();
-            task = null;
+            isFlowing = false;
             return true;
         }
         if (nextFlag) {
@@ -135,26 +161,25 @@ public class MessageWindow {
     }
 
     public void show() {
+        endJfrEvent();
+        jfrEvent = MessageWindowJfrEvent.start(messageLength, maxPage + 1);
         isVisible = true;
     }
 
     public void hide() {
+        endJfrEvent();
         isVisible = false;
     }
 
-    public boolean isVisible() {
-        return isVisible;
+    private void endJfrEvent() {
+        if (jfrEvent != null) {
+            jfrEvent.commit();
+            jfrEvent = null;
+        }
     }
 
-    class FlowingMessageTask extends TimerTask {
-        public void run() {
-            if (!nextFlag) {
-                curPos++;
-                if (curPos % MAX_CHAR_PER_PAGE == 0) {
-                    nextFlag = true;
-                }
-            }
-        }
+    public boolean isVisible() {
+        return isVisible;
     }
 
 }
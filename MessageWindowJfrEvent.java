@@ -0,0 +1,30 @@
+import jdk.jfr.*;
+
+// the message window being visible, from show() to hide() (Java Flight Recorder)
+@Name("rpg.MessageWindow")
+@Label("Message Window")
+@Category("RPG")
+@StackTrace(false)
+@Description("The message window being visible")
+public class MessageWindowJfrEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(MessageWindowJfrEvent.class);
+
+    @Label("Length")
+    @Description("The number of characters of the message")
+    int length;
+
+    @Label("Pages")
+    int pages;
+
+    // return null (no allocation) unless a recording wants it
+    public static MessageWindowJfrEvent start(int length, int pages) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        MessageWindowJfrEvent e = new MessageWindowJfrEvent();
+        e.length = length;
+        e.pages = pages;
+        e.begin();
+        return e;
+    }
+}
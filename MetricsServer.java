@@ -0,0 +1,180 @@
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.*;
+
+// serves engine health on http://127.0.0.1:<port>/metrics in the
+// Prometheus text format. requests are handled on a thread of its own,
+// which only reads values the game loop publishes without locking.
+public class MetricsServer implements HttpHandler {
+    private static final String[] QUANTILES = {"0.5", "0.99"};
+    private static final double[] PERCENTILES = {50, 99};
+
+    private HttpServer server;
+
+    private GameMetrics metrics;
+    private FrameTimer frameTimer;
+    private Histogram inputLatency;
+    // null in headless mode
+    private MidiEngine midiEngine;
+    private WaveEngine waveEngine;
+
+    // tick rate between the last two requests
+    private long lastTicks;
+    private long lastTime;
+
+    public MetricsServer(int port, GameMetrics metrics, FrameTimer frameTimer,
+                         Histogram inputLatency,
+                         MidiEngine midiEngine, WaveEngine waveEngine) throws IOException {
+        this.metrics = metrics;
+        this.frameTimer = frameTimer;
+        this.inputLatency = inputLatency;
+        this.midiEngine = midiEngine;
+        this.waveEngine = waveEngine;
+        lastTicks = metrics.getTicks();
+        lastTime = System.nanoTime();
+
+        // localhost only
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MetricsServer");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = collect().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // the whole page (one request at a time)
+    String collect() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "rpg_frame_phase_seconds", "summary",
+               "Time of each phase of a frame since the start or the last frame log");
+        for (int phase = 0; phase < FrameTimer.NUM_PHASES; phase++) {
+            String name = FrameTimer.getPhaseName(phase);
+            for (int q = 0; q < QUANTILES.length; q++) {
+                sb.append("rpg_frame_phase_seconds{phase=\"").append(name)
+                  .append("\",quantile=\"").append(QUANTILES[q]).append("\"} ")
+                  .append(frameTimer.percentile(phase, PERCENTILES[q]) / 1e6).append('\n');
+            }
+            sb.append("rpg_frame_phase_seconds_sum{phase=\"").append(name).append("\"} ")
+              .append(frameTimer.getSum(phase) / 1e6).append('\n');
+            sb.append("rpg_frame_phase_seconds_count{phase=\"").append(name).append("\"} ")
+              .append(frameTimer.getCount(phase)).append('\n');
+        }
+        header(sb, "rpg_frame_phase_max_seconds", "gauge", "Longest phase of a frame");
+        for (int phase = 0; phase < FrameTimer.NUM_PHASES; phase++) {
+            sb.append("rpg_frame_phase_max_seconds{phase=\"").append(FrameTimer.getPhaseName(phase))
+              .append("\"} ").append(frameTimer.getMax(phase) / 1e6).append('\n');
+        }
+
+        header(sb, "rpg_input_latency_seconds", "summary",
+               "Time from a key press to the first presented frame showing it");
+        for (int q = 0; q < QUANTILES.length; q++) {
+            sb.append("rpg_input_latency_seconds{quantile=\"").append(QUANTILES[q]).append("\"} ")
+              .append(inputLatency.percentile(PERCENTILES[q]) / 1e6).append('\n');
+        }
+        sb.append("rpg_input_latency_seconds_sum ").append(inputLatency.getSum() / 1e6).append('\n');
+        sb.append("rpg_input_latency_seconds_count ").append(inputLatency.getCount()).append('\n');
+        header(sb, "rpg_input_latency_max_seconds", "gauge", "Longest input latency");
+        sb.append("rpg_input_latency_max_seconds ").append(inputLatency.getMax() / 1e6).append('\n');
+
+        long ticks = metrics.getTicks();
+        long now = System.nanoTime();
+        double rate = (now > lastTime) ? (ticks - lastTicks) / ((now - lastTime) / 1e9) : 0;
+        lastTicks = ticks;
+        lastTime = now;
+        header(sb, "rpg_ticks_total", "counter", "Game logic ticks");
+        sb.append("rpg_ticks_total ").append(ticks).append('\n');
+        header(sb, "rpg_tick_rate", "gauge", "Ticks per second since the last scrape");
+        sb.append("rpg_tick_rate ").append(rate).append('\n');
+
+        header(sb, "rpg_game_events_dropped_total", "counter",
+               "Gameplay events dropped because listeners published too many");
+        sb.append("rpg_game_events_dropped_total ").append(metrics.getDroppedEvents()).append('\n');
+
+        header(sb, "rpg_map_characters", "gauge", "Characters in each map");
+        for (int i = 0; i < metrics.getMapCount(); i++) {
+            mapSample(sb, "rpg_map_characters", i, metrics.getCharacters(i));
+        }
+        header(sb, "rpg_map_events", "gauge", "Events in each map");
+        for (int i = 0; i < metrics.getMapCount(); i++) {
+            mapSample(sb, "rpg_map_events", i, metrics.getEvents(i));
+        }
+        header(sb, "rpg_map_current", "gauge", "1 for the map the hero is in");
+        int mapNo = metrics.getMapNo();
+        for (int i = 0; i < metrics.getMapCount(); i++) {
+            mapSample(sb, "rpg_map_current", i, i == mapNo ? 1 : 0);
+        }
+
+        header(sb, "rpg_assets_loaded", "gauge", "Loaded assets by kind");
+        sb.append("rpg_assets_loaded{kind=\"map\"} ").append(metrics.getMapCount()).append('\n');
+        if (midiEngine != null) {
+            sb.append("rpg_assets_loaded{kind=\"bgm\"} ").append(midiEngine.getSequenceCount()).append('\n');
+        }
+        if (waveEngine != null) {
+            sb.append("rpg_assets_loaded{kind=\"sound\"} ").append(waveEngine.getClipCount()).append('\n');
+        }
+
+        if (midiEngine != null && waveEngine != null) {
+            header(sb, "rpg_audio_voices_active", "gauge", "Sounding voices");
+            sb.append("rpg_audio_voices_active{engine=\"midi\"} ").append(midiEngine.getActiveVoices()).append('\n');
+            sb.append("rpg_audio_voices_active{engine=\"wave\"} ").append(waveEngine.getActiveVoices()).append('\n');
+            header(sb, "rpg_audio_voices_max", "gauge", "Available voices");
+            sb.append("rpg_audio_voices_max{engine=\"midi\"} ").append(midiEngine.getMaxVoices()).append('\n');
+            sb.append("rpg_audio_voices_max{engine=\"wave\"} ").append(waveEngine.getClipCount()).append('\n');
+            header(sb, "rpg_audio_bgm_playing", "gauge", "1 while the BGM is playing");
+            sb.append("rpg_audio_bgm_playing ").append(midiEngine.isPlaying() ? 1 : 0).append('\n');
+        }
+
+        header(sb, "jvm_threads", "gauge", "Live threads");
+        sb.append("jvm_threads ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(sb, "jvm_heap_bytes", "gauge", "Heap memory");
+        sb.append("jvm_heap_bytes{area=\"used\"} ").append(heap.getUsed()).append('\n');
+        sb.append("jvm_heap_bytes{area=\"committed\"} ").append(heap.getCommitted()).append('\n');
+        sb.append("jvm_heap_bytes{area=\"max\"} ").append(heap.getMax()).append('\n');
+        header(sb, "jvm_gc_collections_total", "counter", "Garbage collections");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_collections_total{gc=\"").append(gc.getName()).append("\"} ")
+              .append(gc.getCollectionCount()).append('\n');
+        }
+        header(sb, "jvm_gc_seconds_total", "counter", "Time spent in garbage collections");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_seconds_total{gc=\"").append(gc.getName()).append("\"} ")
+              .append(gc.getCollectionTime() / 1e3).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void mapSample(StringBuilder sb, String name, int i, long value) {
+        sb.append(name).append("{map=\"").append(metrics.getMapName(i)).append("\"} ")
+          .append(value).append('\n');
+    }
+}
@@ -15,6 +15,9 @@ public class MidiEngine implements MetaEventListener {
     private int counter = 0;
     String currentSequenceName = "";
 
+    // the number of loaded sequences (read by any thread)
+    private volatile int sequenceCount = 0;
+
     public MidiEngine() {
         this(256);
     }
@@ -54,6 +57,7 @@ public class MidiEngine implements MetaEventListener {
             Sequence seq = MidiSystem.getSequence(
                     getClass().getResource(filename));
             midiMap.put(name, seq);
+            sequenceCount = midiMap.size();
         } catch (InvalidMidiDataException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -65,6 +69,7 @@ public class MidiEngine implements MetaEventListener {
         if (currentSequenceName.equals(name)) {
             return;
         }
+        AudioJfrEvent jfrEvent = AudioJfrEvent.start("bgm", name);
         stop();
         Sequence seq = (Sequence)midiMap.get(name);
         if (sequencer != null && seq != null) {
@@ -76,6 +81,9 @@ public class MidiEngine implements MetaEventListener {
                 e.printStackTrace();
             }
         }
+        if (jfrEvent != null) {
+            jfrEvent.commit();
+        }
     }
 
     public void stop() {
@@ -84,6 +92,32 @@ public class MidiEngine implements MetaEventListener {
         }
     }
 
+    public int getSequenceCount() {
+        return sequenceCount;
+    }
+
+    public boolean isPlaying() {
+        return sequencer != null && sequencer.isRunning();
+    }
+
+    // the number of synthesizer voices sounding now
+    public int getActiveVoices() {
+        if (synthesizer == null) {
+            return 0;
+        }
+        int active = 0;
+        for (VoiceStatus v : synthesizer.getVoiceStatus()) {
+            if (v.active) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public int getMaxVoices() {
+        return synthesizer == null ? 0 : synthesizer.getMaxPolyphony();
+    }
+
     public void close() {
         stop();
         sequencer.removeMetaEventListener(this);
@@ -0,0 +1,177 @@
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+// the colors of a map at 1 pixel per tile: the tile, a visible event on
+// it, or a character. while it is shown, Map keeps it up to date as
+// tiles, events and characters change (game loop), and it is handed to
+// the renderer in render snapshots as the changes it has not
+// acknowledged yet, or as all the colors when it has not seen them (it
+// skips snapshots, so a change is sent again until it is acknowledged).
+// while it is not shown, changes cost nothing and the colors are built
+// again when it is shown.
+public class Minimap implements Common {
+    private static final int CHARACTER_COLOR = 0xffffff;
+    // more changes than this are sent as all the colors
+    private static final int MAX_CHANGES = 1024;
+
+    // average color of each chip in the chip set
+    private static int[] chipColors;
+
+    private Map map;
+    // captured by the last snapshot
+    private boolean active = false;
+    private int col, row;
+    // color of each tile (index: y * col + x)
+    private int[] colors;
+
+    // the number of changes so far
+    private long seq = 0;
+    // all the colors have to be sent if the renderer has not acknowledged this
+    private long resetSeq = 0;
+    // tiles changed after the renderer's acknowledgment (seq of changes[0]: firstSeq)
+    private int[] changes = new int[MAX_CHANGES];
+    private int numChanges = 0;
+    private long firstSeq = 1;
+
+    // the last seq the renderer has drawn (-1: it needs all the colors)
+    private AtomicLong drawnSeq = new AtomicLong(-1);
+
+    public Minimap(Map map) {
+        this.map = map;
+        if (chipColors == null) {
+            chipColors = averageColors(SpriteFrames.getImage());
+        }
+    }
+
+    // the map has been replaced wholesale
+    public void reset() {
+        if (active) {
+            rebuild();
+        }
+    }
+
+    // not shown any more (game loop)
+    public void deactivate() {
+        active = false;
+    }
+
+    private void rebuild() {
+        col = map.getCol();
+        row = map.getRow();
+        if (colors == null || colors.length != col * row) {
+            colors = new int[col * row];
+        }
+        for (int y = 0; y < row; y++) {
+            for (int x = 0; x < col; x++) {
+                colors[y * col + x] = colorAt(x, y);
+            }
+        }
+        seq++;
+        resetSeq = seq;
+        numChanges = 0;
+        firstSeq = seq + 1;
+    }
+
+    // the tile, the events or the characters on (x, y) have changed
+    public void update(int x, int y) {
+        if (!active || x < 0 || x >= col || y < 0 || y >= row) {
+            return;
+        }
+        int tile = y * col + x;
+        int color = colorAt(x, y);
+        if (colors[tile] == color) {
+            return;
+        }
+        colors[tile] = color;
+        seq++;
+        if (numChanges == MAX_CHANGES) {
+            // the renderer is far behind (or does not draw this map)
+            resetSeq = seq;
+            numChanges = 0;
+            firstSeq = seq + 1;
+        } else {
+            changes[numChanges++] = tile;
+        }
+    }
+
+    // the color of the tile computed from the map
+    public int colorAt(int x, int y) {
+        if (map.checkCharacter(x, y) != null) {
+            return CHARACTER_COLOR;
+        }
+        for (Event event = map.checkEvent(x, y); event != null; event = event.nextInTile) {
+            // invisible event
+            if (event.id < 0) continue;
+            return chipColors[event.id];
+        }
+        return chipColors[map.getTileAt(x, y)];
+    }
+
+    public int getColor(int x, int y) {
+        return colors[y * col + x];
+    }
+
+    // copy what the renderer has not drawn yet into the snapshot (game loop)
+    public void capture(RenderSnapshot s) {
+        if (!active) {
+            active = true;
+            rebuild();
+        }
+        long drawn = drawnSeq.get();
+        // forget the changes the renderer has drawn
+        int done = (int)Math.max(0, Math.min(drawn - firstSeq + 1, numChanges));
+        if (done > 0) {
+            System.arraycopy(changes, done, changes, 0, numChanges - done);
+            numChanges -= done;
+            firstSeq += done;
+        }
+
+        s.minimap = this;
+        s.minimapCols = col;
+        s.minimapRows = row;
+        s.minimapSeq = seq;
+        s.minimapFull = drawn < resetSeq;
+        if (s.minimapFull) {
+            s.setMinimapColors(colors, col * row);
+        } else {
+            s.numMinimapChanges = 0;
+            for (int i = 0; i < numChanges; i++) {
+                s.addMinimapChange(changes[i], colors[changes[i]]);
+            }
+        }
+    }
+
+    // the renderer has drawn the snapshot with seq (renderer)
+    public void acknowledge(long seq) {
+        drawnSeq.set(seq);
+    }
+
+    // the renderer needs all the colors again
+    public void requestFull() {
+        drawnSeq.set(-1);
+    }
+
+    // the average color of the opaque pixels of each chip
+    private static int[] averageColors(BufferedImage atlas) {
+        int[] avg = new int[SpriteFrames.NUM_CHIPS];
+        for (int i = 0; i < avg.length; i++) {
+            int cx = SpriteFrames.getCellX(SpriteFrames.getChipFrame(i));
+            int cy = SpriteFrames.getCellY(SpriteFrames.getChipFrame(i));
+            long r = 0, g = 0, b = 0, n = 0;
+            for (int y = cy; y < cy + CS; y++) {
+                for (int x = cx; x < cx + CS; x++) {
+                    int argb = atlas.getRGB(x, y);
+                    if ((argb >>> 24) == 0) continue;
+                    r += (argb >> 16) & 0xff;
+                    g += (argb >> 8) & 0xff;
+                    b += argb & 0xff;
+                    n++;
+                }
+            }
+            if (n > 0) {
+                avg[i] = (int)(r / n) << 16 | (int)(g / n) << 8 | (int)(b / n);
+            }
+        }
+        return avg;
+    }
+}
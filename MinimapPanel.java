@@ -0,0 +1,103 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+// the whole map at 1 pixel per tile, scaled to fit (bottom right of the
+// screen, toggled by M). the renderer keeps its own copy of the colors
+// and writes only the pixels that the snapshots say have changed
+public class MinimapPanel extends HudPanel {
+    // the largest side of the panel (unit: pixel)
+    private static final int SIZE = 128;
+    private static final int MARGIN = 4;
+
+    // the minimap drawn into image (null: none)
+    private Minimap minimap;
+    // all the colors have been received
+    private boolean ready = false;
+    private BufferedImage image;
+    private int[] pixel = new int[1];
+    private int cols, rows;
+    private int heroX, heroY;
+
+    public MinimapPanel() {
+        super(MainPanel.WIDTH - SIZE - MARGIN, MainPanel.HEIGHT - SIZE - MARGIN);
+    }
+
+    protected boolean update(RenderSnapshot s) {
+        if (s.minimap != minimap) {
+            // hidden, or another map: wait for all its colors
+            if (s.minimap != null) {
+                s.minimap.requestFull();
+            }
+            minimap = s.minimap;
+            boolean wasShown = ready;
+            ready = false;
+            if (minimap == null || !s.minimapFull) {
+                return wasShown;
+            }
+        }
+        if (minimap == null) {
+            return false;
+        }
+
+        boolean changed = false;
+        if (s.minimapFull) {
+            cols = s.minimapCols;
+            rows = s.minimapRows;
+            if (image == null || image.getWidth() != cols || image.getHeight() != rows) {
+                image = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+            }
+            image.getRaster().setDataElements(0, 0, cols, rows, s.minimapColors);
+            ready = true;
+            changed = true;
+        } else if (ready && s.numMinimapChanges > 0) {
+            WritableRaster raster = image.getRaster();
+            for (int i = 0; i < s.numMinimapChanges; i++) {
+                int tile = s.minimapChangeTiles[i];
+                pixel[0] = s.minimapChangeColors[i];
+                raster.setDataElements(tile % cols, tile / cols, pixel);
+            }
+            changed = true;
+        }
+        if (!ready) {
+            return false;
+        }
+        minimap.acknowledge(s.minimapSeq);
+
+        if (s.heroX != heroX || s.heroY != heroY) {
+            heroX = s.heroX;
+            heroY = s.heroY;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // the color drawn for the tile (-1: no minimap yet)
+    public int getColor(int x, int y) {
+        return ready ? image.getRGB(x, y) & 0xffffff : -1;
+    }
+
+    // pixels per tile
+    private double getScale() {
+        return (double)SIZE / Math.max(cols, rows);
+    }
+
+    protected int getPanelWidth() {
+        return ready ? (int)(cols * getScale()) : 0;
+    }
+
+    protected int getPanelHeight() {
+        return ready ? (int)(rows * getScale()) : 0;
+    }
+
+    // the map and the hero (at least 2x2 pixels)
+    protected void render(Graphics2D g) {
+        int w = getPanelWidth();
+        int h = getPanelHeight();
+        g.drawImage(image, 0, 0, w, h, 0, 0, cols, rows, null);
+        double scale = getScale();
+        int size = Math.max(2, (int)scale);
+        g.setColor(Color.RED);
+        g.fillRect((int)(heroX * scale), (int)(heroY * scale), size, size);
+    }
+}
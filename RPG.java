@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
 
 public class RPG extends JFrame {
@@ -6,9 +7,13 @@ public class RPG extends JFrame {
     private MainPanel panel;
     
     public RPG() {
+        this(new GameConfig());
+    }
+
+    public RPG(GameConfig config) {
         setTitle("RPG");
 
-        panel = new MainPanel();
+        panel = new MainPanel(config);
         Container contentPane = getContentPane();
         contentPane.add(panel);
 
@@ -16,8 +21,66 @@ public class RPG extends JFrame {
     }
 
     public static void main(String[] args) {
-        RPG frame = new RPG();
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setVisible(true);
+        GameConfig config = null;
+        try {
+            config = GameConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            exitWithError(e);
+        }
+        if (config.headless) {
+            replayHeadless(config);
+            return;
+        }
+
+        RPG frame = null;
+        try {
+            frame = new RPG(config);
+        } catch (IllegalArgumentException e) {
+            exitWithError(e);
+        }
+        RPG window = frame;
+        // the game loop saves the game before exit
+        window.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        window.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                window.panel.requestQuit();
+            }
+        });
+        window.setVisible(true);
+    }
+
+    // bad options or a session file that cannot be opened
+    private static void exitWithError(IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.exit(1);
+    }
+
+    // replay a recorded session without a window and print the result
+    private static void replayHeadless(GameConfig config) {
+        MainPanel panel = null;
+        try {
+            panel = new MainPanel(config);
+        } catch (IllegalArgumentException e) {
+            exitWithError(e);
+        }
+        long start = System.nanoTime();
+        long frames = 0;
+        // render offscreen on another thread (the checksum is the same)
+        if (config.renderThread) {
+            panel.startRenderThread();
+        }
+        while (panel.isRunning()) {
+            panel.tick();
+            if (config.renderThread) {
+                panel.publishFrame();
+            }
+            frames++;
+        }
+        panel.stopRenderThread();
+        long time = System.nanoTime() - start;
+        System.out.println("frames: " + frames);
+        System.out.println("time: " + (time / 1000000) + "ms");
+        System.out.println("checksum: " + Long.toHexString(panel.getStateChecksum()));
+        System.exit(0);
     }
 }
@@ -0,0 +1,47 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// triple buffer of render snapshots between the game loop (writer) and
+// the renderer (reader), without locks. the writer fills the back
+// snapshot and swaps it with the middle one; the reader swaps its front
+// snapshot with the middle one when a newer one is there. neither waits
+// for the other, and the reader always gets the latest whole snapshot.
+public class RenderBuffer {
+    private static final int INDEX_MASK = 3;
+    // set in middle when it holds a snapshot the reader has not taken
+    private static final int FRESH = 4;
+
+    private RenderSnapshot[] snapshots = {
+        new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot()
+    };
+
+    // the snapshot the writer fills (writer only)
+    private int back = 0;
+    // the snapshot the reader draws (reader only)
+    private int front = 1;
+    // the index of the latest published snapshot, plus FRESH
+    private AtomicInteger middle = new AtomicInteger(2);
+
+    // the snapshot to fill (writer)
+    public RenderSnapshot getBack() {
+        return snapshots[back];
+    }
+
+    // make the back snapshot the latest one (writer)
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    // is there a snapshot newer than the front one? (reader)
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+
+    // take the latest snapshot, or return the front one again if no
+    // newer one has been published (reader)
+    public RenderSnapshot take() {
+        if (hasFresh()) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return snapshots[front];
+    }
+}
@@ -0,0 +1,260 @@
+import java.awt.*;
+import java.util.*;
+
+// what the renderer needs to draw one frame, copied from the world by the
+// game loop at the end of a tick. the renderer reads only this, so that
+// it can run on another thread while the game loop changes the world.
+// the arrays are reused and only grow, so capturing does not allocate.
+public class RenderSnapshot implements Common {
+    // the tick this snapshot was taken at
+    public long tick;
+    // System.nanoTime() of the earliest key press that this snapshot
+    // shows and no presented frame has shown yet (0: none)
+    public long inputTime;
+
+    // camera offset (unit: pixel)
+    public int offsetX, offsetY;
+
+    // visible tiles (unit: tile), row by row: the chips of the static
+    // layers (see tileKey()) and the chip of the overlay (-1: none)
+    public int firstTileX, firstTileY;
+    public int tileCols, tileRows;
+    public int[] tiles = new int[32 * 32];
+    public int[] overlays = new int[32 * 32];
+
+    // events and characters in drawing order: screen position (unit: pixel)
+    // and frame (see SpriteFrames)
+    public int numSprites;
+    public int[] spriteX = new int[256];
+    public int[] spriteY = new int[256];
+    public int[] spriteFrame = new int[256];
+
+    // message window: the shown part of the current page
+    public boolean messageVisible;
+    public char[] messageText = new char[64];
+    public int messageLength;
+    public boolean messageCursor;
+
+    // HUD
+    public int mapNo;
+    public int heroX, heroY;
+    public int heroPX, heroPY;
+    public String[] inventory = new String[16];
+    public int inventorySize;
+    public int inventoryVersion;
+    public int rewindIndex;
+    public int rewindSize;
+    // see GameEventBus.getDropped()
+    public int droppedEvents;
+    public boolean showFrameGraph;
+
+    // minimap (null: hidden): all the colors (minimapFull) or the tiles
+    // changed since the renderer's last acknowledgment, up to minimapSeq.
+    // the renderer consumes these, copyFrom() does not copy them
+    public Minimap minimap;
+    public int minimapCols, minimapRows;
+    public long minimapSeq;
+    public boolean minimapFull;
+    public int[] minimapColors = new int[0];
+    public int numMinimapChanges;
+    public int[] minimapChangeTiles = new int[64];
+    public int[] minimapChangeColors = new int[64];
+
+    public void setTileArea(int firstTileX, int firstTileY, int tileCols, int tileRows) {
+        this.firstTileX = firstTileX;
+        this.firstTileY = firstTileY;
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        if (tiles.length < tileCols * tileRows) {
+            tiles = new int[tileCols * tileRows];
+            overlays = new int[tileCols * tileRows];
+        }
+        numSprites = 0;
+    }
+
+    // the static layers of a tile in one int: the chip of the map and
+    // the chip of the decoration (-1: none)
+    public static int tileKey(int chip, int decoration) {
+        return chip | (decoration + 1) << 8;
+    }
+
+    public static int getChip(int key) {
+        return key & 0xff;
+    }
+
+    public static int getDecoration(int key) {
+        return (key >> 8) - 1;
+    }
+
+    public void addSprite(int x, int y, int frame) {
+        if (numSprites == spriteX.length) {
+            int n = numSprites * 2;
+            spriteX = Arrays.copyOf(spriteX, n);
+            spriteY = Arrays.copyOf(spriteY, n);
+            spriteFrame = Arrays.copyOf(spriteFrame, n);
+        }
+        spriteX[numSprites] = x;
+        spriteY[numSprites] = y;
+        spriteFrame[numSprites] = frame;
+        numSprites++;
+    }
+
+    // copy the items unless this snapshot already has the same version
+    public void setInventory(ArrayList<String> items, int version) {
+        if (version == inventoryVersion) {
+            return;
+        }
+        inventoryVersion = version;
+        inventorySize = items.size();
+        if (inventory.length < inventorySize) {
+            inventory = new String[inventorySize * 2];
+        }
+        for (int i = 0; i < inventorySize; i++) {
+            inventory[i] = items.get(i);
+        }
+    }
+
+    public void setMinimapColors(int[] colors, int n) {
+        if (minimapColors.length < n) {
+            minimapColors = new int[n];
+        }
+        System.arraycopy(colors, 0, minimapColors, 0, n);
+    }
+
+    public void addMinimapChange(int tile, int color) {
+        if (numMinimapChanges == minimapChangeTiles.length) {
+            int n = numMinimapChanges * 2;
+            minimapChangeTiles = Arrays.copyOf(minimapChangeTiles, n);
+            minimapChangeColors = Arrays.copyOf(minimapChangeColors, n);
+        }
+        minimapChangeTiles[numMinimapChanges] = tile;
+        minimapChangeColors[numMinimapChanges] = color;
+        numMinimapChanges++;
+    }
+
+    // does this snapshot show the same tiles at the same place as s?
+    public boolean isSameView(RenderSnapshot s) {
+        return mapNo == s.mapNo && offsetX == s.offsetX && offsetY == s.offsetY
+            && firstTileX == s.firstTileX && firstTileY == s.firstTileY
+            && tileCols == s.tileCols && tileRows == s.tileRows;
+    }
+
+    // mark the tiles and sprites that differ from the previous snapshot
+    // of the same view
+    public void markChanges(RenderSnapshot previous, DirtyRegion dirty) {
+        for (int i = 0; i < tileRows; i++) {
+            for (int j = 0; j < tileCols; j++) {
+                int k = i * tileCols + j;
+                if (tiles[k] != previous.tiles[k] || overlays[k] != previous.overlays[k]) {
+                    dirty.markCell(j, i);
+                }
+            }
+        }
+        // the sprites keep their order, so compare them one by one
+        int n = Math.max(numSprites, previous.numSprites);
+        for (int i = 0; i < n; i++) {
+            boolean same = i < numSprites && i < previous.numSprites
+                && spriteX[i] == previous.spriteX[i] && spriteY[i] == previous.spriteY[i]
+                && spriteFrame[i] == previous.spriteFrame[i];
+            if (same) {
+                continue;
+            }
+            if (i < numSprites) {
+                dirty.mark(spriteX[i], spriteY[i], CS, CS);
+            }
+            if (i < previous.numSprites) {
+                dirty.mark(previous.spriteX[i], previous.spriteY[i], CS, CS);
+            }
+        }
+    }
+
+    // grow the dirty region until every sprite is either all dirty or all
+    // clean, so that redrawing the dirty sprites keeps the drawing order
+    public void markOverlappingSprites(DirtyRegion dirty) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < numSprites; i++) {
+                if (dirty.intersects(spriteX[i], spriteY[i], CS, CS)
+                        && !dirty.covers(spriteX[i], spriteY[i], CS, CS)) {
+                    dirty.mark(spriteX[i], spriteY[i], CS, CS);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // copy s into this snapshot (reusing the arrays)
+    public void copyFrom(RenderSnapshot s) {
+        tick = s.tick;
+        inputTime = s.inputTime;
+        offsetX = s.offsetX;
+        offsetY = s.offsetY;
+        setTileArea(s.firstTileX, s.firstTileY, s.tileCols, s.tileRows);
+        System.arraycopy(s.tiles, 0, tiles, 0, tileCols * tileRows);
+        System.arraycopy(s.overlays, 0, overlays, 0, tileCols * tileRows);
+        for (int i = 0; i < s.numSprites; i++) {
+            addSprite(s.spriteX[i], s.spriteY[i], s.spriteFrame[i]);
+        }
+        messageVisible = s.messageVisible;
+        System.arraycopy(s.messageText, 0, messageText, 0, s.messageLength);
+        messageLength = s.messageLength;
+        messageCursor = s.messageCursor;
+        mapNo = s.mapNo;
+        heroX = s.heroX;
+        heroY = s.heroY;
+        heroPX = s.heroPX;
+        heroPY = s.heroPY;
+        inventorySize = s.inventorySize;
+        inventoryVersion = s.inventoryVersion;
+        if (inventory.length < inventorySize) {
+            inventory = new String[s.inventory.length];
+        }
+        System.arraycopy(s.inventory, 0, inventory, 0, inventorySize);
+        rewindIndex = s.rewindIndex;
+        rewindSize = s.rewindSize;
+        droppedEvents = s.droppedEvents;
+        showFrameGraph = s.showFrameGraph;
+    }
+
+    // draw the dirty tiles, the sprites on them and the overlay above
+    // them (all if dirty is null). the static layers come from the chunk
+    // images, so a tile is one blit however many layers it has
+    public void drawWorld(Graphics g, DirtyRegion dirty, ChunkCache chunks) {
+        chunks.beginFrame(mapNo, tick);
+        for (int i = 0; i < tileRows; i++) {
+            for (int j = 0; j < tileCols; j++) {
+                if (dirty != null && !dirty.isCellDirty(j, i)) {
+                    continue;
+                }
+                chunks.prepare(firstTileX + j, firstTileY + i, tiles[i * tileCols + j]);
+                if (dirty != null) {
+                    chunks.drawTile(g, firstTileX + j, firstTileY + i, offsetX, offsetY);
+                }
+            }
+        }
+        if (dirty == null) {
+            // a blit per chunk
+            chunks.drawArea(g, firstTileX, firstTileY, tileCols, tileRows, offsetX, offsetY);
+        }
+
+        // the sprites and the overlay come from the atlas
+        for (int i = 0; i < numSprites; i++) {
+            if (dirty != null && !dirty.intersects(spriteX[i], spriteY[i], CS, CS)) {
+                continue;
+            }
+            SpriteFrames.draw(g, spriteFrame[i], spriteX[i], spriteY[i]);
+        }
+
+        for (int i = 0; i < tileRows; i++) {
+            for (int j = 0; j < tileCols; j++) {
+                int chip = overlays[i * tileCols + j];
+                if (chip < 0 || (dirty != null && !dirty.isCellDirty(j, i))) {
+                    continue;
+                }
+                SpriteFrames.draw(g, SpriteFrames.getChipFrame(chip),
+                                  (firstTileX + j) * CS - offsetX, (firstTileY + i) * CS - offsetY);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// keeps recent world snapshots in memory for debugging.
+// snapshots are taken on the game loop (cheap, see WorldSnapshot) and
+// encoded on a background thread: each one is XORed with the previous
+// one and run-length encoded, with a key frame every KEY_INTERVAL
+// snapshots. the oldest snapshots are dropped to stay within the budget.
+public class RewindBuffer implements Runnable {
+    private static final int KEY_INTERVAL = 32;
+
+    // encoded snapshot
+    private static class Frame {
+        long tick;
+        boolean isKey;
+        // the length of the decoded snapshot
+        int length;
+        byte[] data;
+    }
+
+    // snapshot waiting to be encoded
+    private static class Entry {
+        WorldSnapshot snapshot;
+        long tick;
+        // the generation it was taken in (see hold() and truncate())
+        int generation;
+    }
+
+    private ArrayList<Frame> frames = new ArrayList<Frame>();
+    private long memory;
+    private long maxMemory;
+    // the maps the snapshots are taken from
+    private long fingerprint;
+
+    // snapshots waiting to be encoded
+    private BlockingQueue<Entry> pending = new ArrayBlockingQueue<Entry>(16);
+    // bumped by hold() and truncate(): entries of an older generation are dropped
+    private int generation;
+    // the last snapshot taken, whose unchanged parts the next one reuses
+    private WorldSnapshot last;
+
+    // the last encoded snapshot, the base of the next delta (encoder thread only)
+    private byte[] previous;
+    private int sinceKey;
+
+    private Thread thread;
+
+    public RewindBuffer(long maxMemory) {
+        this.maxMemory = maxMemory;
+        thread = new Thread(this, "RewindBuffer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // called from the game loop at a tick boundary
+    public void capture(MainPanel panel, long tick) {
+        last = panel.takeSnapshot(last);
+        Entry e = new Entry();
+        e.snapshot = last;
+        e.tick = tick;
+        synchronized (this) {
+            e.generation = generation;
+            // if the encoder is behind, this one is skipped
+            pending.offer(e);
+        }
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Entry e = pending.take();
+                // encode without the lock, so that capture() does not wait
+                ByteBuffer buf;
+                try {
+                    buf = SaveGame.encode(e.snapshot);
+                } catch (IllegalArgumentException ex) {
+                    // an event the format does not support: skip this one
+                    ex.printStackTrace();
+                    continue;
+                }
+                synchronized (this) {
+                    // discarded by truncate() while it was encoded
+                    if (e.generation != generation) {
+                        continue;
+                    }
+                    fingerprint = e.snapshot.fingerprint;
+                    add(buf, e.tick);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    public synchronized long getTick(int index) {
+        return frames.get(index).tick;
+    }
+
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    // decode the index-th snapshot (0 is the oldest)
+    public synchronized WorldSnapshot get(int index) throws IOException {
+        int key = index;
+        while (!frames.get(key).isKey) {
+            key--;
+        }
+        byte[] bytes = null;
+        for (int i = key; i <= index; i++) {
+            bytes = decode(frames.get(i), bytes);
+        }
+        return SaveGame.decode(ByteBuffer.wrap(bytes), fingerprint);
+    }
+
+    // drop the pending snapshots, so that adding one (and dropping the
+    // oldest) does not shift the indices while they are scrubbed through.
+    // the game loop takes no snapshots until truncate() resumes it
+    public synchronized void hold() {
+        pending.clear();
+        generation++;
+    }
+
+    // drop the snapshots newer than the index-th and pending ones,
+    // so that the history continues from there
+    public synchronized void truncate(int index) {
+        pending.clear();
+        generation++;
+        while (frames.size() > index + 1) {
+            Frame f = frames.remove(frames.size() - 1);
+            memory -= f.data.length;
+        }
+        // the next snapshot is a key frame
+        previous = null;
+        sinceKey = 0;
+        last = null;
+    }
+
+    private void add(ByteBuffer buf, long tick) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+
+        Frame f = new Frame();
+        f.tick = tick;
+        f.length = bytes.length;
+        f.isKey = (previous == null || sinceKey >= KEY_INTERVAL);
+        f.data = encode(bytes, f.isKey ? null : previous);
+        sinceKey = f.isKey ? 1 : sinceKey + 1;
+        previous = bytes;
+
+        frames.add(f);
+        memory += f.data.length;
+
+        // drop the oldest key frame and its deltas
+        while (memory > maxMemory && frames.size() > 1) {
+            int next = 1;
+            while (next < frames.size() && !frames.get(next).isKey) {
+                next++;
+            }
+            if (next == frames.size()) {
+                break;
+            }
+            for (int i = 0; i < next; i++) {
+                memory -= frames.get(i).data.length;
+            }
+            frames.subList(0, next).clear();
+        }
+    }
+
+    // XOR with base (missing bytes are 0) and encode runs as
+    // (varint zeros, varint literal length, literal bytes)
+    private static byte[] encode(byte[] bytes, byte[] base) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+        int i = 0;
+        while (i < bytes.length) {
+            int zeros = 0;
+            while (i < bytes.length && xor(bytes, base, i) == 0) {
+                zeros++;
+                i++;
+            }
+            int start = i;
+            // a literal ends at 4 zeros in a row
+            int zerosInRow = 0;
+            while (i < bytes.length && zerosInRow < 4) {
+                zerosInRow = (xor(bytes, base, i) == 0) ? zerosInRow + 1 : 0;
+                i++;
+            }
+            if (zerosInRow > 0) {
+                i -= zerosInRow;
+            }
+            writeVarint(out, zeros);
+            writeVarint(out, i - start);
+            for (int j = start; j < i; j++) {
+                out.write(xor(bytes, base, j));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(Frame f, byte[] base) {
+        byte[] bytes = new byte[f.length];
+        ByteArrayInputStream in = new ByteArrayInputStream(f.data);
+        int i = 0;
+        while (i < bytes.length) {
+            int zeros = readVarint(in);
+            for (int j = 0; j < zeros; j++, i++) {
+                bytes[i] = (base != null && i < base.length) ? base[i] : 0;
+            }
+            int literals = readVarint(in);
+            for (int j = 0; j < literals; j++, i++) {
+                int b = in.read();
+                bytes[i] = (byte)((base != null && i < base.length) ? base[i] ^ b : b);
+            }
+        }
+        return bytes;
+    }
+
+    private static int xor(byte[] bytes, byte[] base, int i) {
+        int b = bytes[i] & 0xff;
+        if (base != null && i < base.length) {
+            b ^= base[i] & 0xff;
+        }
+        return b;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    private static int readVarint(ByteArrayInputStream in) {
+        int n = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            n |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return n;
+    }
+}
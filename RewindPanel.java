@@ -0,0 +1,47 @@
+import java.awt.*;
+
+// the rewind position while the game is rewound (below the debug panel)
+public class RewindPanel extends HudPanel {
+    private static final Font FONT = new Font("Monospaced", Font.BOLD, 16);
+
+    private int index = -1;
+    private int size;
+    private long tick;
+
+    public RewindPanel() {
+        super(0, 80);
+    }
+
+    protected boolean update(RenderSnapshot s) {
+        if (s.rewindIndex == index && s.rewindSize == size
+                && (index == -1 || s.tick == tick)) {
+            return false;
+        }
+        index = s.rewindIndex;
+        size = s.rewindSize;
+        tick = s.tick;
+        return true;
+    }
+
+    protected int getPanelWidth() {
+        return index == -1 ? 0 : 400;
+    }
+
+    protected int getPanelHeight() {
+        return index == -1 ? 0 : 22;
+    }
+
+    // "REWIND index/size (tick n)"
+    protected void render(Graphics2D g) {
+        int len = formatString("REWIND ", text, 0);
+        len = formatInt(index + 1, text, len);
+        text[len++] = '/';
+        len = formatInt(size, text, len);
+        len = formatString(" (tick ", text, len);
+        len = formatInt(tick, text, len);
+        text[len++] = ')';
+        g.setFont(FONT);
+        g.setColor(Color.YELLOW);
+        g.drawChars(text, 0, len, 4, 16);
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// reads and writes WorldSnapshot in a compact binary format
+//
+// int magic, short version, long fingerprint of the maps,
+// int mapNo, long random state, flags (bitset),
+// hero (x, y, direction, inventory),
+// maps (tiles, removed event indices, added events, NPC positions)
+//
+// a saved game is only read into the maps it was saved from (the same
+// fingerprint, see WorldSnapshot.fingerprint()), since the events and
+// NPCs are restored by their index
+public class SaveGame {
+    private static final int MAGIC = 0x52504753;  // "RPGS"
+    private static final short VERSION = 3;
+
+    // event types
+    private static final byte TREASURE = 0;
+    private static final byte DOOR = 1;
+    private static final byte MOVE = 2;
+
+    // write to a temporary file, flush it to the disk and rename it,
+    // so that a crash never leaves a broken saved game
+    public static void write(WorldSnapshot s, Path path) throws IOException {
+        ByteBuffer buf = encode(s);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // read a game saved from the maps with the fingerprint
+    public static WorldSnapshot read(Path path, long fingerprint) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int)ch.size());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) {
+                    throw new EOFException(path.toString());
+                }
+            }
+            buf.flip();
+            return decode(buf, fingerprint);
+        }
+    }
+
+    public static ByteBuffer encode(WorldSnapshot s) {
+        Output out = new Output();
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putLong(s.fingerprint);
+        out.putInt(s.mapNo);
+        out.putLong(s.randomState);
+        out.putShort(s.flags.length);
+        for (int i = 0; i < s.flags.length; i += 8) {
+            int bits = 0;
+            for (int j = 0; j < 8 && i + j < s.flags.length; j++) {
+                if (s.flags[i + j]) bits |= 1 << j;
+            }
+            out.putByte(bits);
+        }
+
+        out.putInt(s.heroX);
+        out.putInt(s.heroY);
+        out.putByte(s.heroDirection);
+        out.putShort(s.inventory.length);
+        for (int i = 0; i < s.inventory.length; i++) {
+            out.putString(s.inventory[i]);
+        }
+
+        out.putShort(s.maps.length);
+        for (int i = 0; i < s.maps.length; i++) {
+            WorldSnapshot.MapState m = s.maps[i];
+            out.putInt(m.tiles.length);
+            out.putInt(m.tiles[0].length);
+            for (int y = 0; y < m.tiles.length; y++) {
+                out.putTiles(m.tiles[y]);
+            }
+            out.putInt(m.removedEvents.length);
+            for (int j = 0; j < m.removedEvents.length; j++) {
+                out.putInt(m.removedEvents[j]);
+            }
+            out.putInt(m.addedEvents.length);
+            for (int j = 0; j < m.addedEvents.length; j++) {
+                putEvent(out, m.addedEvents[j]);
+            }
+            out.putInt(m.npcX.length);
+            for (int j = 0; j < m.npcX.length; j++) {
+                out.putInt(m.npcX[j]);
+                out.putInt(m.npcY[j]);
+                out.putByte(m.npcDirection[j]);
+            }
+        }
+
+        out.buf.flip();
+        return out.buf;
+    }
+
+    public static WorldSnapshot decode(ByteBuffer in, long fingerprint) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("not a saved game");
+            }
+            short version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException("unsupported version: " + version);
+            }
+            WorldSnapshot s = new WorldSnapshot();
+            s.fingerprint = in.getLong();
+            if (s.fingerprint != fingerprint) {
+                throw new IOException("saved from other maps");
+            }
+            s.mapNo = in.getInt();
+            s.randomState = in.getLong();
+            s.flags = new boolean[in.getShort()];
+            for (int i = 0; i < s.flags.length; i += 8) {
+                int bits = in.get();
+                for (int j = 0; j < 8 && i + j < s.flags.length; j++) {
+                    s.flags[i + j] = (bits & (1 << j)) != 0;
+                }
+            }
+
+            s.heroX = in.getInt();
+            s.heroY = in.getInt();
+            s.heroDirection = in.get();
+            s.inventory = new String[in.getShort()];
+            for (int i = 0; i < s.inventory.length; i++) {
+                s.inventory[i] = getString(in);
+            }
+
+            s.maps = new WorldSnapshot.MapState[in.getShort()];
+            for (int i = 0; i < s.maps.length; i++) {
+                WorldSnapshot.MapState m = new WorldSnapshot.MapState();
+                m.tiles = new int[in.getInt()][in.getInt()];
+                for (int y = 0; y < m.tiles.length; y++) {
+                    for (int x = 0; x < m.tiles[y].length; x++) {
+                        m.tiles[y][x] = in.get() & 0xff;
+                    }
+                }
+                m.removedEvents = new int[in.getInt()];
+                for (int j = 0; j < m.removedEvents.length; j++) {
+                    m.removedEvents[j] = in.getInt();
+                }
+                m.addedEvents = new Event[in.getInt()];
+                for (int j = 0; j < m.addedEvents.length; j++) {
+                    m.addedEvents[j] = getEvent(in);
+                }
+                int numNpcs = in.getInt();
+                m.npcX = new int[numNpcs];
+                m.npcY = new int[numNpcs];
+                m.npcDirection = new int[numNpcs];
+                for (int j = 0; j < numNpcs; j++) {
+                    m.npcX[j] = in.getInt();
+                    m.npcY[j] = in.getInt();
+                    m.npcDirection[j] = in.get();
+                }
+                s.maps[i] = m;
+            }
+            return s;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("broken saved game", e);
+        }
+    }
+
+    private static void putEvent(Output out, Event event) {
+        if (event instanceof TreasureEvent) {
+            out.putByte(TREASURE);
+            out.putInt(event.x);
+            out.putInt(event.y);
+            out.putString(((TreasureEvent)event).getItemName());
+        } else if (event instanceof DoorEvent) {
+            out.putByte(DOOR);
+            out.putInt(event.x);
+            out.putInt(event.y);
+            out.putString(((DoorEvent)event).getRequiredKey());
+        } else if (event instanceof MoveEvent) {
+            MoveEvent m = (MoveEvent)event;
+            out.putByte(MOVE);
+            out.putInt(m.x);
+            out.putInt(m.y);
+            out.putInt(m.id);
+            out.putInt(m.destMapNo);
+            out.putInt(m.destX);
+            out.putInt(m.destY);
+        } else {
+            throw new IllegalArgumentException("cannot save " + event);
+        }
+    }
+
+    private static Event getEvent(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        int x = in.getInt();
+        int y = in.getInt();
+        switch (type) {
+        case TREASURE:
+            return new TreasureEvent(x, y, getString(in));
+        case DOOR:
+            return new DoorEvent(x, y, getString(in));
+        case MOVE:
+            int chipNo = in.getInt();
+            int destMapNo = in.getInt();
+            int destX = in.getInt();
+            int destY = in.getInt();
+            return new MoveEvent(x, y, chipNo, destMapNo, destX, destY);
+        default:
+            throw new IOException("unknown event type: " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // growable ByteBuffer
+    private static class Output {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+
+        void ensure(int n) {
+            if (buf.remaining() < n) {
+                ByteBuffer newBuf = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+                buf.flip();
+                newBuf.put(buf);
+                buf = newBuf;
+            }
+        }
+
+        void putByte(int b) {
+            ensure(1);
+            buf.put((byte)b);
+        }
+
+        void putShort(int s) {
+            ensure(2);
+            buf.putShort((short)s);
+        }
+
+        void putInt(int i) {
+            ensure(4);
+            buf.putInt(i);
+        }
+
+        void putLong(long l) {
+            ensure(8);
+            buf.putLong(l);
+        }
+
+        // a tile is a byte
+        void putTiles(int[] tiles) {
+            ensure(tiles.length);
+            for (int i = 0; i < tiles.length; i++) {
+                buf.put((byte)tiles[i]);
+            }
+        }
+
+        void putString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putShort(bytes.length);
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// compiled event script (see ScriptCompiler and ScriptEngine)
+public class Script {
+    // opcodes and their operands
+    public static final int OP_END = 0;         //
+    public static final int OP_MSG = 1;         // string
+    public static final int OP_SOUND = 2;       // string
+    public static final int OP_GIVE = 3;        // string
+    public static final int OP_TAKE = 4;        // string
+    public static final int OP_SET = 5;         // flag
+    public static final int OP_CLEAR = 6;       // flag
+    public static final int OP_GOTO = 7;        // address
+    public static final int OP_IF_FLAG = 8;     // flag, address
+    public static final int OP_IF_NOFLAG = 9;   // flag, address
+    public static final int OP_IF_ITEM = 10;    // string, address
+    public static final int OP_IF_NOITEM = 11;  // string, address
+    public static final int OP_WARP = 12;       // map no, x, y
+    public static final int OP_REMOVE = 13;     //
+    public static final int OP_WIN = 14;        //
+
+    // bytecode
+    private int[] code;
+    // string constants
+    private String[] strings;
+    // addresses of the OP_WARP instructions
+    private int[] warps;
+
+    public Script(int[] code, String[] strings, int[] warps) {
+        this.code = code;
+        this.strings = strings;
+        this.warps = warps;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public String[] getStrings() {
+        return strings;
+    }
+
+    public int[] getWarps() {
+        return warps;
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.*;
+
+// compiles event scripts in .evt files to bytecode at load time
+//
+// SCRIPT,x,y,TALK|STEP
+// MSG,text                 show a message and wait until it is closed
+// SOUND,name               play a sound clip
+// GIVE,item / TAKE,item    add / remove an item to / from the inventory
+// SET,flag / CLEAR,flag    set / clear a global flag
+// IF,FLAG|NOFLAG,flag,label
+// IF,ITEM|NOITEM,item,label
+//                          go to label if the condition holds
+// GOTO,label
+// LABEL,label
+// WARP,mapNo,x,y           move the hero to another map (checked against
+//                          the map by Map.checkWarps())
+// REMOVE                   remove this event from the map
+// WIN                      the hero wins the game
+// END                      stop the script
+// ENDSCRIPT
+//
+// one compiler is used for all the maps of a world, which share its flags
+public class ScriptCompiler {
+    public static final int MAX_FLAGS = 256;
+
+    // flag name -> flag number (shared by all maps of the world)
+    private HashMap<String, Integer> flags = new HashMap<String, Integer>();
+
+    // the script being compiled
+    private int[] code;
+    private int size;
+    private ArrayList<String> strings = new ArrayList<String>();
+    // label -> address
+    private HashMap<String, Integer> labels = new HashMap<String, Integer>();
+    // address of an operand -> label which is not resolved yet
+    private HashMap<Integer, String> fixups = new HashMap<Integer, String>();
+    // addresses of the WARP instructions
+    private ArrayList<Integer> warps = new ArrayList<Integer>();
+    // the number of maps a WARP may go to
+    private int numMaps;
+
+    // compile lines between SCRIPT and ENDSCRIPT. firstLine is the line
+    // number of lines.get(0) in the file, for the error messages
+    public Script compile(List<String> lines, int firstLine, int numMaps) {
+        this.numMaps = numMaps;
+        code = new int[64];
+        size = 0;
+        strings.clear();
+        labels.clear();
+        fixups.clear();
+        warps.clear();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            // skip null lines and comment lines
+            if (line.equals("") || line.startsWith("#")) continue;
+            try {
+                compileLine(line);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(
+                        "line " + (firstLine + i) + ": " + line + ": " + e.getMessage(), e);
+            }
+        }
+        try {
+            return link();
+        } catch (IllegalArgumentException e) {
+            // the script as a whole, reported at its SCRIPT line
+            throw new IllegalArgumentException("line " + (firstLine - 1) + ": " + e.getMessage(), e);
+        }
+    }
+
+    public int getFlag(String name) {
+        Integer flag = flags.get(name);
+        if (flag == null) {
+            if (flags.size() == MAX_FLAGS) {
+                throw new IllegalArgumentException("too many flags");
+            }
+            flag = flags.size();
+            flags.put(name, flag);
+        }
+        return flag;
+    }
+
+    private void compileLine(String line) {
+        int comma = line.indexOf(',');
+        String op = (comma == -1) ? line : line.substring(0, comma);
+        String rest = (comma == -1) ? "" : line.substring(comma + 1);
+        String[] args = rest.split(",");
+
+        if (op.equals("MSG")) {
+            // messages may contain commas
+            emit(Script.OP_MSG, string(rest));
+        } else if (op.equals("SOUND")) {
+            emit(Script.OP_SOUND, string(args[0]));
+        } else if (op.equals("GIVE")) {
+            emit(Script.OP_GIVE, string(args[0]));
+        } else if (op.equals("TAKE")) {
+            emit(Script.OP_TAKE, string(args[0]));
+        } else if (op.equals("SET")) {
+            emit(Script.OP_SET, getFlag(args[0]));
+        } else if (op.equals("CLEAR")) {
+            emit(Script.OP_CLEAR, getFlag(args[0]));
+        } else if (op.equals("GOTO")) {
+            emit(Script.OP_GOTO);
+            emitLabel(args[0]);
+        } else if (op.equals("IF")) {
+            compileIf(args);
+        } else if (op.equals("LABEL")) {
+            if (labels.containsKey(args[0])) {
+                throw new IllegalArgumentException("duplicate label " + args[0]);
+            }
+            labels.put(args[0], size);
+        } else if (op.equals("WARP")) {
+            if (args.length != 3) {
+                throw new IllegalArgumentException("WARP needs a map number, x and y");
+            }
+            int mapNo = Integer.parseInt(args[0]);
+            if (mapNo < 0 || mapNo >= numMaps) {
+                throw new IllegalArgumentException("no map " + mapNo);
+            }
+            warps.add(size);
+            emit(Script.OP_WARP, mapNo);
+            emit(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        } else if (op.equals("REMOVE")) {
+            emit(Script.OP_REMOVE);
+        } else if (op.equals("WIN")) {
+            emit(Script.OP_WIN);
+        } else if (op.equals("END")) {
+            emit(Script.OP_END);
+        } else {
+            throw new IllegalArgumentException("unknown command " + op);
+        }
+    }
+
+    private void compileIf(String[] args) {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("IF needs a condition, a name and a label");
+        }
+        String cond = args[0];
+        if (cond.equals("FLAG")) {
+            emit(Script.OP_IF_FLAG, getFlag(args[1]));
+        } else if (cond.equals("NOFLAG")) {
+            emit(Script.OP_IF_NOFLAG, getFlag(args[1]));
+        } else if (cond.equals("ITEM")) {
+            emit(Script.OP_IF_ITEM, string(args[1]));
+        } else if (cond.equals("NOITEM")) {
+            emit(Script.OP_IF_NOITEM, string(args[1]));
+        } else {
+            throw new IllegalArgumentException("unknown condition " + cond);
+        }
+        emitLabel(args[2]);
+    }
+
+    private Script link() {
+        // the script always ends
+        emit(Script.OP_END);
+        for (java.util.Map.Entry<Integer, String> fixup : fixups.entrySet()) {
+            Integer address = labels.get(fixup.getValue());
+            if (address == null) {
+                throw new IllegalArgumentException("unknown label " + fixup.getValue());
+            }
+            code[fixup.getKey()] = address;
+        }
+        int[] warpAddresses = new int[warps.size()];
+        for (int i = 0; i < warpAddresses.length; i++) {
+            warpAddresses[i] = warps.get(i);
+        }
+        return new Script(Arrays.copyOf(code, size),
+                          strings.toArray(new String[strings.size()]), warpAddresses);
+    }
+
+    private int string(String s) {
+        int index = strings.indexOf(s);
+        if (index == -1) {
+            strings.add(s);
+            index = strings.size() - 1;
+        }
+        return index;
+    }
+
+    private void emitLabel(String label) {
+        fixups.put(size, label);
+        emit(-1);
+    }
+
+    private void emit(int... words) {
+        for (int word : words) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = word;
+        }
+    }
+}
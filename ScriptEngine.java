@@ -0,0 +1,135 @@
+// runs compiled event scripts.
+// runs at most a given number of instructions per frame and allocates
+// nothing, so that a script never stalls the game loop.
+public class ScriptEngine {
+    private ScriptHost host;
+
+    // global flags
+    private boolean[] flags = new boolean[ScriptCompiler.MAX_FLAGS];
+
+    // running script
+    private ScriptEvent event;
+    private Map map;
+    private int[] code;
+    private String[] strings;
+    // program counter
+    private int pc;
+    // waiting until the message window is closed ?
+    private boolean waiting;
+
+    public ScriptEngine(ScriptHost host) {
+        this.host = host;
+    }
+
+    // start the script of the event in the map.
+    // return false if another script is running.
+    public boolean start(ScriptEvent event, Map map) {
+        if (isRunning()) {
+            return false;
+        }
+        this.event = event;
+        this.map = map;
+        code = event.getScript().getCode();
+        strings = event.getScript().getStrings();
+        pc = 0;
+        waiting = false;
+        return true;
+    }
+
+    public boolean isRunning() {
+        return code != null;
+    }
+
+    // run the script until it waits, ends or uses up the budget
+    public void update(int budget) {
+        if (code == null) {
+            return;
+        }
+        if (waiting) {
+            if (host.isMessageVisible()) {
+                return;
+            }
+            waiting = false;
+        }
+
+        while (budget-- > 0) {
+            switch (code[pc]) {
+            case Script.OP_END:
+                stop();
+                return;
+            case Script.OP_MSG:
+                host.showMessage(strings[code[pc + 1]]);
+                pc += 2;
+                waiting = true;
+                return;
+            case Script.OP_SOUND:
+                host.playSound(strings[code[pc + 1]]);
+                pc += 2;
+                break;
+            case Script.OP_GIVE:
+                host.getHero().addToInventory(strings[code[pc + 1]]);
+                pc += 2;
+                break;
+            case Script.OP_TAKE:
+                host.getHero().removeFromInventory(strings[code[pc + 1]]);
+                pc += 2;
+                break;
+            case Script.OP_SET:
+                flags[code[pc + 1]] = true;
+                pc += 2;
+                break;
+            case Script.OP_CLEAR:
+                flags[code[pc + 1]] = false;
+                pc += 2;
+                break;
+            case Script.OP_GOTO:
+                pc = code[pc + 1];
+                break;
+            case Script.OP_IF_FLAG:
+                pc = flags[code[pc + 1]] ? code[pc + 2] : pc + 3;
+                break;
+            case Script.OP_IF_NOFLAG:
+                pc = !flags[code[pc + 1]] ? code[pc + 2] : pc + 3;
+                break;
+            case Script.OP_IF_ITEM:
+                pc = host.getHero().hasItem(strings[code[pc + 1]]) ? code[pc + 2] : pc + 3;
+                break;
+            case Script.OP_IF_NOITEM:
+                pc = !host.getHero().hasItem(strings[code[pc + 1]]) ? code[pc + 2] : pc + 3;
+                break;
+            case Script.OP_WARP:
+                host.warp(code[pc + 1], code[pc + 2], code[pc + 3]);
+                pc += 4;
+                break;
+            case Script.OP_REMOVE:
+                map.removeEvent(event);
+                pc += 1;
+                break;
+            case Script.OP_WIN:
+                host.win();
+                pc += 1;
+                break;
+            default:
+                // broken bytecode
+                stop();
+                return;
+            }
+        }
+    }
+
+    public void stop() {
+        event = null;
+        map = null;
+        code = null;
+        strings = null;
+        waiting = false;
+    }
+
+    public boolean getFlag(int flag) {
+        return flags[flag];
+    }
+
+    public void setFlag(int flag, boolean value) {
+        flags[flag] = value;
+    }
+}
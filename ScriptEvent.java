@@ -0,0 +1,29 @@
+public class ScriptEvent extends Event {
+    // triggers
+    // run when the hero presses SPACE on or in front of this event
+    public static final int TALK = 0;
+    // run when the hero steps on this event
+    public static final int STEP = 1;
+
+    private int trigger;
+    private Script script;
+
+    public ScriptEvent(int x, int y, int trigger, Script script) {
+        // script events are invisible
+        super(x, y, -1, false);
+        this.trigger = trigger;
+        this.script = script;
+    }
+
+    public int getTrigger() {
+        return trigger;
+    }
+
+    public Script getScript() {
+        return script;
+    }
+
+    public String toString() {
+        return "SCRIPT:" + super.toString() + ":" + (trigger == TALK ? "TALK" : "STEP");
+    }
+}
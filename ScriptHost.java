@@ -0,0 +1,9 @@
+// what event scripts can do to the game
+public interface ScriptHost {
+    public void showMessage(String message);
+    public boolean isMessageVisible();
+    public void playSound(String name);
+    public void warp(int mapNo, int x, int y);
+    public void win();
+    public Character getHero();
+}
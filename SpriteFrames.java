@@ -0,0 +1,158 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+// the images of the game (chip set, characters, font and cursor) packed
+// into one atlas when they are first used, and the frames of the sprites
+// drawn from it: the chips, then each character in each direction and
+// animation frame. only the part of a frame that is not transparent is
+// drawn, and its place in the atlas is computed once here
+public class SpriteFrames implements Common {
+    public static final int NUM_CHIPS = 64;
+    // character.gif: 8 characters a row, each 2 animation frames wide
+    // and 4 directions high
+    private static final int NUM_CHARACTERS = 32;
+    private static final int FIRST_CHARACTER_FRAME = NUM_CHIPS;
+    private static final int NUM_FRAMES = NUM_CHIPS + NUM_CHARACTERS * 4 * 2;
+
+    private static BufferedImage atlas;
+    // the upper left corner of the font and the cursor in the atlas
+    private static int fontX, fontY;
+    private static int cursorX, cursorY, cursorWidth, cursorHeight;
+
+    // the cell of each frame in the atlas (CS x CS)
+    private static int[] cellX = new int[NUM_FRAMES];
+    private static int[] cellY = new int[NUM_FRAMES];
+    // the part of the cell that is not transparent: its place in the cell
+    // and its size (0: nothing to draw)
+    private static int[] offsetX = new int[NUM_FRAMES];
+    private static int[] offsetY = new int[NUM_FRAMES];
+    private static int[] width = new int[NUM_FRAMES];
+    private static int[] height = new int[NUM_FRAMES];
+
+    static {
+        try {
+            load();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void load() throws IOException {
+        BufferedImage chips = read("image/mapchip.gif");
+        AnimatedChips.load(chips);
+        BufferedImage characters = read("image/character.gif");
+        BufferedImage cursor = read("image/cursor.gif");
+
+        TextureAtlas packer = new TextureAtlas();
+        int chipsImage = packer.add(chips);
+        int charactersImage = packer.add(characters);
+        int fontImage = packer.add(read("image/font.gif"));
+        int cursorImage = packer.add(cursor);
+        atlas = packer.pack();
+
+        fontX = packer.getX(fontImage);
+        fontY = packer.getY(fontImage);
+        cursorX = packer.getX(cursorImage);
+        cursorY = packer.getY(cursorImage);
+        cursorWidth = cursor.getWidth();
+        cursorHeight = cursor.getHeight();
+
+        for (int chip = 0; chip < NUM_CHIPS; chip++) {
+            setCell(chip, packer.getX(chipsImage) + (chip % 8) * CS,
+                    packer.getY(chipsImage) + (chip / 8) * CS);
+        }
+        for (int id = 0; id < NUM_CHARACTERS; id++) {
+            for (int direction = 0; direction < 4; direction++) {
+                for (int count = 0; count < 2; count++) {
+                    setCell(getCharacterFrame(id, direction, count),
+                            packer.getX(charactersImage) + (id % 8) * (CS * 2) + count * CS,
+                            packer.getY(charactersImage) + (id / 8) * (CS * 4) + direction * CS);
+                }
+            }
+        }
+    }
+
+    private static BufferedImage read(String filename) throws IOException {
+        return ImageIO.read(SpriteFrames.class.getResource(filename));
+    }
+
+    // the frame is the cell at (x, y) of the atlas, trimmed
+    private static void setCell(int frame, int x, int y) {
+        cellX[frame] = x;
+        cellY[frame] = y;
+        int left = CS, top = CS, right = -1, bottom = -1;
+        for (int j = 0; j < CS; j++) {
+            for (int i = 0; i < CS; i++) {
+                if ((atlas.getRGB(x + i, y + j) >>> 24) != 0) {
+                    left = Math.min(left, i);
+                    top = Math.min(top, j);
+                    right = Math.max(right, i);
+                    bottom = Math.max(bottom, j);
+                }
+            }
+        }
+        if (right >= 0) {
+            offsetX[frame] = left;
+            offsetY[frame] = top;
+            width[frame] = right - left + 1;
+            height[frame] = bottom - top + 1;
+        }
+    }
+
+    // the atlas (read-only once loaded)
+    public static BufferedImage getImage() {
+        return atlas;
+    }
+
+    public static int getChipFrame(int chip) {
+        return chip;
+    }
+
+    public static int getCharacterFrame(int id, int direction, int count) {
+        return FIRST_CHARACTER_FRAME + ((id * 4 + direction) * 2 + count);
+    }
+
+    public static boolean isCharacterFrame(int frame) {
+        return frame >= FIRST_CHARACTER_FRAME;
+    }
+
+    // draw the frame with its cell at (x, y)
+    public static void draw(Graphics g, int frame, int x, int y) {
+        int w = width[frame];
+        if (w == 0) {
+            return;
+        }
+        int h = height[frame];
+        int sx = cellX[frame] + offsetX[frame];
+        int sy = cellY[frame] + offsetY[frame];
+        x += offsetX[frame];
+        y += offsetY[frame];
+        g.drawImage(atlas, x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
+    }
+
+    // the upper left corner of the whole cell of the frame in the atlas
+    public static int getCellX(int frame) {
+        return cellX[frame];
+    }
+
+    public static int getCellY(int frame) {
+        return cellY[frame];
+    }
+
+    // the upper left corner of font.gif in the atlas
+    public static int getFontX() {
+        return fontX;
+    }
+
+    public static int getFontY() {
+        return fontY;
+    }
+
+    // draw the cursor (cursor.gif) with its upper left corner at (x, y)
+    public static void drawCursor(Graphics g, int x, int y) {
+        g.drawImage(atlas, x, y, x + cursorWidth, y + cursorHeight,
+                    cursorX, cursorY, cursorX + cursorWidth, cursorY + cursorHeight, null);
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Arrays;
+
+// the characters on the screen sorted by y from the back (top of the
+// screen) to the front, so that a character in front overlaps the one
+// behind it. they are added row by row of tiles, so they are almost in
+// order and the insertion sort takes about one compare per character.
+// characters at the same y are sorted by x, so the order depends only on
+// where they are (game loop).
+public class SpriteLayer {
+    private Character[] sprites = new Character[16];
+    private int size = 0;
+
+    public void clear() {
+        Arrays.fill(sprites, 0, size, null);
+        size = 0;
+    }
+
+    public void add(Character c) {
+        if (size == sprites.length) {
+            sprites = Arrays.copyOf(sprites, size * 2);
+        }
+        sprites[size++] = c;
+    }
+
+    // sort by y, then x (unit: pixel)
+    public void sort() {
+        for (int i = 1; i < size; i++) {
+            Character c = sprites[i];
+            if (!isBehind(c, sprites[i - 1])) {
+                continue;
+            }
+            int j = i - 1;
+            while (j >= 0 && isBehind(c, sprites[j])) {
+                sprites[j + 1] = sprites[j];
+                j--;
+            }
+            sprites[j + 1] = c;
+        }
+    }
+
+    // is a drawn before b?
+    private static boolean isBehind(Character a, Character b) {
+        return a.getPY() < b.getPY() || (a.getPY() == b.getPY() && a.getPX() < b.getPX());
+    }
+
+    public Character get(int i) {
+        return sprites[i];
+    }
+
+    public int size() {
+        return size;
+    }
+}
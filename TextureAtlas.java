@@ -0,0 +1,89 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DirectColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// images packed into one image, so that everything is drawn from a single
+// image in the format the screen draws fastest: 1-bit alpha, the format
+// of GraphicsConfiguration.createCompatibleImage(w, h, BITMASK). the
+// images are put on shelves from the tallest to the shortest
+public class TextureAtlas {
+    private static final int WIDTH = 1024;
+
+    private ArrayList<Image> images = new ArrayList<Image>();
+    private int[] x, y;
+
+    // the index of the image in the atlas
+    public int add(Image image) {
+        images.add(image);
+        return images.size() - 1;
+    }
+
+    // place the images and draw them into the atlas
+    public BufferedImage pack() {
+        int n = images.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> getHeight(b) - getHeight(a));
+
+        x = new int[n];
+        y = new int[n];
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        for (int i : order) {
+            int w = getWidth(i);
+            if (w > WIDTH) {
+                throw new IllegalArgumentException("image " + i + " is wider than the atlas");
+            }
+            if (shelfX + w > WIDTH) {
+                shelfX = 0;
+                shelfY += shelfHeight;
+                shelfHeight = 0;
+            }
+            x[i] = shelfX;
+            y[i] = shelfY;
+            shelfX += w;
+            shelfHeight = Math.max(shelfHeight, getHeight(i));
+        }
+
+        BufferedImage atlas = createImage(WIDTH, shelfY + shelfHeight);
+        Graphics g = atlas.getGraphics();
+        for (int i = 0; i < n; i++) {
+            g.drawImage(images.get(i), x[i], y[i], null);
+        }
+        g.dispose();
+        return atlas;
+    }
+
+    // the upper left corner of image i in the atlas
+    public int getX(int i) {
+        return x[i];
+    }
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+    private int getWidth(int i) {
+        return images.get(i).getWidth(null);
+    }
+
+    private int getHeight(int i) {
+        return images.get(i).getHeight(null);
+    }
+
+    // transparent pixels everywhere
+    private static BufferedImage createImage(int w, int h) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(w, h, Transparency.BITMASK);
+        }
+        // what the screen creates: RGB and 1 bit of alpha in an int
+        DirectColorModel cm = new DirectColorModel(25, 0xff0000, 0xff00, 0xff, 0x1000000);
+        return new BufferedImage(cm, cm.createCompatibleWritableRaster(w, h), false, null);
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.Random;
+
+// set of tile indices (y * col + x) with O(1) add, remove, contains
+// and uniform random pick (sparse set)
+public class TileSet {
+    // tiles in this set, packed at the beginning of the array
+    private int[] tiles;
+    // position of each tile in tiles[] plus one (0 means not in this set)
+    private int[] position;
+    private int size;
+
+    public TileSet(int capacity) {
+        tiles = new int[capacity];
+        position = new int[capacity];
+        size = 0;
+    }
+
+    public boolean add(int tile) {
+        if (position[tile] != 0) {
+            return false;
+        }
+        tiles[size] = tile;
+        size++;
+        position[tile] = size;
+        return true;
+    }
+
+    public boolean remove(int tile) {
+        int pos = position[tile];
+        if (pos == 0) {
+            return false;
+        }
+        // move the last tile into the hole
+        int last = tiles[size - 1];
+        tiles[pos - 1] = last;
+        position[last] = pos;
+        position[tile] = 0;
+        size--;
+        return true;
+    }
+
+    public boolean contains(int tile) {
+        return position[tile] != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int i) {
+        return tiles[i];
+    }
+
+    // return a random tile of this set, or -1 if the set is empty
+    public int pick(Random rand) {
+        if (size == 0) {
+            return -1;
+        }
+        return tiles[rand.nextInt(size)];
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.sound.sampled.*;
 
 public class WaveEngine implements LineListener {
@@ -9,6 +10,10 @@ public class WaveEngine implements LineListener {
     private int maxClips;
     private int counter = 0;
 
+    // for metrics (read by any thread)
+    private volatile int clipCount = 0;
+    private AtomicInteger activeVoices = new AtomicInteger();
+
     public WaveEngine() {
         this(256);
     }
@@ -51,6 +56,7 @@ public class WaveEngine implements LineListener {
             clip.addLineListener(this);
             clip.open(stream);
             clipMap.put(name, clip);
+            clipCount = clipMap.size();
             stream.close();
         } catch (UnsupportedAudioFileException e) {
             e.printStackTrace();
@@ -62,14 +68,32 @@ public class WaveEngine implements LineListener {
     }
 
     public void play(String name) {
+        AudioJfrEvent jfrEvent = AudioJfrEvent.start("sound", name);
         Clip clip = (Clip)clipMap.get(name);
         if (clip != null) {
             clip.start();
         }
+        if (jfrEvent != null) {
+            jfrEvent.commit();
+        }
+    }
+
+    // the number of loaded sound clips
+    public int getClipCount() {
+        return clipCount;
+    }
+
+    // the number of sound clips playing now
+    public int getActiveVoices() {
+        return Math.max(0, activeVoices.get());
     }
 
     public void update(LineEvent event) {
+        if (event.getType() == LineEvent.Type.START) {
+            activeVoices.incrementAndGet();
+        }
         if (event.getType() == LineEvent.Type.STOP) {
+            activeVoices.decrementAndGet();
             Clip clip = (Clip) event.getSource();
             clip.stop();
             clip.setFramePosition(0);
@@ -0,0 +1,324 @@
+import java.io.*;
+import java.util.*;
+
+// generates large worlds (.map and .evt files) for benchmarks and soak tests.
+// the same options and seed always generate the same files.
+//
+// java WorldGenerator [options]
+//   --seed n          seed of the random number generator (default: 0)
+//   --size WxH        map size in tiles (default: 2048x2048)
+//   --maps n          the number of maps (default: 1)
+//   --characters n    wandering characters per map (default: 1000)
+//   --treasures n     treasures per map (default: 1000)
+//   --doors n         walled rooms with a door per map (default: 100)
+//   --warps n         MOVE events per map to random maps (default: 50)
+//   --decorations n   decoration chips over grass per map (default: 0)
+//   --overlays n      overlay chips drawn over the characters per map (default: 0)
+//   --name name       file name prefix (default: stress)
+//   --out dir         output directory (default: current directory)
+//
+// map i is written to <out>/map/<name><i>.map and <out>/event/<name><i>.evt,
+// and MOVE events expect the maps to be loaded in this order. the
+// decoration and overlay layers are written after the tiles of the map
+// only when there are some.
+public class WorldGenerator {
+    // tiles (see mapchip.gif)
+    private static final byte FLOOR = 0;
+    private static final byte WALL = 1;
+    private static final byte GRASS = 3;
+    private static final byte SEA = 5;
+    // chip of MOVE events
+    private static final int STAIRS = 7;
+    // chips of the decoration and overlay layers
+    private static final byte BUSH = 12;
+    private static final byte CANOPY = 13;
+    // no chip in a layer
+    private static final byte NONE = -1;
+
+    // the number of character images in character.gif (0 is the hero)
+    private static final int NUM_CHARACTER_IMAGES = 32;
+
+    private static final String[] MESSAGES = {
+        "HELLO!", "NICE WEATHER TODAY", "HAVE YOU SEEN THE KING?",
+        "THE SEA IS ROUGH/STAY ON THE GRASS", "I AM LOST", "WHERE IS THE CAVE?"
+    };
+    private static final String[] ITEMS = {
+        "GOLD", "HEALTH POTION", "HEALING HERB", "SILVER RING", "TORCH", "ANCIENT COIN"
+    };
+
+    private long seed = 0;
+    private int col = 2048;
+    private int row = 2048;
+    private int numMaps = 1;
+    private int numCharacters = 1000;
+    private int numTreasures = 1000;
+    private int numDoors = 100;
+    private int numWarps = 50;
+    private int numDecorations = 0;
+    private int numOverlays = 0;
+    private String name = "stress";
+    private File outDir = new File(".");
+
+    private Random rand;
+    // tiles of each map
+    private byte[][][] maps;
+    // decoration and overlay of each map (null: none)
+    private byte[][][] decorations;
+    private byte[][][] overlays;
+    // tiles that already have an event or a character
+    private boolean[][] used;
+    // events of each map
+    private StringBuilder[] events;
+
+    public static void main(String[] args) throws IOException {
+        WorldGenerator g = new WorldGenerator();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--seed")) {
+                g.seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--size")) {
+                String[] size = args[++i].split("x");
+                g.col = Integer.parseInt(size[0]);
+                g.row = Integer.parseInt(size[1]);
+            } else if (arg.equals("--maps")) {
+                g.numMaps = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--characters")) {
+                g.numCharacters = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--treasures")) {
+                g.numTreasures = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--doors")) {
+                g.numDoors = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--warps")) {
+                g.numWarps = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--decorations")) {
+                g.numDecorations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--overlays")) {
+                g.numOverlays = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--name")) {
+                g.name = args[++i];
+            } else if (arg.equals("--out")) {
+                g.outDir = new File(args[++i]);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (g.col < 16 || g.row < 16) {
+            throw new IllegalArgumentException("the map must be 16x16 or larger");
+        }
+        if (g.numMaps < 1) {
+            throw new IllegalArgumentException("--maps must be 1 or more");
+        }
+        g.generate();
+        for (int i = 0; i < g.numMaps; i++) {
+            System.out.println(g.mapFile(i) + ", " + g.eventFile(i));
+        }
+    }
+
+    public void generate() throws IOException {
+        rand = new Random(seed);
+        maps = new byte[numMaps][][];
+        used = new boolean[numMaps][];
+        events = new StringBuilder[numMaps];
+        decorations = new byte[numMaps][][];
+        overlays = new byte[numMaps][][];
+
+        // terrain and rooms of all maps first, so that warps can
+        // find free tiles on their destination maps
+        for (int i = 0; i < numMaps; i++) {
+            maps[i] = new byte[row][col];
+            used[i] = new boolean[row * col];
+            events[i] = new StringBuilder();
+            events[i].append("# generated by WorldGenerator (seed ").append(seed).append(")\n");
+            makeTerrain(i);
+            for (int j = 0; j < numDoors; j++) {
+                makeRoom(i);
+            }
+        }
+        for (int i = 0; i < numMaps; i++) {
+            for (int j = 0; j < numWarps; j++) {
+                int[] from = pickFreeTile(i);
+                int destMapNo = rand.nextInt(numMaps);
+                int[] dest = pickFreeTile(destMapNo);
+                events[i].append("MOVE,").append(from[0]).append(',').append(from[1])
+                    .append(',').append(STAIRS).append(',').append(destMapNo)
+                    .append(',').append(dest[0]).append(',').append(dest[1]).append('\n');
+            }
+        }
+        for (int i = 0; i < numMaps; i++) {
+            for (int j = 0; j < numTreasures; j++) {
+                int[] p = pickFreeTile(i);
+                events[i].append("TREASURE,").append(p[0]).append(',').append(p[1]).append(',')
+                    .append(ITEMS[rand.nextInt(ITEMS.length)]).append(' ').append(j).append('\n');
+            }
+            for (int j = 0; j < numCharacters; j++) {
+                int[] p = pickFreeTile(i);
+                events[i].append("CHARACTER,").append(p[0]).append(',').append(p[1]).append(',')
+                    .append(1 + rand.nextInt(NUM_CHARACTER_IMAGES - 1)).append(',')
+                    .append(rand.nextInt(4)).append(",1,")
+                    .append(MESSAGES[rand.nextInt(MESSAGES.length)]).append('\n');
+            }
+        }
+
+        // layers last, so that they do not change the rest of the world
+        for (int i = 0; i < numMaps; i++) {
+            if (numDecorations > 0) {
+                decorations[i] = makeLayer(i, numDecorations, BUSH, true);
+            }
+            if (numOverlays > 0) {
+                overlays[i] = makeLayer(i, numOverlays, CANOPY, false);
+            }
+        }
+
+        new File(outDir, "map").mkdirs();
+        new File(outDir, "event").mkdirs();
+        for (int i = 0; i < numMaps; i++) {
+            write(i);
+        }
+    }
+
+    private File mapFile(int mapNo) {
+        return new File(outDir, "map/" + name + mapNo + ".map");
+    }
+
+    private File eventFile(int mapNo) {
+        return new File(outDir, "event/" + name + mapNo + ".evt");
+    }
+
+    private void write(int mapNo) throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(mapFile(mapNo)), 1 << 16)) {
+            out.write(row + "\n" + col + "\n");
+            char[] line = new char[col + 1];
+            line[col] = '\n';
+            for (int y = 0; y < row; y++) {
+                for (int x = 0; x < col; x++) {
+                    line[x] = (char)('0' + maps[mapNo][y][x]);
+                }
+                out.write(line);
+            }
+            writeLayer(out, "decoration", decorations[mapNo], line);
+            writeLayer(out, "overlay", overlays[mapNo], line);
+        }
+
+        try (Writer out = new BufferedWriter(new FileWriter(eventFile(mapNo)))) {
+            out.append(events[mapNo]);
+        }
+    }
+
+    // "LAYER name" and the chips of the layer ('.': none)
+    private void writeLayer(Writer out, String name, byte[][] layer, char[] line) throws IOException {
+        if (layer == null) {
+            return;
+        }
+        out.write("LAYER " + name + "\n");
+        for (int y = 0; y < row; y++) {
+            for (int x = 0; x < col; x++) {
+                line[x] = layer[y][x] == NONE ? '.' : (char)('0' + layer[y][x]);
+            }
+            out.write(line);
+        }
+    }
+
+    // n chips at random places of the map (only on grass if onGrass)
+    private byte[][] makeLayer(int mapNo, int n, byte chip, boolean onGrass) {
+        byte[][] layer = new byte[row][col];
+        for (byte[] r : layer) {
+            Arrays.fill(r, NONE);
+        }
+        for (int i = 0; i < n; i++) {
+            int x = rand.nextInt(col);
+            int y = rand.nextInt(row);
+            if (!onGrass || maps[mapNo][y][x] == GRASS) {
+                layer[y][x] = chip;
+            }
+        }
+        return layer;
+    }
+
+    // grass surrounded by sea, with lakes and patches of floor
+    private void makeTerrain(int mapNo) {
+        byte[][] map = maps[mapNo];
+        for (int y = 0; y < row; y++) {
+            for (int x = 0; x < col; x++) {
+                boolean edge = (x == 0 || y == 0 || x == col - 1 || y == row - 1);
+                map[y][x] = edge ? SEA : GRASS;
+            }
+        }
+        // one lake per 32x32 tiles on average
+        int lakes = col * row / 1024;
+        for (int i = 0; i < lakes; i++) {
+            fillCircle(map, rand.nextInt(col), rand.nextInt(row), 1 + rand.nextInt(5),
+                       rand.nextInt(4) == 0 ? FLOOR : SEA);
+        }
+    }
+
+    private void fillCircle(byte[][] map, int cx, int cy, int r, byte tile) {
+        for (int y = Math.max(1, cy - r); y <= Math.min(row - 2, cy + r); y++) {
+            for (int x = Math.max(1, cx - r); x <= Math.min(col - 2, cx + r); x++) {
+                if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) {
+                    map[y][x] = tile;
+                }
+            }
+        }
+    }
+
+    // a walled room with a door in the bottom wall and a treasure inside.
+    // rooms do not overlap each other.
+    private void makeRoom(int mapNo) {
+        byte[][] map = maps[mapNo];
+        boolean[] used = this.used[mapNo];
+        int w = 5 + rand.nextInt(6);
+        int h = 5 + rand.nextInt(6);
+        int left = 1 + rand.nextInt(col - w - 2);
+        int top = 1 + rand.nextInt(row - h - 2);
+        // the room and the tile in front of the door
+        for (int y = top; y <= top + h; y++) {
+            for (int x = left; x < left + w; x++) {
+                if (used[y * col + x]) {
+                    return;
+                }
+            }
+        }
+        for (int y = top; y < top + h; y++) {
+            for (int x = left; x < left + w; x++) {
+                boolean wall = (x == left || y == top || x == left + w - 1 || y == top + h - 1);
+                map[y][x] = wall ? WALL : FLOOR;
+                used[y * col + x] = true;
+            }
+        }
+        int doorX = left + 1 + rand.nextInt(w - 2);
+        int doorY = top + h - 1;
+        map[doorY][doorX] = FLOOR;
+        events[mapNo].append("DOOR,").append(doorX).append(',').append(doorY).append('\n');
+        // keep the tile in front of the door open
+        if (map[doorY + 1][doorX] == SEA) {
+            map[doorY + 1][doorX] = GRASS;
+        }
+        used[(doorY + 1) * col + doorX] = true;
+
+        // the other floor tiles of the room are free again
+        for (int y = top + 1; y < top + h - 1; y++) {
+            for (int x = left + 1; x < left + w - 1; x++) {
+                used[y * col + x] = false;
+            }
+        }
+        int[] t = {left + 1 + rand.nextInt(w - 2), top + 1 + rand.nextInt(h - 2)};
+        used[t[1] * col + t[0]] = true;
+        events[mapNo].append("TREASURE,").append(t[0]).append(',').append(t[1]).append(',')
+            .append(ITEMS[rand.nextInt(ITEMS.length)]).append('\n');
+    }
+
+    // a random walkable tile without an event or a character
+    private int[] pickFreeTile(int mapNo) {
+        byte[][] map = maps[mapNo];
+        for (int i = 0; i < row * col * 4; i++) {
+            int x = 1 + rand.nextInt(col - 2);
+            int y = 1 + rand.nextInt(row - 2);
+            int tile = map[y][x];
+            if ((tile == GRASS || tile == FLOOR) && !used[mapNo][y * col + x]) {
+                used[mapNo][y * col + x] = true;
+                return new int[] {x, y};
+            }
+        }
+        throw new IllegalStateException("no free tile left in map " + mapNo);
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.*;
+
+// state of the whole world at a tick boundary.
+// taking a snapshot is cheap: tile rows are copy-on-write (Map.shareTiles),
+// events are immutable once created and shared, and the event differences
+// of a map are reused from the previous snapshot while the map's events
+// have not changed.
+public class WorldSnapshot {
+    // the maps the snapshot was taken from (see fingerprint())
+    public long fingerprint;
+    public int mapNo;
+    public long randomState;
+    public boolean[] flags;
+
+    // hero
+    public int heroX;
+    public int heroY;
+    public int heroDirection;
+    public String[] inventory;
+
+    public MapState[] maps;
+
+    // differences of a map from its .map and .evt files
+    public static class MapState {
+        // tile rows shared with the map (never modified)
+        public int[][] tiles;
+        // Map.getEventVersion() when the events were captured
+        public int eventVersion;
+        // baseline event indices which have been removed
+        public int[] removedEvents;
+        // events created during the game
+        public Event[] addedEvents;
+        // NPC positions in the order of Map.getCharacters() (hero excluded)
+        public int[] npcX;
+        public int[] npcY;
+        public int[] npcDirection;
+    }
+
+    public static WorldSnapshot capture(Map[] maps, int mapNo, Character hero,
+                                        GameRandom rand, ScriptEngine scriptEngine) {
+        return capture(maps, mapNo, hero, rand, scriptEngine, null);
+    }
+
+    // capture reusing unchanged parts of the previous snapshot
+    public static WorldSnapshot capture(Map[] maps, int mapNo, Character hero,
+                                        GameRandom rand, ScriptEngine scriptEngine,
+                                        WorldSnapshot previous) {
+        WorldSnapshot s = new WorldSnapshot();
+        s.fingerprint = fingerprint(maps);
+        s.mapNo = mapNo;
+        s.randomState = rand.getState();
+        s.flags = new boolean[ScriptCompiler.MAX_FLAGS];
+        for (int i = 0; i < s.flags.length; i++) {
+            s.flags[i] = scriptEngine.getFlag(i);
+        }
+
+        s.heroX = hero.getX();
+        s.heroY = hero.getY();
+        s.heroDirection = hero.getDirection();
+        ArrayList<String> inventory = hero.getInventory();
+        s.inventory = inventory.toArray(new String[inventory.size()]);
+
+        s.maps = new MapState[maps.length];
+        for (int i = 0; i < maps.length; i++) {
+            MapState prev = null;
+            if (previous != null && previous.maps.length == maps.length) {
+                prev = previous.maps[i];
+            }
+            s.maps[i] = captureMap(maps[i], hero, prev);
+        }
+        return s;
+    }
+
+    // identifies the maps of a world and the files they were loaded from
+    public static long fingerprint(Map[] maps) {
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(maps.length);
+        for (Map map : maps) {
+            long f = map.getFingerprint();
+            for (int i = 0; i < 8; i++) {
+                crc.update((int)(f >>> (i * 8)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static MapState captureMap(Map map, Character hero, MapState prev) {
+        MapState m = new MapState();
+        m.tiles = map.shareTiles();
+        m.eventVersion = map.getEventVersion();
+
+        if (prev != null && prev.eventVersion == m.eventVersion) {
+            m.removedEvents = prev.removedEvents;
+            m.addedEvents = prev.addedEvents;
+        } else {
+            captureEvents(map, m);
+        }
+
+        ArrayList<Character> characters = map.getCharacters();
+        int numNpcs = characters.contains(hero) ? characters.size() - 1 : characters.size();
+        m.npcX = new int[numNpcs];
+        m.npcY = new int[numNpcs];
+        m.npcDirection = new int[numNpcs];
+        int n = 0;
+        for (int i = 0; i < characters.size(); i++) {
+            Character c = characters.get(i);
+            if (c == hero) continue;
+            m.npcX[n] = c.getX();
+            m.npcY[n] = c.getY();
+            m.npcDirection[n] = c.getDirection();
+            n++;
+        }
+        return m;
+    }
+
+    private static void captureEvents(Map map, MapState m) {
+        ArrayList<Event> events = map.getEvents();
+        Event[] baseline = map.getBaselineEvents();
+        boolean[] present = new boolean[baseline.length];
+        int numAdded = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (event.baselineIndex >= 0) {
+                present[event.baselineIndex] = true;
+            } else {
+                numAdded++;
+            }
+        }
+        m.addedEvents = new Event[numAdded];
+        int n = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (event.baselineIndex < 0) {
+                m.addedEvents[n++] = event;
+            }
+        }
+        int numRemoved = 0;
+        for (int i = 0; i < present.length; i++) {
+            if (!present[i]) numRemoved++;
+        }
+        m.removedEvents = new int[numRemoved];
+        n = 0;
+        for (int i = 0; i < present.length; i++) {
+            if (!present[i]) m.removedEvents[n++] = i;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.event.KeyEvent;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that a steady-state frame does not allocate.
+ * Runs headless frames (walking, NPCs wandering, dialog open) with
+ * offscreen rendering and measures the bytes allocated by this thread.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp out:. AllocationTest
+ */
+public class AllocationTest {
+    // frames to let the JIT compile the frame before measuring. tiles
+    // are drawn from cached chunks with a few blits per frame, so the
+    // blit path takes more frames to be compiled with its temporary
+    // objects optimized away
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int FRAMES = 1000;
+    // the JIT may still recompile during a measurement, so the best of
+    // a few measurements counts (a regression allocates in all of them)
+    private static final int ATTEMPTS = 3;
+    // allowed allocation per frame (bytes)
+    private static final long MAX_BYTES_PER_FRAME = 0;
+
+    private static com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        // walk back and forth in the castle while the NPCs wander
+        check("walking", panel, WARMUP_FRAMES, FRAMES, false);
+        // read a long message, which flows one character per frame
+        check("dialog", panel, WARMUP_FRAMES, FRAMES, true);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String name, MainPanel panel, int warmup, int frames, boolean dialog) {
+        run(panel, warmup, dialog);
+        long tid = Thread.currentThread().getId();
+        long bytes = Long.MAX_VALUE;
+        for (int i = 0; i < ATTEMPTS; i++) {
+            long before = threadBean.getThreadAllocatedBytes(tid);
+            run(panel, frames, dialog);
+            bytes = Math.min(bytes, threadBean.getThreadAllocatedBytes(tid) - before);
+        }
+
+        // compare the total, since an integer bytes / frames rounds a few
+        // bytes in the whole run down to 0 per frame
+        double perFrame = (double)bytes / frames;
+        boolean ok = bytes <= MAX_BYTES_PER_FRAME * frames;
+        System.out.println(name + ": " + bytes + " bytes in " + frames + " frames ("
+                           + String.format("%.2f", perFrame) + " bytes/frame) " + (ok ? "OK" : "NG"));
+        if (!ok) {
+            failures++;
+        }
+    }
+
+    private static void run(MainPanel panel, int frames, boolean dialog) {
+        for (int i = 0; i < frames; i++) {
+            if (dialog) {
+                if (!panel.isMessageVisible()) {
+                    panel.showMessage("THIS IS A LONG MESSAGE THAT FLOWS/"
+                                      + "ACROSS SEVERAL PAGES OF THE WINDOW/"
+                                      + "WHILE THE FRAME IS MEASURED");
+                }
+                // turn the pages now and then
+                setKey(panel, KeyEvent.VK_SPACE, i % 64 == 0);
+            } else {
+                // 64 frames to the right, 64 frames to the left
+                boolean right = (i / 64) % 2 == 0;
+                setKey(panel, KeyEvent.VK_RIGHT, right);
+                setKey(panel, KeyEvent.VK_LEFT, !right);
+            }
+            panel.tick();
+            panel.gameRender();
+        }
+        setKey(panel, KeyEvent.VK_RIGHT, false);
+        setKey(panel, KeyEvent.VK_LEFT, false);
+        setKey(panel, KeyEvent.VK_SPACE, false);
+    }
+
+    // the events are created once per key, so that input does not count
+    private static KeyEvent[][] keyEvents = new KeyEvent[256][2];
+
+    private static void setKey(MainPanel panel, int keyCode, boolean pressed) {
+        int i = pressed ? 0 : 1;
+        if (keyEvents[keyCode][i] == null) {
+            keyEvents[keyCode][i] = new KeyEvent(panel,
+                pressed ? KeyEvent.KEY_PRESSED : KeyEvent.KEY_RELEASED,
+                0, 0, keyCode, KeyEvent.CHAR_UNDEFINED);
+        }
+        if (pressed) {
+            panel.keyPressed(keyEvents[keyCode][i]);
+        } else {
+            panel.keyReleased(keyEvents[keyCode][i]);
+        }
+    }
+}
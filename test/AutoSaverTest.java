@@ -0,0 +1,143 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks the autosave: a snapshot keeps the tiles it was taken with
+ * while the map changes (copy-on-write rows), the next snapshot shares
+ * what has not changed, and AutoSaver writes the latest snapshot to the
+ * file.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. AutoSaverTest
+ */
+public class AutoSaverTest {
+    // how long the writer thread may take (ms)
+    private static final long TIMEOUT = 10000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        checkCopyOnWrite(panel);
+        checkAutoSaver(panel);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkCopyOnWrite(MainPanel panel) {
+        Map map = panel.getCurrentMap();
+        int y = 2;
+
+        WorldSnapshot first = panel.takeSnapshot();
+        int mapNo = first.mapNo;
+        int[][] tiles = first.maps[mapNo].tiles;
+        int[][] copy = deepCopy(tiles);
+        int before = map.getTileAt(1, y);
+        map.setTileAt(1, y, before == 1 ? 0 : 1);
+        map.setTileAt(2, y, 5);
+
+        WorldSnapshot second = panel.takeSnapshot(first);
+        int[][] next = second.maps[mapNo].tiles;
+        String error = null;
+        if (!Arrays.deepEquals(tiles, copy)) {
+            error = "the first snapshot changed with the map";
+        } else if (next[y] == tiles[y] || next[y][2] != 5) {
+            error = "the written row is not a copy";
+        } else if (next[y + 1] != tiles[y + 1]) {
+            error = "an unchanged row was copied";
+        } else if (second.maps[mapNo].addedEvents != first.maps[mapNo].addedEvents) {
+            error = "unchanged events were captured again";
+        }
+
+        // restored rows are shared with the snapshot, and still copied on write
+        if (error == null) {
+            panel.restoreSnapshot(first);
+            map.setTileAt(3, y, 5);
+            if (!Arrays.deepEquals(tiles, copy)) {
+                error = "writing after a restore changed the snapshot";
+            } else if (map.getTileAt(3, y) != 5 || map.getTileAt(1, y) != before) {
+                error = "the map was not restored and written";
+            }
+        }
+
+        if (error == null) {
+            map.addEvent(new TreasureEvent(1, 1, "NEW"));
+            WorldSnapshot third = panel.takeSnapshot(second);
+            if (third.maps[mapNo].addedEvents == second.maps[mapNo].addedEvents) {
+                error = "changed events were not captured";
+            }
+        }
+        report("copy on write", error);
+    }
+
+    private static void checkAutoSaver(MainPanel panel) throws Exception {
+        Path path = Files.createTempFile("autosave", ".sav");
+        path.toFile().deleteOnExit();
+        AutoSaver saver = new AutoSaver(path);
+        saver.prepare(panel);
+
+        // one save at a time
+        String error = null;
+        for (int i = 0; i < 3 && error == null; i++) {
+            for (int j = 0; j < 50; j++) {
+                panel.tick();
+            }
+            panel.getHero().addToInventory("ITEM " + i);
+            saver.save(panel);
+            error = waitFor(path, bytes(panel.takeSnapshot()));
+        }
+        report("autosave", error);
+
+        // saves faster than the writer: the last one is written in the end
+        for (int i = 0; i < 100; i++) {
+            panel.tick();
+            saver.save(panel);
+        }
+        report("autosave, many saves", waitFor(path, bytes(panel.takeSnapshot())));
+    }
+
+    // wait until the file holds the snapshot
+    private static String waitFor(Path path, byte[] expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (Arrays.equals(Files.readAllBytes(path), expected)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                // not written yet
+            }
+            Thread.sleep(5);
+        }
+        return "the file does not hold the last snapshot";
+    }
+
+    private static int[][] deepCopy(int[][] tiles) {
+        int[][] copy = new int[tiles.length][];
+        for (int i = 0; i < tiles.length; i++) {
+            copy[i] = tiles[i].clone();
+        }
+        return copy;
+    }
+
+    private static byte[] bytes(WorldSnapshot s) {
+        ByteBuffer buf = SaveGame.encode(s);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.*;
+
+/**
+ * Checks that GameEventBus delivers events in order, keeps the events
+ * listeners publish while it dispatches, and counts the ones it drops
+ * (which GameMetrics publishes).
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. EventBusTest
+ */
+public class EventBusTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        checkOrder();
+        checkPublishWhileDispatching();
+        checkDropped();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // more events than the ring holds, published between dispatches
+    private static void checkOrder() {
+        GameEventBus bus = new GameEventBus(4);
+        ArrayList<Integer> received = new ArrayList<Integer>();
+        bus.subscribe(GameEvent.STEP, e -> received.add(e.getX()));
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            bus.publish(GameEvent.STEP, 0, i, 0, null, null);
+            expected.add(i);
+        }
+        bus.dispatch();
+        report("order: " + received, received.equals(expected) ? null : "expected " + expected);
+    }
+
+    // a listener publishes more events than the ring has room for
+    private static void checkPublishWhileDispatching() {
+        GameEventBus bus = new GameEventBus(4);
+        ArrayList<Integer> received = new ArrayList<Integer>();
+        bus.subscribe(GameEvent.DOOR_OPENED, e -> {
+            for (int i = 0; i < 10; i++) {
+                bus.publish(GameEvent.TALK, 0, i, 0, null, null);
+            }
+        });
+        bus.subscribe(GameEvent.TALK, e -> received.add(e.getX()));
+        bus.publish(GameEvent.DOOR_OPENED, 0, 0, 0, null, null);
+        bus.publish(GameEvent.DOOR_OPENED, 0, 0, 0, null, null);
+        bus.dispatch();
+
+        String error = null;
+        if (received.size() != 20) {
+            error = received.size() + " events delivered";
+        } else if (bus.getDropped() != 0) {
+            error = bus.getDropped() + " dropped";
+        } else if (bus.getCapacity() <= 4) {
+            error = "the ring did not grow";
+        }
+        report("publish while dispatching: " + received.size() + " delivered, capacity "
+               + bus.getCapacity(), error);
+    }
+
+    // beyond MAX_CAPACITY the events are dropped and counted
+    private static void checkDropped() {
+        final int extra = 10;
+        GameEventBus bus = new GameEventBus(4);
+        int[] received = new int[1];
+        bus.subscribe(GameEvent.DOOR_OPENED, e -> {
+            for (int i = 0; i < GameEventBus.MAX_CAPACITY + extra; i++) {
+                bus.publish(GameEvent.TALK, 0, i, 0, null, null);
+            }
+        });
+        bus.subscribe(GameEvent.TALK, e -> received[0]++);
+        bus.publish(GameEvent.DOOR_OPENED, 0, 0, 0, null, null);
+        bus.dispatch();
+
+        GameMetrics metrics = new GameMetrics(new Map[0]);
+        metrics.update(1, new Map[0], 0, bus);
+
+        // the DOOR_OPENED being delivered takes one slot
+        int dropped = extra + 1;
+        String error = null;
+        if (bus.getDropped() != dropped) {
+            error = bus.getDropped() + " dropped, expected " + dropped;
+        } else if (received[0] != GameEventBus.MAX_CAPACITY - 1) {
+            error = received[0] + " delivered";
+        } else if (metrics.getDroppedEvents() != dropped) {
+            error = "metrics show " + metrics.getDroppedEvents() + " dropped";
+        }
+        report("dropped: " + bus.getDropped(), error);
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.*;
+
+/**
+ * Checks Histogram against the sorted values: every percentile is within
+ * 1/8 above the exact one (exact below 16us), and the max, the sum and the
+ * count are exact, also after a reset. Then checks that FrameTimer puts
+ * the time of each phase into its own histogram.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. HistogramTest
+ */
+public class HistogramTest {
+    private static final int VALUES = 100000;
+    private static final double[] PERCENTILES = {0.1, 1, 10, 50, 90, 99, 99.9, 100};
+    // the time spent in the update phase of each frame (ms)
+    private static final int SLEEP = 2;
+    private static final int FRAMES = 20;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        Random rand = new Random(1);
+        Histogram histogram = new Histogram();
+        // values spread over the powers of two, up to the largest int
+        check("up to 20 bits", histogram, values(rand, 0, 20));
+        histogram.reset();
+        check("up to 31 bits, after a reset", histogram, values(rand, 0, 31));
+        histogram.reset();
+        check("one value", histogram, new long[] {12345});
+
+        checkEmpty();
+        checkClamped();
+        checkFrameTimer();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // values of up to maxBits bits, as many of each length
+    private static long[] values(Random rand, int minBits, int maxBits) {
+        long[] values = new long[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            int bits = minBits + rand.nextInt(maxBits - minBits + 1);
+            values[i] = bits == 0 ? 0 : (1L << (bits - 1)) + (rand.nextLong() & ((1L << (bits - 1)) - 1));
+        }
+        return values;
+    }
+
+    private static void check(String name, Histogram histogram, long[] values) {
+        long sum = 0;
+        for (long v : values) {
+            histogram.record(v);
+            sum += v;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        String error = null;
+        if (histogram.getCount() != values.length) {
+            error = "count " + histogram.getCount() + ", expected " + values.length;
+        } else if (histogram.getMax() != sorted[sorted.length - 1]) {
+            error = "max " + histogram.getMax() + ", expected " + sorted[sorted.length - 1];
+        } else if (histogram.getSum() != sum) {
+            error = "sum " + histogram.getSum() + ", expected " + sum;
+        }
+        for (int i = 0; i < PERCENTILES.length && error == null; i++) {
+            double p = PERCENTILES[i];
+            long exact = sorted[(int)Math.ceil(values.length * p / 100.0) - 1];
+            long got = histogram.percentile(p);
+            if (got < exact || got > exact + exact / 8) {
+                error = "p" + p + " = " + got + ", exact " + exact;
+            }
+        }
+        report(name, error);
+    }
+
+    private static void checkEmpty() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.reset();
+        String error = null;
+        if (histogram.getCount() != 0 || histogram.getMax() != 0 || histogram.getSum() != 0
+                || histogram.percentile(50) != 0) {
+            error = "not empty after a reset";
+        }
+        report("empty", error);
+    }
+
+    // negative values count as 0, and larger ones than an int as the largest int
+    private static void checkClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        String error = null;
+        if (histogram.percentile(50) != 0) {
+            error = "p50 = " + histogram.percentile(50) + ", expected 0";
+        } else if (histogram.getMax() != Integer.MAX_VALUE) {
+            error = "max " + histogram.getMax() + ", expected " + Integer.MAX_VALUE;
+        } else if (histogram.percentile(100) != Integer.MAX_VALUE) {
+            error = "p100 = " + histogram.percentile(100) + ", expected " + Integer.MAX_VALUE;
+        } else if (histogram.getSum() != Integer.MAX_VALUE) {
+            error = "sum " + histogram.getSum() + ", expected " + Integer.MAX_VALUE;
+        }
+        report("clamped", error);
+    }
+
+    // sleeping in the update phase: at least that long in UPDATE and FRAME,
+    // one value per frame in every phase
+    private static void checkFrameTimer() throws InterruptedException {
+        FrameTimer timer = new FrameTimer();
+        for (int i = 0; i < FRAMES; i++) {
+            timer.begin();
+            timer.mark(FrameTimer.INPUT);
+            Thread.sleep(SLEEP);
+            timer.mark(FrameTimer.UPDATE);
+            timer.mark(FrameTimer.RENDER);
+            timer.mark(FrameTimer.PRINT);
+            timer.mark(FrameTimer.SLEEP);
+            timer.end();
+        }
+        String error = null;
+        for (int phase = 0; phase < FrameTimer.NUM_PHASES && error == null; phase++) {
+            if (timer.getCount(phase) != FRAMES) {
+                error = FrameTimer.getPhaseName(phase) + ": count " + timer.getCount(phase);
+            }
+        }
+        long phases = 0;
+        for (int phase = 0; phase < FrameTimer.FRAME; phase++) {
+            phases += timer.getSum(phase);
+        }
+        if (error == null && timer.percentile(FrameTimer.UPDATE, 0.1) < SLEEP * 1000) {
+            error = "update p0.1 = " + timer.percentile(FrameTimer.UPDATE, 0.1) + "us, slept " + SLEEP + "ms";
+        } else if (error == null && timer.getLast(FrameTimer.UPDATE) < SLEEP * 1000000L) {
+            error = "last update " + timer.getLast(FrameTimer.UPDATE) + "ns, slept " + SLEEP + "ms";
+        } else if (error == null && timer.getSum(FrameTimer.FRAME) < phases) {
+            // the phases are rounded down to us one by one, so they add up to less
+            error = "frame sum " + timer.getSum(FrameTimer.FRAME) + "us, phases " + phases + "us";
+        }
+        if (error == null) {
+            timer.reset();
+            if (timer.getCount(FrameTimer.FRAME) != 0 || timer.getMax(FrameTimer.UPDATE) != 0) {
+                error = "not empty after a reset";
+            }
+        }
+        report("frame timer", error);
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.awt.event.KeyEvent;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.*;
+
+/**
+ * Checks the Java Flight Recorder events of the game: none is created
+ * unless a recording wants it, and a recording gets the map loads, the map
+ * transitions, the message windows and the frames of the game loop with
+ * the values they describe.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. JfrEventTest
+ */
+public class JfrEventTest {
+    private static final int TICKS = 200;
+    // two pages
+    private static final String MESSAGE = "THE FIRST MESSAGE|ON ANOTHER PAGE";
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        String error = null;
+        if (MapLoadJfrEvent.start("x") != null || FrameJfrEvent.start() != null
+                || MessageWindowJfrEvent.start(1, 1) != null) {
+            error = "an event was created without a recording";
+        }
+        report("no recording", error);
+
+        checkWorldEvents();
+        checkFrames();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkWorldEvents() throws IOException {
+        Recording recording = new Recording();
+        recording.enable("rpg.MapLoad");
+        recording.enable("rpg.MapTransition");
+        recording.enable("rpg.MessageWindow");
+        recording.start();
+
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+        Map map = new Map("map/castle.map", "event/castle.evt", "castle", panel);
+
+        String from = panel.getCurrentMap().getMapName();
+        panel.warp(1, 1, 1);
+        Map to = panel.getCurrentMap();
+        Character hero = panel.getHero();
+
+        // the second message ends the window of the first one
+        panel.showMessage(MESSAGE);
+        panel.showMessage("THE SECOND MESSAGE");
+
+        List<RecordedEvent> events = stop(recording);
+
+        // the map and event files of every map of the panel, then of the castle
+        List<RecordedEvent> loads = named(events, "rpg.MapLoad");
+        String error = null;
+        if (loads.size() != 2 * (panel.getNumMaps() + 1)) {
+            error = loads.size() + " loads, expected " + 2 * (panel.getNumMaps() + 1);
+        } else {
+            RecordedEvent tiles = loads.get(loads.size() - 2);
+            RecordedEvent objects = loads.get(loads.size() - 1);
+            if (!tiles.getString("file").equals("map/castle.map")
+                    || tiles.getInt("rows") != map.getRow() || tiles.getInt("cols") != map.getCol()) {
+                error = "map file: " + tiles;
+            } else if (!objects.getString("file").equals("event/castle.evt")
+                    || objects.getInt("characters") != map.getCharacters().size()
+                    || objects.getInt("events") != map.getEvents().size()) {
+                error = "event file: " + objects;
+            }
+        }
+        report("map load: " + loads.size() + " files", error);
+
+        List<RecordedEvent> transitions = named(events, "rpg.MapTransition");
+        error = null;
+        if (transitions.size() != 1) {
+            error = transitions.size() + " transitions, expected 1";
+        } else {
+            RecordedEvent e = transitions.get(0);
+            if (!e.getString("from").equals(from) || !e.getString("to").equals(to.getMapName())
+                    || e.getInt("x") != hero.getX() || e.getInt("y") != hero.getY()
+                    || e.getInt("characters") != to.getCharacters().size()
+                    || e.getInt("events") != to.getEvents().size()) {
+                error = e.toString();
+            }
+        }
+        report("map transition", error);
+
+        List<RecordedEvent> windows = named(events, "rpg.MessageWindow");
+        error = null;
+        if (windows.size() != 1) {
+            error = windows.size() + " message windows, expected 1";
+        } else if (windows.get(0).getInt("pages") != 2 || windows.get(0).getInt("length") != MESSAGE.length()) {
+            error = windows.get(0).toString();
+        }
+        report("message window", error);
+    }
+
+    // the game loop of a replayed session, as fast as possible
+    private static void checkFrames() throws IOException {
+        Path path = Files.createTempFile("session", ".rec");
+        path.toFile().deleteOnExit();
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        config.recordFile = path.toString();
+        MainPanel panel = new MainPanel(config);
+        KeyEvent right = new KeyEvent(panel, KeyEvent.KEY_PRESSED, 0, 0,
+                                      KeyEvent.VK_RIGHT, KeyEvent.CHAR_UNDEFINED);
+        panel.keyPressed(right);
+        for (int i = 0; i < TICKS; i++) {
+            panel.tick();
+        }
+        panel.closeSession();
+
+        config.recordFile = null;
+        config.replayFile = path.toString();
+        config.replaySpeed = 0;
+        panel = new MainPanel(config);
+
+        Recording recording = new Recording();
+        recording.enable("rpg.Frame");
+        recording.start();
+        panel.run();
+        List<RecordedEvent> frames = named(stop(recording), "rpg.Frame");
+
+        // the last frame finds the end of the session
+        String error = null;
+        if (frames.size() != TICKS + 1) {
+            error = frames.size() + " frames, expected " + (TICKS + 1);
+        }
+        for (int i = 0; i < frames.size() && error == null; i++) {
+            RecordedEvent e = frames.get(i);
+            long tick = Math.min(i + 1, TICKS);
+            if (e.getLong("tick") != tick) {
+                error = "frame " + i + ": tick " + e.getLong("tick") + ", expected " + tick;
+            } else if (e.getString("mapName") == null || e.getInt("characters") == 0
+                       || e.getLong("update") < 0 || e.getLong("sleep") < 0) {
+                error = "frame " + i + ": " + e;
+            } else if (e.getDuration().toNanos() < e.getLong("update")) {
+                error = "frame " + i + ": shorter than its update";
+            }
+        }
+        report("frames", error);
+    }
+
+    // the events of the recording, in the order they started
+    private static List<RecordedEvent> stop(Recording recording) throws IOException {
+        recording.stop();
+        Path path = Files.createTempFile("events", ".jfr");
+        path.toFile().deleteOnExit();
+        recording.dump(path);
+        recording.close();
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>(RecordingFile.readAllEvents(path));
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+        return events;
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<RecordedEvent>();
+        for (RecordedEvent e : events) {
+            if (e.getEventType().getName().equals(name)) {
+                named.add(e);
+            }
+        }
+        return named;
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
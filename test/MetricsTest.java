@@ -0,0 +1,166 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Scrapes /metrics from a MetricsServer and checks that the page is in
+ * the Prometheus text format: every sample belongs to a family declared
+ * by HELP and TYPE, and every summary has its _sum and _count series.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. MetricsTest
+ */
+public class MetricsTest {
+    // name{label="value",...} value
+    private static final Pattern SAMPLE = Pattern.compile(
+        "([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"]*\"(,[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"]*\")*\\})? (\\S+)");
+    private static final Pattern COMMENT = Pattern.compile("# (HELP|TYPE) ([a-zA-Z_:][a-zA-Z0-9_:]*) (.+)");
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        GameMetrics metrics = new GameMetrics(new Map[0]);
+        metrics.update(42, new Map[0], 0, new GameEventBus());
+        FrameTimer frameTimer = new FrameTimer();
+        for (int i = 0; i < 3; i++) {
+            frameTimer.begin();
+            frameTimer.mark(FrameTimer.INPUT);
+            frameTimer.end();
+        }
+        Histogram inputLatency = new Histogram();
+        inputLatency.record(1000);
+        inputLatency.record(3000);
+
+        MetricsServer server = new MetricsServer(0, metrics, frameTimer, inputLatency, null, null);
+        String page;
+        try {
+            page = scrape(server.getPort());
+        } finally {
+            server.stop();
+        }
+
+        checkFormat(page);
+        checkSummaries(page);
+        checkValues(page);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static String scrape(int port) throws IOException {
+        HttpURLConnection c = (HttpURLConnection)new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+        String error = null;
+        if (c.getResponseCode() != 200) {
+            error = "status " + c.getResponseCode();
+        } else if (!c.getContentType().startsWith("text/plain; version=0.0.4")) {
+            error = "content type " + c.getContentType();
+        }
+        report("scrape", error);
+        try (InputStream in = c.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // every line is a HELP, a TYPE or a sample of the last declared family
+    private static void checkFormat(String page) {
+        String error = null;
+        String family = null;
+        String type = null;
+        HashSet<String> declared = new HashSet<String>();
+        int lineNo = 0;
+        for (String line : page.split("\n")) {
+            lineNo++;
+            Matcher m;
+            if ((m = COMMENT.matcher(line)).matches()) {
+                if (m.group(1).equals("HELP")) {
+                    if (!declared.add(m.group(2))) {
+                        error = "line " + lineNo + ": " + m.group(2) + " declared twice";
+                        break;
+                    }
+                    family = m.group(2);
+                    type = null;
+                } else if (!m.group(2).equals(family) || type != null) {
+                    error = "line " + lineNo + ": TYPE without its HELP: " + line;
+                    break;
+                } else {
+                    type = m.group(3);
+                }
+            } else if ((m = SAMPLE.matcher(line)).matches()) {
+                String name = m.group(1);
+                boolean ok = name.equals(family)
+                    || ("summary".equals(type)
+                        && (name.equals(family + "_sum") || name.equals(family + "_count")));
+                if (!ok || type == null) {
+                    error = "line " + lineNo + ": sample outside its family: " + line;
+                    break;
+                }
+                try {
+                    Double.parseDouble(m.group(4));
+                } catch (NumberFormatException e) {
+                    error = "line " + lineNo + ": not a number: " + line;
+                    break;
+                }
+            } else {
+                error = "line " + lineNo + ": " + line;
+                break;
+            }
+        }
+        if (error == null && !page.endsWith("\n")) {
+            error = "no newline at the end";
+        }
+        report("format: " + lineNo + " lines", error);
+    }
+
+    // each summary (and each of its label sets) has _sum and _count
+    private static void checkSummaries(String page) {
+        String error = null;
+        int summaries = 0;
+        Matcher m = Pattern.compile("# TYPE (\\S+) summary").matcher(page);
+        while (m.find() && error == null) {
+            summaries++;
+            String name = m.group(1);
+            // the label sets of the quantiles, without the quantile
+            HashSet<String> labels = new HashSet<String>();
+            Matcher q = Pattern.compile("(?m)^" + name + "\\{(.*?),?quantile=\"[^\"]*\"\\}").matcher(page);
+            while (q.find()) {
+                labels.add(q.group(1).isEmpty() ? "" : "{" + q.group(1).replaceAll(",$", "") + "}");
+            }
+            if (labels.isEmpty()) {
+                error = name + " has no quantiles";
+            }
+            for (String l : labels) {
+                for (String suffix : new String[] {"_sum", "_count"}) {
+                    if (!page.contains("\n" + name + suffix + l + " ")) {
+                        error = "no " + name + suffix + l;
+                    }
+                }
+            }
+        }
+        report("summaries: " + summaries, summaries == 0 ? "no summaries" : error);
+    }
+
+    private static void checkValues(String page) {
+        String error = null;
+        if (!page.contains("\nrpg_input_latency_seconds_sum 0.004\n")) {
+            error = "rpg_input_latency_seconds_sum";
+        } else if (!page.contains("\nrpg_input_latency_seconds_count 2\n")) {
+            error = "rpg_input_latency_seconds_count";
+        } else if (!page.contains("\nrpg_frame_phase_seconds_count{phase=\"frame\"} 3\n")) {
+            error = "rpg_frame_phase_seconds_count";
+        } else if (!page.contains("\nrpg_ticks_total 42\n")) {
+            error = "rpg_ticks_total";
+        } else if (!page.contains("\nrpg_game_events_dropped_total 0\n")) {
+            error = "rpg_game_events_dropped_total";
+        }
+        report("values", error);
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.*;
+
+/**
+ * Checks Map.getNearestWalkable() against a search of every tile: the
+ * tile it returns is walkable, has no character on it and is as near
+ * as the nearest such tile, also after characters and tiles change.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. NearestWalkableTest
+ */
+public class NearestWalkableTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        Map map = new Map("map/castle.map", "event/castle.evt", "castle", panel);
+        check("loaded", map);
+
+        // crowd the area around a walkable tile, so that the tile from
+        // the table is taken and the nearest free one has to be searched
+        int[] center = firstWalkable(map);
+        for (int dy = -2; dy <= 2; dy++) {
+            for (int dx = -2; dx <= 2; dx++) {
+                int x = center[0] + dx;
+                int y = center[1] + dy;
+                if (map.isWalkable(x, y) && map.checkCharacter(x, y) == null) {
+                    map.addCharacter(new Character(x, y, 0, 0, 0, map));
+                }
+            }
+        }
+        check("crowded", map);
+
+        // walls change the table
+        for (int x = 0; x < map.getCol(); x++) {
+            map.setTileAt(x, map.getRow() / 2, 1);
+        }
+        check("wall across the map", map);
+
+        // outside the map: the nearest tile inside it
+        String error = null;
+        int tile = map.getNearestWalkable(-5, map.getRow() + 5);
+        int expected = map.getNearestWalkable(0, map.getRow() - 1);
+        if (tile != expected) {
+            error = "got " + tile + ", expected " + expected;
+        }
+        report("outside the map", error);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String name, Map map) {
+        int col = map.getCol();
+        String error = null;
+        for (int y = 0; y < map.getRow() && error == null; y++) {
+            for (int x = 0; x < col && error == null; x++) {
+                int tile = map.getNearestWalkable(x, y);
+                int tx = tile % col;
+                int ty = tile / col;
+                int nearest = nearestFreeDistance(map, x, y);
+                if (tile == -1 || !map.isWalkable(tx, ty) || map.checkCharacter(tx, ty) != null) {
+                    error = "(" + x + ", " + y + ") -> " + tile + " is not a free walkable tile";
+                } else if (Math.abs(tx - x) + Math.abs(ty - y) != nearest) {
+                    error = "(" + x + ", " + y + ") -> (" + tx + ", " + ty + "), but a free tile is "
+                            + nearest + " tiles away";
+                }
+            }
+        }
+        report(name, error);
+    }
+
+    // the distance to the nearest walkable tile with no character, by
+    // looking at every tile
+    private static int nearestFreeDistance(Map map, int x, int y) {
+        int nearest = Integer.MAX_VALUE;
+        for (int ty = 0; ty < map.getRow(); ty++) {
+            for (int tx = 0; tx < map.getCol(); tx++) {
+                if (map.isWalkable(tx, ty) && map.checkCharacter(tx, ty) == null) {
+                    nearest = Math.min(nearest, Math.abs(tx - x) + Math.abs(ty - y));
+                }
+            }
+        }
+        return nearest;
+    }
+
+    private static int[] firstWalkable(Map map) {
+        for (int y = 2; y < map.getRow(); y++) {
+            for (int x = 2; x < map.getCol(); x++) {
+                if (map.isWalkable(x, y)) {
+                    return new int[] {x, y};
+                }
+            }
+        }
+        throw new IllegalStateException("no walkable tile");
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
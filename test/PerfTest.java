@@ -0,0 +1,275 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Performance regression gates.
+ * Runs headless scenarios, writes their throughput and latency
+ * percentiles to logs/perf_results.properties and fails if a metric is
+ * worse than test/perf_baseline.properties by more than the tolerance.
+ * Each scenario runs a few rounds and the median round is recorded. A
+ * failing run is measured once more before the test fails, so that a
+ * busy moment of the machine does not fail it.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. PerfTest
+ *
+ * -Dperf.tolerance=0.5      allowed regression (0.5 = 50%)
+ * -Dperf.wallTolerance=1.0  allowed regression of wall-clock times (*.ms),
+ *                           which include class loading and GC
+ * -Dperf.update=true        write the results as the new baseline
+ */
+public class PerfTest {
+    private static final String RESULTS_FILE = "test/logs/perf_results.properties";
+    private static final String BASELINE_FILE = "test/perf_baseline.properties";
+
+    // generated world of the simulation and render scenarios
+    private static final String WORLD = "perf";
+    private static final String[] WORLD_OPTIONS = {
+        "--seed", "1", "--size", "512x512", "--maps", "1",
+        "--characters", "2000", "--treasures", "2000", "--doors", "50", "--warps", "20",
+        "--name", WORLD
+    };
+
+    private static final int LOAD_WARMUP = 5;
+    private static final int LOADS = 10;
+    private static final int TICK_WARMUP = 2000;
+    private static final int TICKS = 10000;
+    private static final int RENDER_WARMUP = 300;
+    private static final int RENDERS = 1000;
+    // sprites drawn per op of the sprite scenario
+    private static final int SPRITES = 256;
+    private static final int ROUNDS = 5;
+    // runs before the test fails
+    private static final int ATTEMPTS = 2;
+    // an autosave may take at most 1 ms of the game loop, whatever the baseline
+    private static final double MAX_AUTOSAVE_US = 1000;
+
+    // results in the order they were measured
+    private static LinkedHashMap<String, Double> results = new LinkedHashMap<String, Double>();
+
+    public static void main(String[] args) throws IOException {
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.5"));
+        double wallTolerance = Double.parseDouble(System.getProperty("perf.wallTolerance", "1.0"));
+
+        // write the world next to the test classes, so that Map finds it on the class path
+        File classes = new File(PerfTest.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+        String[] options = Arrays.copyOf(WORLD_OPTIONS, WORLD_OPTIONS.length + 2);
+        options[options.length - 2] = "--out";
+        options[options.length - 1] = classes.getPath();
+        WorldGenerator.main(options);
+
+        boolean ok = false;
+        for (int attempt = 1; attempt <= ATTEMPTS && !ok; attempt++) {
+            if (attempt > 1) {
+                System.out.println("measuring again");
+            }
+            results.clear();
+            runScenarios();
+            writeResults(RESULTS_FILE, false);
+            if (Boolean.getBoolean("perf.update")) {
+                writeResults(BASELINE_FILE, true);
+                System.out.println("baseline updated: " + BASELINE_FILE);
+                System.exit(0);
+            }
+            ok = compare(tolerance, wallTolerance);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void runScenarios() {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+        loadScenario(panel);
+
+        // the median of a few loads, like the other scenarios
+        config.world = WORLD;
+        MainPanel worldPanel = null;
+        double[] worldLoads = new double[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            worldPanel = new MainPanel(config);
+            worldLoads[round] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(worldLoads);
+        results.put("world_load.ms", worldLoads[ROUNDS / 2]);
+        tickScenario(worldPanel);
+        renderScenario(worldPanel);
+        pipelineScenario(worldPanel);
+        autosaveScenario(worldPanel);
+        spriteScenario();
+    }
+
+    // load the bundled maps
+    private static void loadScenario(final MainPanel panel) {
+        measure("load", LOAD_WARMUP, LOADS, null, () -> {
+            new Map("map/castle.map", "event/castle.evt", "castle", panel);
+            new Map("map/field.map", "event/field.evt", "field", panel);
+            new Map("map/cave.map", "event/cave.evt", "cave", panel);
+            new Map("map/village.map", "event/village.evt", "village", panel);
+        });
+    }
+
+    // game logic with many wandering characters
+    private static void tickScenario(MainPanel panel) {
+        measure("tick", TICK_WARMUP, TICKS, null, panel::tick);
+    }
+
+    // offscreen rendering (the world moves between frames)
+    private static void renderScenario(MainPanel panel) {
+        measure("render", RENDER_WARMUP, RENDERS, panel::tick, panel::gameRender);
+    }
+
+    // game logic while the render thread draws the snapshots. with two
+    // cores, a frame costs about max(tick, render) instead of tick + render.
+    private static void pipelineScenario(MainPanel panel) {
+        panel.startRenderThread();
+        measure("pipeline", RENDER_WARMUP, RENDERS, null, () -> {
+            panel.tick();
+            panel.publishFrame();
+        });
+        panel.stopRenderThread();
+    }
+
+    // the part of an autosave on the game loop: taking the snapshot
+    // (encoding and writing it are on the AutoSaver thread)
+    private static void autosaveScenario(MainPanel panel) {
+        Path path;
+        try {
+            path = Files.createTempFile("perf", ".sav");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        path.toFile().deleteOnExit();
+        AutoSaver saver = new AutoSaver(path);
+        saver.prepare(panel);
+        measure("autosave", RENDER_WARMUP, RENDERS, panel::tick, () -> saver.save(panel));
+    }
+
+    // SPRITES characters with all their frames, drawn over nothing, so
+    // that only the cost of drawing sprites is measured
+    private static void spriteScenario() {
+        RenderSnapshot s = new RenderSnapshot();
+        s.setTileArea(0, 0, 0, 0);
+        for (int i = 0; i < SPRITES; i++) {
+            // character.gif has 3 characters
+            int frame = SpriteFrames.getCharacterFrame(i % 3, (i / 3) % 4, (i / 12) % 2);
+            s.addSprite((i * 37) % (MainPanel.WIDTH - Common.CS),
+                        (i * 53) % (MainPanel.HEIGHT - Common.CS), frame);
+        }
+        BufferedImage image = new BufferedImage(MainPanel.WIDTH, MainPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        ChunkCache chunks = new ChunkCache();
+        measure("sprites", RENDER_WARMUP, RENDERS, null, () -> s.drawWorld(g, null, chunks));
+    }
+
+    // time op count times (after warmup) in a few rounds and record the
+    // median round, so that neither a busy nor a lucky moment of the
+    // machine decides the result
+    private static void measure(String scenario, int warmup, int count,
+                                Runnable before, Runnable op) {
+        for (int i = 0; i < warmup; i++) {
+            if (before != null) {
+                before.run();
+            }
+            op.run();
+        }
+        long[][] rounds = new long[ROUNDS][];
+        long[] totals = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long[] samples = new long[count];
+            for (int i = 0; i < count; i++) {
+                if (before != null) {
+                    before.run();
+                }
+                long start = System.nanoTime();
+                op.run();
+                samples[i] = System.nanoTime() - start;
+                totals[round] += samples[i];
+            }
+            rounds[round] = samples;
+        }
+        // the round with the median total
+        Integer[] order = new Integer[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            order[round] = round;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(totals[a], totals[b]));
+        int median = order[ROUNDS / 2];
+        long[] samples = rounds[median];
+        Arrays.sort(samples);
+        results.put(scenario + ".ops_per_sec", count / (totals[median] / 1e9));
+        results.put(scenario + ".p50_us", percentile(samples, 50) / 1e3);
+        results.put(scenario + ".p99_us", percentile(samples, 99) / 1e3);
+        results.put(scenario + ".max_us", samples[samples.length - 1] / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int)Math.ceil(sorted.length * p / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    // p99 and max depend too much on the other processes of the machine
+    // to be in the baseline (they are still in the results)
+    private static void writeResults(String filename, boolean isBaseline) throws IOException {
+        new File(filename).getParentFile().mkdirs();
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename))) {
+            out.println("# PerfTest results (" + System.getProperty("java.version") + ", "
+                        + Runtime.getRuntime().availableProcessors() + " cpus)");
+            for (java.util.Map.Entry<String, Double> e : results.entrySet()) {
+                if (isBaseline && (e.getKey().endsWith(".p99_us") || e.getKey().endsWith(".max_us"))) {
+                    continue;
+                }
+                out.println(e.getKey() + "=" + String.format(Locale.ROOT, "%.1f", e.getValue()));
+            }
+        }
+    }
+
+    // ops_per_sec must not drop and *_us must not grow by more than the
+    // tolerance, *.ms not by more than the wall-clock tolerance. metrics
+    // missing from the baseline are not checked. the autosave must also
+    // stay under MAX_AUTOSAVE_US.
+    private static boolean compare(double tolerance, double wallTolerance) throws IOException {
+        Properties baseline = new Properties();
+        try (Reader in = new FileReader(BASELINE_FILE)) {
+            baseline.load(in);
+        } catch (FileNotFoundException e) {
+            System.out.println("no baseline (" + BASELINE_FILE + "), run with -Dperf.update=true");
+            return true;
+        }
+
+        boolean ok = true;
+        for (java.util.Map.Entry<String, Double> e : results.entrySet()) {
+            String base = baseline.getProperty(e.getKey());
+            if (base == null) {
+                continue;
+            }
+            double expected = Double.parseDouble(base);
+            double actual = e.getValue();
+            boolean higherIsBetter = e.getKey().endsWith("ops_per_sec");
+            double allowed = e.getKey().endsWith(".ms") ? wallTolerance : tolerance;
+            boolean pass = higherIsBetter ? actual >= expected * (1 - allowed)
+                                          : actual <= expected * (1 + allowed);
+            System.out.println(String.format(Locale.ROOT, "%-22s %12.1f (baseline %12.1f) %s",
+                               e.getKey(), actual, expected, pass ? "OK" : "NG"));
+            if (!pass) {
+                ok = false;
+            }
+        }
+        Double autosave = results.get("autosave.p50_us");
+        if (autosave != null) {
+            boolean pass = autosave <= MAX_AUTOSAVE_US;
+            System.out.println(String.format(Locale.ROOT, "%-22s %12.1f (limit    %12.1f) %s",
+                               "autosave.p50_us", autosave, MAX_AUTOSAVE_US, pass ? "OK" : "NG"));
+            if (!pass) {
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "PASSED" : "FAILED");
+        return ok;
+    }
+}
@@ -0,0 +1,164 @@
+import java.awt.event.KeyEvent;
+import java.util.Random;
+
+/**
+ * Checks the update/render thread split.
+ * 1. The render buffer always hands the reader a whole, newer snapshot
+ *    while a writer thread publishes as fast as it can.
+ * 2. The game plays the same with the render thread as without it:
+ *    the same input gives the same world checksum.
+ * 3. A quick tap between two ticks is not lost, and the time from the
+ *    key press to the first presented frame showing it is recorded.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. PipelineTest
+ */
+public class PipelineTest {
+    private static final int SNAPSHOTS = 2000000;
+    private static final int TICKS = 5000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        checkRenderBuffer();
+        checkDeterminism();
+        checkInputLatency();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // the writer fills every field of a snapshot with the same number
+    private static void checkRenderBuffer() throws InterruptedException {
+        final RenderBuffer buffer = new RenderBuffer();
+        Thread writer = new Thread(() -> {
+            for (int n = 1; n <= SNAPSHOTS; n++) {
+                RenderSnapshot s = buffer.getBack();
+                s.tick = n;
+                s.offsetX = n;
+                s.offsetY = n;
+                s.heroX = n;
+                s.numSprites = 0;
+                s.addSprite(n, n, n);
+                buffer.publish();
+            }
+        });
+        writer.start();
+
+        long last = 0;
+        long taken = 0;
+        String error = null;
+        while (last < SNAPSHOTS && error == null) {
+            RenderSnapshot s = buffer.take();
+            long n = s.tick;
+            if (n == 0) {
+                continue;
+            }
+            if (n < last) {
+                error = "snapshot " + n + " after " + last;
+            } else if (s.offsetX != n || s.offsetY != n || s.heroX != n
+                       || s.numSprites != 1 || s.spriteX[0] != n || s.spriteFrame[0] != n) {
+                error = "torn snapshot " + n;
+            }
+            if (n != last) {
+                taken++;
+            }
+            last = n;
+        }
+        writer.join();
+        report("render buffer: " + taken + " snapshots taken", error);
+    }
+
+    private static void checkDeterminism() {
+        long serial = play(false);
+        long pipelined = play(true);
+        report("serial checksum " + Long.toHexString(serial)
+               + ", pipelined checksum " + Long.toHexString(pipelined),
+               serial == pipelined ? null : "checksums differ");
+    }
+
+    // walk and talk at random (the same input every time) and return the checksum
+    private static long play(boolean renderThread) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+        if (renderThread) {
+            panel.startRenderThread();
+        }
+
+        Random input = new Random(7);
+        int[] keys = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP,
+                      KeyEvent.VK_DOWN, KeyEvent.VK_SPACE};
+        int key = keys[0];
+        for (int i = 0; i < TICKS; i++) {
+            // hold a random key for 8 ticks every 16 ticks
+            if (i % 16 == 0) {
+                key = keys[input.nextInt(keys.length)];
+                panel.keyPressed(keyEvent(panel, KeyEvent.KEY_PRESSED, key));
+            } else if (i % 16 == 8) {
+                panel.keyReleased(keyEvent(panel, KeyEvent.KEY_RELEASED, key));
+            }
+            panel.tick();
+            if (renderThread) {
+                panel.publishFrame();
+            } else {
+                panel.gameRender();
+            }
+        }
+
+        if (renderThread) {
+            panel.stopRenderThread();
+            long rendered = panel.getRenderedTick();
+            report("render thread drew up to tick " + rendered,
+                   rendered > 0 && rendered <= TICKS ? null : "bad rendered tick");
+        }
+        return panel.getStateChecksum();
+    }
+
+    private static void checkInputLatency() {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+        panel.startRenderThread();
+        int heroX = panel.getHero().getX();
+
+        // press and release before the next tick
+        long start = System.nanoTime();
+        panel.keyPressed(keyEvent(panel, KeyEvent.KEY_PRESSED, KeyEvent.VK_RIGHT));
+        panel.keyReleased(keyEvent(panel, KeyEvent.KEY_RELEASED, KeyEvent.VK_RIGHT));
+        // a step takes CS / SPEED = 8 ticks
+        for (int tick = 1; tick <= 16; tick++) {
+            panel.tick();
+            panel.publishFrame();
+            while (panel.getRenderedTick() < tick) {
+                Thread.yield();
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1000;
+        panel.stopRenderThread();
+
+        Histogram latency = panel.getInputLatency();
+        String error = null;
+        if (panel.getHero().getX() != heroX + 1) {
+            error = "the tap was lost";
+        } else if (latency.getCount() != 1) {
+            error = latency.getCount() + " latencies recorded";
+        } else if (latency.getMax() <= 0 || latency.getMax() > elapsed) {
+            error = "latency out of range";
+        }
+        report("input latency " + latency.getMax() + "us", error);
+    }
+
+    private static KeyEvent keyEvent(MainPanel panel, int id, int keyCode) {
+        return new KeyEvent(panel, id, 0, 0, keyCode, KeyEvent.CHAR_UNDEFINED);
+    }
+
+    private static void report(String message, String error) {
+        System.out.println(message + (error == null ? " OK" : " NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks dirty-region rendering.
+ * 1. Redrawing only the changed parts gives the same pixels as redrawing
+ *    the whole screen (--full-redraw), frame by frame, while walking,
+ *    talking, scrolling and warping.
+ * 2. While a message window waits for SPACE, most frames redraw nothing.
+ * 3. The HUD panels are rendered again only when what they show changes.
+ * 4. The minimap, updated only where tiles, events or characters change,
+ *    shows the same colors as one built from scratch, also when the
+ *    renderer skips snapshots.
+ * 5. The characters on the screen are drawn from the back to the front
+ *    (sorted by y), and the ones off the screen are not drawn.
+ * 6. A generated world with decoration and overlay layers gives the same
+ *    pixels as in 1, and the tiles drawn from the cached chunks are the
+ *    same as the chips of all the layers drawn one by one.
+ * 7. Only the animated tiles whose frame changes are redrawn, and they
+ *    show the frame of the tick.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. RenderTest
+ */
+public class RenderTest {
+    private static final int TICKS = 3000;
+    private static final int IDLE_TICKS = 300;
+
+    // generated world with layers
+    private static final String WORLD = "layers";
+    private static final String[] WORLD_OPTIONS = {
+        "--seed", "1", "--size", "64x64", "--maps", "2",
+        "--characters", "40", "--treasures", "20", "--doors", "4", "--warps", "4",
+        "--decorations", "800", "--overlays", "300", "--name", WORLD
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        MainPanel dirty = createPanel(false, null);
+        MainPanel full = createPanel(true, null);
+        checkSamePixels(dirty, full, "same pixels");
+        checkIdle(dirty);
+        checkHud(dirty);
+        checkMinimap();
+        checkSpriteOrder();
+        checkLayers();
+        checkAnimatedTiles();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static MainPanel createPanel(boolean fullRedraw, String world) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        config.fullRedraw = fullRedraw;
+        config.world = world;
+        return new MainPanel(config);
+    }
+
+    // play both panels with the same input and compare every frame
+    private static void checkSamePixels(MainPanel dirty, MainPanel full, String label) {
+        int[] a = new int[MainPanel.WIDTH * MainPanel.HEIGHT];
+        int[] b = new int[MainPanel.WIDTH * MainPanel.HEIGHT];
+        Random input = new Random(5);
+        int[] keys = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP,
+                      KeyEvent.VK_DOWN, KeyEvent.VK_SPACE};
+        int key = keys[0];
+        long redrawn = 0;
+        // with the minimap
+        press(dirty, KeyEvent.VK_M, true);
+        press(full, KeyEvent.VK_M, true);
+        String error = null;
+        for (int i = 0; i < TICKS && error == null; i++) {
+            if (i == TICKS / 3) {
+                // the field scrolls
+                dirty.warp(1, 20, 20);
+                full.warp(1, 20, 20);
+            } else if (i == TICKS * 2 / 3) {
+                dirty.warp(0, 6, 6);
+                full.warp(0, 6, 6);
+            }
+            if (i % 16 == 0) {
+                key = keys[input.nextInt(keys.length)];
+                press(dirty, key, true);
+                press(full, key, true);
+            } else if (i % 16 == 8) {
+                press(dirty, key, false);
+                press(full, key, false);
+            }
+            dirty.tick();
+            full.tick();
+            dirty.gameRender();
+            full.gameRender();
+            redrawn += dirty.getRedrawnTiles();
+
+            getPixels(dirty, a);
+            getPixels(full, b);
+            for (int p = 0; p < a.length; p++) {
+                if (a[p] != b[p]) {
+                    error = "frame " + i + " differs at (" + (p % MainPanel.WIDTH)
+                        + "," + (p / MainPanel.WIDTH) + ")";
+                    break;
+                }
+            }
+        }
+        report(label + " (" + redrawn + " tiles redrawn in " + TICKS + " frames)", error);
+    }
+
+    // wait for SPACE in front of a message
+    private static void checkIdle(MainPanel panel) {
+        panel.showMessage("WAITING FOR SPACE");
+        for (int i = 0; i < 100; i++) {
+            panel.tick();
+            panel.gameRender();
+        }
+        int idle = 0;
+        for (int i = 0; i < IDLE_TICKS; i++) {
+            panel.tick();
+            panel.gameRender();
+            if (panel.getRedrawnTiles() == 0) {
+                idle++;
+            }
+        }
+        // only the animation of the characters changes now and then
+        report(idle + " of " + IDLE_TICKS + " frames redrew nothing",
+               idle >= IDLE_TICKS * 9 / 10 ? null : "too few idle frames");
+    }
+
+    // the hero stands still (the message is still open)
+    private static void checkHud(MainPanel panel) {
+        Hud hud = panel.getHud();
+        int before = hud.getRenderCount();
+        for (int i = 0; i < IDLE_TICKS; i++) {
+            panel.tick();
+            panel.gameRender();
+        }
+        int idle = hud.getRenderCount() - before;
+        panel.getHero().addToInventory("HUD TEST");
+        panel.tick();
+        panel.gameRender();
+        int changed = hud.getRenderCount() - before - idle;
+        report("HUD rendered " + idle + " times while idle, " + changed + " after a new item",
+               idle == 0 && changed == 1 ? null : "unexpected renders");
+    }
+
+    // walk around and warp, drawing every 5th snapshot only
+    private static void checkMinimap() {
+        MainPanel panel = createPanel(false, null);
+        press(panel, KeyEvent.VK_M, true);
+        Random input = new Random(9);
+        int[] keys = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP, KeyEvent.VK_DOWN};
+        int key = keys[0];
+        String error = null;
+        for (int i = 0; i < TICKS && error == null; i++) {
+            if (i % 1000 == 500) {
+                panel.warp(i / 1000 % 2, 10, 10);
+            }
+            if (i % 16 == 0) {
+                key = keys[input.nextInt(keys.length)];
+                press(panel, key, true);
+            } else if (i % 16 == 8) {
+                press(panel, key, false);
+            }
+            panel.tick();
+            if (i % 5 == 4) {
+                panel.gameRender();
+                error = compareMinimap(panel);
+                if (error != null) {
+                    error = "frame " + i + ": " + error;
+                }
+            } else {
+                panel.publishFrame();
+            }
+        }
+        report("minimap", error);
+    }
+
+    private static String compareMinimap(MainPanel panel) {
+        Map map = panel.getCurrentMap();
+        Minimap minimap = map.getMinimap();
+        MinimapPanel drawn = panel.getMinimapPanel();
+        for (int y = 0; y < map.getRow(); y++) {
+            for (int x = 0; x < map.getCol(); x++) {
+                int expected = minimap.colorAt(x, y);
+                if (minimap.getColor(x, y) != expected) {
+                    return "the map's colors differ at (" + x + "," + y + ")";
+                }
+                if (drawn.getColor(x, y) != expected) {
+                    return "the drawn colors differ at (" + x + "," + y + ")";
+                }
+            }
+        }
+        return null;
+    }
+
+    // NPCs wander on the field while the view moves over it
+    private static void checkSpriteOrder() {
+        MainPanel panel = createPanel(false, null);
+        panel.warp(1, 20, 20);
+        Map map = panel.getCurrentMap();
+        RenderSnapshot s = new RenderSnapshot();
+        String error = null;
+        int drawn = 0;
+        for (int i = 0; i < TICKS && error == null; i++) {
+            panel.tick();
+            int offsetX = (i * 7) % (map.getWidth() - MainPanel.WIDTH);
+            int offsetY = (i * 3) % (map.getHeight() - MainPanel.HEIGHT);
+            map.capture(s, offsetX, offsetY);
+
+            int numCharacters = 0;
+            int lastX = Integer.MIN_VALUE;
+            int lastY = Integer.MIN_VALUE;
+            for (int j = 0; j < s.numSprites; j++) {
+                if (!SpriteFrames.isCharacterFrame(s.spriteFrame[j])) {
+                    continue;
+                }
+                int x = s.spriteX[j];
+                int y = s.spriteY[j];
+                if (y < lastY || (y == lastY && x < lastX)) {
+                    error = "tick " + i + ": (" + x + "," + y + ") after (" + lastX + "," + lastY + ")";
+                }
+                lastX = x;
+                lastY = y;
+                numCharacters++;
+            }
+
+            int visible = 0;
+            for (Character c : map.getCharacters()) {
+                int x = c.getPX() - offsetX;
+                int y = c.getPY() - offsetY;
+                if (x > -Common.CS && x < MainPanel.WIDTH && y > -Common.CS && y < MainPanel.HEIGHT) {
+                    visible++;
+                }
+            }
+            if (error == null && numCharacters != visible) {
+                error = "tick " + i + ": " + numCharacters + " characters drawn, " + visible + " visible";
+            }
+            drawn += numCharacters;
+        }
+        report("sprite order (" + drawn + " characters drawn)", error);
+    }
+
+    private static void checkLayers() throws IOException {
+        // write the world next to the test classes, so that Map finds it on the class path
+        File classes = new File(RenderTest.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+        String[] options = Arrays.copyOf(WORLD_OPTIONS, WORLD_OPTIONS.length + 2);
+        options[options.length - 2] = "--out";
+        options[options.length - 1] = classes.getPath();
+        WorldGenerator.main(options);
+
+        MainPanel dirty = createPanel(false, WORLD);
+        MainPanel full = createPanel(true, WORLD);
+        checkSamePixels(dirty, full, "same pixels with layers");
+
+        // pan over the map, so that chunks are composited again and reused
+        Map map = dirty.getCurrentMap();
+        RenderSnapshot s = new RenderSnapshot();
+        ChunkCache chunks = new ChunkCache();
+        BufferedImage cached = new BufferedImage(MainPanel.WIDTH, MainPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        BufferedImage direct = new BufferedImage(MainPanel.WIDTH, MainPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        String error = null;
+        for (int i = 0; i < TICKS / 10 && error == null; i++) {
+            dirty.tick();
+            int offsetX = (i * 37) % (map.getWidth() - MainPanel.WIDTH);
+            int offsetY = (i * 23) % (map.getHeight() - MainPanel.HEIGHT);
+            map.capture(s, offsetX, offsetY);
+            s.offsetX = offsetX;
+            s.offsetY = offsetY;
+            s.tick = i * 5;
+            s.drawWorld(cached.getGraphics(), null, chunks);
+            drawLayers(s, direct.getGraphics());
+            error = compare(cached, direct, i);
+        }
+        report("layers from chunks (" + chunks.getCompositedCount() + " tiles composited)", error);
+    }
+
+    // the sea of the field with nothing else moving: draw the whole screen
+    // once, then only the dirty tiles tick by tick
+    private static void checkAnimatedTiles() {
+        MainPanel panel = createPanel(false, null);
+        panel.warp(1, 20, 20);
+        Map map = panel.getCurrentMap();
+        RenderSnapshot s = new RenderSnapshot();
+        map.capture(s, 0, 0);
+        ChunkCache chunks = new ChunkCache();
+        DirtyRegion dirty = new DirtyRegion();
+        BufferedImage cached = new BufferedImage(MainPanel.WIDTH, MainPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        BufferedImage direct = new BufferedImage(MainPanel.WIDTH, MainPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        s.drawWorld(cached.getGraphics(), null, chunks);
+
+        String error = null;
+        long redrawn = 0;
+        for (int tick = 1; tick < 200 && error == null; tick++) {
+            s.tick = tick;
+            // the animated tiles whose frame has changed since the last tick
+            int expected = 0;
+            for (int i = 0; i < s.tileCols * s.tileRows; i++) {
+                if (AnimatedChips.getFrameKey(s.tiles[i], tick) != AnimatedChips.getFrameKey(s.tiles[i], tick - 1)) {
+                    expected++;
+                }
+            }
+            dirty.reset(s);
+            chunks.markAnimated(s, dirty);
+            if (dirty.getDirtyCount() != expected) {
+                error = "tick " + tick + ": " + dirty.getDirtyCount() + " tiles dirty, " + expected + " animated";
+                break;
+            }
+            redrawn += expected;
+            s.markOverlappingSprites(dirty);
+            s.drawWorld(cached.getGraphics(), dirty, chunks);
+            drawLayers(s, direct.getGraphics());
+            error = compare(cached, direct, tick);
+        }
+        if (error == null && redrawn == 0) {
+            error = "no animated tiles";
+        }
+        report("animated tiles (" + redrawn + " tiles redrawn in 200 ticks)", error);
+    }
+
+    // the first pixel that differs (null: none)
+    private static String compare(BufferedImage a, BufferedImage b, int frame) {
+        int[] pa = a.getRGB(0, 0, MainPanel.WIDTH, MainPanel.HEIGHT, null, 0, MainPanel.WIDTH);
+        int[] pb = b.getRGB(0, 0, MainPanel.WIDTH, MainPanel.HEIGHT, null, 0, MainPanel.WIDTH);
+        for (int p = 0; p < pa.length; p++) {
+            if (pa[p] != pb[p]) {
+                return "frame " + frame + " differs at (" + (p % MainPanel.WIDTH)
+                    + "," + (p / MainPanel.WIDTH) + ")";
+            }
+        }
+        return null;
+    }
+
+    // white, the tile, the decoration (the frames at the tick), the
+    // sprites and the overlay, one by one
+    private static void drawLayers(RenderSnapshot s, Graphics g) {
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, MainPanel.WIDTH, MainPanel.HEIGHT);
+        for (int i = 0; i < s.tileRows; i++) {
+            for (int j = 0; j < s.tileCols; j++) {
+                int key = s.tiles[i * s.tileCols + j];
+                key = AnimatedChips.getFrameKey(key, s.tick);
+                drawChip(s, g, j, i, RenderSnapshot.getChip(key));
+                drawChip(s, g, j, i, RenderSnapshot.getDecoration(key));
+            }
+        }
+        for (int i = 0; i < s.numSprites; i++) {
+            drawCell(g, s.spriteFrame[i], s.spriteX[i], s.spriteY[i]);
+        }
+        for (int i = 0; i < s.tileRows; i++) {
+            for (int j = 0; j < s.tileCols; j++) {
+                drawChip(s, g, j, i, s.overlays[i * s.tileCols + j]);
+            }
+        }
+    }
+
+    private static void drawChip(RenderSnapshot s, Graphics g, int col, int row, int chip) {
+        if (chip < 0) {
+            return;
+        }
+        drawCell(g, SpriteFrames.getChipFrame(chip),
+                 (s.firstTileX + col) * Common.CS - s.offsetX, (s.firstTileY + row) * Common.CS - s.offsetY);
+    }
+
+    // the whole cell of the frame, not only the part that is not transparent
+    private static void drawCell(Graphics g, int frame, int x, int y) {
+        int cs = Common.CS;
+        int sx = SpriteFrames.getCellX(frame);
+        int sy = SpriteFrames.getCellY(frame);
+        g.drawImage(SpriteFrames.getImage(), x, y, x + cs, y + cs, sx, sy, sx + cs, sy + cs, null);
+    }
+
+    private static void getPixels(MainPanel panel, int[] pixels) {
+        BufferedImage image = (BufferedImage)panel.getFrameImage();
+        image.getRGB(0, 0, MainPanel.WIDTH, MainPanel.HEIGHT, pixels, 0, MainPanel.WIDTH);
+    }
+
+    private static void press(MainPanel panel, int keyCode, boolean pressed) {
+        KeyEvent e = new KeyEvent(panel, pressed ? KeyEvent.KEY_PRESSED : KeyEvent.KEY_RELEASED,
+                                  0, 0, keyCode, KeyEvent.CHAR_UNDEFINED);
+        if (pressed) {
+            panel.keyPressed(e);
+        } else {
+            panel.keyReleased(e);
+        }
+    }
+
+    private static void report(String message, String error) {
+        System.out.println(message + (error == null ? " OK" : " NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
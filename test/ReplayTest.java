@@ -0,0 +1,120 @@
+import java.awt.event.KeyEvent;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that a recorded session plays back exactly: the input of a
+ * headless session is recorded with its seed, and the replay (with
+ * another seed in the config) runs the same number of frames and ends in
+ * the same world. A file that is not a recording is rejected.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. ReplayTest
+ */
+public class ReplayTest {
+    private static final int TICKS = 3000;
+    private static final int[] KEYS = {
+        KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_UP, KeyEvent.VK_DOWN, KeyEvent.VK_SPACE
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Path path = Files.createTempFile("session", ".rec");
+        path.toFile().deleteOnExit();
+
+        long recorded = record(path);
+        checkReplay(path, recorded);
+        checkRejected();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // walk around at random, pressing the action key now and then
+    private static long record(Path path) throws IOException {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 7;
+        config.recordFile = path.toString();
+        MainPanel panel = new MainPanel(config);
+
+        Random rand = new Random(1);
+        int key = KEYS[0];
+        for (int i = 0; i < TICKS; i++) {
+            if (rand.nextInt(20) == 0) {
+                setKey(panel, key, false);
+                key = KEYS[rand.nextInt(KEYS.length)];
+                setKey(panel, key, true);
+            }
+            panel.tick();
+        }
+        setKey(panel, key, false);
+        panel.closeSession();
+
+        long checksum = panel.getStateChecksum();
+        // runs of the same input, not a byte per frame
+        long size = Files.size(path);
+        report("record: " + size + " bytes", size < TICKS / 2 ? null : "not run-length coded");
+        return checksum;
+    }
+
+    private static void checkReplay(Path path, long expected) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        config.replayFile = path.toString();
+        config.replaySpeed = 0;
+        MainPanel panel = new MainPanel(config);
+
+        // the last tick finds the end of the session
+        int ticks = 0;
+        while (panel.isRunning() && ticks <= TICKS + 1) {
+            panel.tick();
+            ticks++;
+        }
+        String error = null;
+        if (ticks != TICKS + 1) {
+            error = "played " + (ticks - 1) + " frames, recorded " + TICKS;
+        } else if (panel.getStateChecksum() != expected) {
+            error = "checksum " + Long.toHexString(panel.getStateChecksum())
+                    + ", recorded " + Long.toHexString(expected);
+        }
+        report("replay", error);
+    }
+
+    private static void checkRejected() throws IOException {
+        Path path = Files.createTempFile("session", ".rec");
+        path.toFile().deleteOnExit();
+        Files.write(path, "NOT A RECORDING".getBytes("UTF-8"));
+
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.replayFile = path.toString();
+        String error = "replayed";
+        try {
+            new MainPanel(config);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage().startsWith("cannot replay") ? null : "message: " + e.getMessage();
+        }
+        report("rejected", error);
+    }
+
+    private static void setKey(MainPanel panel, int keyCode, boolean pressed) {
+        KeyEvent e = new KeyEvent(panel, pressed ? KeyEvent.KEY_PRESSED : KeyEvent.KEY_RELEASED,
+                                  0, 0, keyCode, KeyEvent.CHAR_UNDEFINED);
+        if (pressed) {
+            panel.keyPressed(e);
+        } else {
+            panel.keyReleased(e);
+        }
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
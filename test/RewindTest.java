@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Checks that the snapshots in RewindBuffer decode to what was captured
+ * (key frames, deltas, and after the oldest are dropped for memory), and
+ * that no snapshot is added while the buffer is scrubbed through.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. RewindTest
+ */
+public class RewindTest {
+    private static final int SNAPSHOTS = 80;
+    // ticks between snapshots, so that the NPCs move in between
+    private static final int PERIOD = 5;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        checkCodec(panel, "all kept", Long.MAX_VALUE);
+        // room for a few key frames: the oldest are dropped
+        checkCodec(panel, "oldest dropped", 4 * 1024);
+        checkHold(panel);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // every snapshot left decodes to the bytes of the world at its tick
+    private static void checkCodec(MainPanel panel, String name, long maxMemory) throws Exception {
+        RewindBuffer buffer = new RewindBuffer(maxMemory);
+        HashMap<Long, byte[]> expected = new HashMap<Long, byte[]>();
+        long tick = 0;
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            for (int j = 0; j < PERIOD; j++) {
+                panel.tick();
+            }
+            tick += PERIOD;
+            expected.put(tick, bytes(panel.takeSnapshot()));
+            buffer.capture(panel, tick);
+            // wait for the encoder, which skips snapshots when it is behind
+            waitFor(buffer, tick);
+        }
+
+        String error = null;
+        if (buffer.getTick(buffer.size() - 1) != tick) {
+            error = "last tick " + buffer.getTick(buffer.size() - 1);
+        }
+        for (int i = 0; i < buffer.size() && error == null; i++) {
+            byte[] b = bytes(buffer.get(i));
+            if (!Arrays.equals(b, expected.get(buffer.getTick(i)))) {
+                error = "snapshot " + i + " (tick " + buffer.getTick(i) + ") differs";
+            }
+        }
+        if (maxMemory != Long.MAX_VALUE && buffer.size() == SNAPSHOTS) {
+            error = "nothing dropped";
+        }
+        report("codec, " + name + ": " + buffer.size() + " snapshots, "
+               + buffer.getMemory() + " bytes", error);
+    }
+
+    // snapshots captured before scrubbing starts are not added after it
+    private static void checkHold(MainPanel panel) throws Exception {
+        RewindBuffer buffer = new RewindBuffer(4 * 1024);
+        long tick = 0;
+        for (int i = 0; i < 8; i++) {
+            panel.tick();
+            buffer.capture(panel, ++tick);
+        }
+        buffer.hold();
+        int size = buffer.size();
+        long oldest = size > 0 ? buffer.getTick(0) : -1;
+        Thread.sleep(300);
+        String error = null;
+        if (buffer.size() != size || (size > 0 && buffer.getTick(0) != oldest)) {
+            error = "changed while held: " + size + " -> " + buffer.size() + " snapshots";
+        }
+        report("hold", error);
+    }
+
+    private static void waitFor(RewindBuffer buffer, long tick) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (buffer.size() == 0 || buffer.getTick(buffer.size() - 1) != tick) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("snapshot " + tick + " not encoded");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] bytes(WorldSnapshot s) {
+        ByteBuffer buf = SaveGame.encode(s);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
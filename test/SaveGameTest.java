@@ -0,0 +1,124 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that a saved game is read back as it was written, that the
+ * world restored from it plays on exactly as the saved one did, and that
+ * a broken file or one saved from other maps is rejected.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. SaveGameTest
+ */
+public class SaveGameTest {
+    private static final int TICKS = 300;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        // a world that differs from the files: the NPCs have moved, and
+        // an item, a tile and the events have changed
+        for (int i = 0; i < TICKS; i++) {
+            panel.tick();
+        }
+        Map map = panel.getCurrentMap();
+        panel.getHero().addToInventory("SAVED ITEM");
+        map.setTileAt(1, 1, 5);
+        map.removeEvent(map.getEvents().get(0));
+        map.addEvent(new TreasureEvent(2, 2, "ADDED"));
+        map.addEvent(new DoorEvent(3, 2, "ADDED KEY"));
+
+        WorldSnapshot saved = panel.takeSnapshot();
+        saved.flags[3] = true;
+        Path path = Files.createTempFile("savegame", ".sav");
+        path.toFile().deleteOnExit();
+        SaveGame.write(saved, path);
+        long fingerprint = saved.fingerprint;
+        WorldSnapshot read = SaveGame.read(path, fingerprint);
+
+        report("round trip: " + Files.size(path) + " bytes",
+               Arrays.equals(bytes(read), bytes(saved)) ? null : "read another world");
+        report("flags", read.flags[3] && !read.flags[2] ? null : "flags differ");
+
+        checkRestore(panel, read);
+        checkRejected(path, fingerprint);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // play on from the saved world, change it, restore the save and play
+    // on again: both end in the same world
+    private static void checkRestore(MainPanel panel, WorldSnapshot s) {
+        panel.restoreSnapshot(s);
+        long restored = panel.getStateChecksum();
+        for (int i = 0; i < TICKS; i++) {
+            panel.tick();
+        }
+        long expected = panel.getStateChecksum();
+
+        panel.getHero().addToInventory("NOT SAVED");
+        panel.getCurrentMap().setTileAt(1, 2, 1);
+        panel.getCurrentMap().addEvent(new TreasureEvent(4, 4, "NOT SAVED"));
+        panel.restoreSnapshot(s);
+        String error = null;
+        if (panel.getStateChecksum() != restored) {
+            error = "restored another world";
+        }
+        for (int i = 0; i < TICKS; i++) {
+            panel.tick();
+        }
+        if (error == null && panel.getStateChecksum() != expected) {
+            error = "played on differently";
+        }
+        report("restore", error);
+    }
+
+    private static void checkRejected(Path path, long fingerprint) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+
+        expectRejected("other maps", bytes, fingerprint + 1, "saved from other maps");
+
+        byte[] magic = bytes.clone();
+        magic[0] = 'X';
+        expectRejected("not a saved game", magic, fingerprint, "not a saved game");
+
+        // the version follows the magic
+        byte[] version = bytes.clone();
+        version[5]++;
+        expectRejected("version", version, fingerprint, "unsupported version");
+
+        expectRejected("truncated", Arrays.copyOf(bytes, bytes.length / 2), fingerprint,
+                       "broken saved game");
+    }
+
+    private static void expectRejected(String name, byte[] bytes, long fingerprint, String message) {
+        String error = "read";
+        try {
+            SaveGame.decode(ByteBuffer.wrap(bytes), fingerprint);
+        } catch (IOException e) {
+            error = e.getMessage().startsWith(message) ? null : "message: " + e.getMessage();
+        }
+        report("rejected: " + name, error);
+    }
+
+    private static byte[] bytes(WorldSnapshot s) {
+        ByteBuffer buf = SaveGame.encode(s);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
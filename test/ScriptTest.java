@@ -0,0 +1,224 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks the event scripts: what ScriptCompiler compiles, how
+ * ScriptEngine branches on flags and items and runs WIN, and that a
+ * broken script or .evt file stops the load with its file and line.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. ScriptTest
+ */
+public class ScriptTest {
+    private static int failures = 0;
+
+    // records what the scripts do
+    private static class TestHost implements ScriptHost {
+        ArrayList<String> messages = new ArrayList<String>();
+        Character hero = new Character(0, 0, 0, 0, 0, null);
+        boolean won;
+
+        public void showMessage(String message) {
+            messages.add(message);
+        }
+
+        public boolean isMessageVisible() {
+            return false;
+        }
+
+        public void playSound(String name) {
+        }
+
+        public void warp(int mapNo, int x, int y) {
+            messages.add("WARP " + mapNo + " " + x + " " + y);
+        }
+
+        public void win() {
+            won = true;
+        }
+
+        public Character getHero() {
+            return hero;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        checkCompile();
+        checkFlagsPerCompiler();
+        checkBranches();
+        checkWinAndFlags();
+        checkCompileErrors();
+        checkLoadErrors();
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkCompile() {
+        Script script = new ScriptCompiler().compile(lines(
+                "# a comment",
+                "SET,door",
+                "",
+                "MSG,HELLO, WORLD",
+                "GOTO,end",
+                "GIVE,KEY",
+                "LABEL,end",
+                "WARP,1,2,3"), 1, 2);
+        int[] expected = {
+            Script.OP_SET, 0,
+            Script.OP_MSG, 0,
+            Script.OP_GOTO, 8,
+            Script.OP_GIVE, 1,
+            Script.OP_WARP, 1, 2, 3,
+            Script.OP_END
+        };
+        String error = null;
+        if (!Arrays.equals(script.getCode(), expected)) {
+            error = "code " + Arrays.toString(script.getCode());
+        } else if (!Arrays.equals(script.getStrings(), new String[] {"HELLO, WORLD", "KEY"})) {
+            error = "strings " + Arrays.toString(script.getStrings());
+        } else if (!Arrays.equals(script.getWarps(), new int[] {8})) {
+            error = "warps " + Arrays.toString(script.getWarps());
+        }
+        report("compile", error);
+    }
+
+    // the flags of a world are numbered by its compiler, not by another world's
+    private static void checkFlagsPerCompiler() {
+        ScriptCompiler world1 = new ScriptCompiler();
+        ScriptCompiler world2 = new ScriptCompiler();
+        world1.compile(lines("SET,a", "SET,b"), 1, 1);
+        int b = world1.compile(lines("CLEAR,b"), 1, 1).getCode()[1];
+        int c = world2.compile(lines("SET,c"), 1, 1).getCode()[1];
+        report("flags per compiler: b=" + b + " c=" + c,
+               b == 1 && c == 0 ? null : "wrong flag numbers");
+    }
+
+    private static void checkBranches() {
+        ScriptCompiler compiler = new ScriptCompiler();
+        Script door = compiler.compile(lines(
+                "IF,FLAG,open,opened",
+                "IF,NOITEM,KEY,locked",
+                "MSG,OPEN",
+                "SET,open",
+                "END",
+                "LABEL,locked",
+                "MSG,LOCKED",
+                "END",
+                "LABEL,opened",
+                "MSG,ALREADY OPEN"), 1, 1);
+        TestHost host = new TestHost();
+        ScriptEngine engine = new ScriptEngine(host);
+
+        run(engine, door);
+        host.hero.addToInventory("KEY");
+        run(engine, door);
+        run(engine, door);
+        List<String> expected = Arrays.asList("LOCKED", "OPEN", "ALREADY OPEN");
+        report("branches: " + host.messages,
+               host.messages.equals(expected) ? null : "expected " + expected);
+    }
+
+    private static void checkWinAndFlags() {
+        ScriptCompiler compiler = new ScriptCompiler();
+        Script script = compiler.compile(lines(
+                "SET,a",
+                "SET,b",
+                "CLEAR,a",
+                "WIN",
+                "MSG,AFTER WIN"), 1, 1);
+        int a = compiler.getFlag("a");
+        int b = compiler.getFlag("b");
+        TestHost host = new TestHost();
+        ScriptEngine engine = new ScriptEngine(host);
+        run(engine, script);
+
+        String error = null;
+        if (!host.won) {
+            error = "did not win";
+        } else if (engine.getFlag(a) || !engine.getFlag(b)) {
+            error = "flags a=" + engine.getFlag(a) + " b=" + engine.getFlag(b);
+        } else if (!host.messages.equals(Arrays.asList("AFTER WIN"))) {
+            error = "messages " + host.messages;
+        }
+        report("WIN and flags", error);
+    }
+
+    // the errors tell the line in the file (the script starts at line 10)
+    private static void checkCompileErrors() {
+        expectError("unknown command", lines("MSG,A", "JUMP,x"), "line 11: JUMP,x");
+        expectError("IF arguments", lines("IF,FLAG,a"), "line 10: IF,FLAG,a");
+        expectError("WARP to no map", lines("", "", "WARP,3,0,0"), "line 12: WARP,3,0,0");
+        expectError("duplicate label", lines("LABEL,a", "LABEL,a"), "line 11: LABEL,a");
+        // a label is only known to be missing at the end: the SCRIPT line
+        expectError("unknown label", lines("GOTO,nowhere"), "line 9: unknown label nowhere");
+    }
+
+    private static void expectError(String name, List<String> lines, String message) {
+        String error = "compiled";
+        try {
+            new ScriptCompiler().compile(lines, 10, 2);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage().startsWith(message) ? null : "message: " + e.getMessage();
+        }
+        report("compile error: " + name, error);
+    }
+
+    // a broken .evt file stops the load instead of leaving the rest unloaded
+    private static void checkLoadErrors() throws IOException {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        expectLoadError(panel, "script", lines(
+                "# broken script",
+                "SCRIPT,1,1,TALK",
+                "MSG,HELLO",
+                "IF,FLAG,a",
+                "ENDSCRIPT",
+                "TREASURE,2,2,KEY"), "event/scripttest.evt: line 4: IF,FLAG,a");
+        expectLoadError(panel, "character", lines(
+                "TREASURE,2,2,KEY",
+                "CHARACTER,1,x,0,0,0,HELLO"), "event/scripttest.evt: line 2: CHARACTER");
+    }
+
+    private static void expectLoadError(MainPanel panel, String name, List<String> lines,
+                                        String message) throws IOException {
+        // write the file next to the test classes, so that Map finds it on the class path
+        File classes = new File(ScriptTest.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+        File file = new File(classes, "event/scripttest.evt");
+        file.getParentFile().mkdirs();
+        try (Writer out = new FileWriter(file)) {
+            for (String line : lines) {
+                out.write(line + "\n");
+            }
+        }
+
+        String error = "loaded";
+        try {
+            new Map("map/castle.map", "event/scripttest.evt", "castle", panel);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage().startsWith(message) ? null : "message: " + e.getMessage();
+        }
+        report("load error: " + name, error);
+    }
+
+    private static void run(ScriptEngine engine, Script script) {
+        engine.start(new ScriptEvent(0, 0, ScriptEvent.TALK, script), null);
+        while (engine.isRunning()) {
+            engine.update(100);
+        }
+    }
+
+    private static List<String> lines(String... lines) {
+        return Arrays.asList(lines);
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.*;
+
+/**
+ * Checks the spawn candidates: TileSet against a HashSet, and that a
+ * spawn region of a Map holds exactly the walkable tiles without events
+ * in its rectangle while events are added and removed and tiles change.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. SpawnRegionTest
+ */
+public class SpawnRegionTest {
+    private static final int PICKS = 5000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        checkTileSet();
+
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+        Map map = new Map("map/cave.map", "event/cave.evt", "cave", panel);
+        int x0 = 3, y0 = 3, width = map.getCol() - 6, height = map.getRow() - 6;
+        int region = map.addSpawnRegion(x0, y0, width, height);
+        Random rand = new Random(1);
+        checkRegion("loaded", map, region, x0, y0, width, height, rand);
+
+        // a treasure on each of a few picked tiles takes them
+        ArrayList<Event> added = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            int tile = map.pickFreeTile(region, rand);
+            Event e = new TreasureEvent(tile % map.getCol(), tile / map.getCol(), "TEST " + i);
+            map.addEvent(e);
+            added.add(e);
+        }
+        checkRegion("events added", map, region, x0, y0, width, height, rand);
+
+        for (Event e : added) {
+            map.removeEvent(e);
+        }
+        checkRegion("events removed", map, region, x0, y0, width, height, rand);
+
+        // a wall across the region, and one tile opened again
+        for (int x = 0; x < map.getCol(); x++) {
+            map.setTileAt(x, y0 + height / 2, 1);
+        }
+        map.setTileAt(x0 + 1, y0 + height / 2, 0);
+        checkRegion("tiles changed", map, region, x0, y0, width, height, rand);
+
+        // a region partly outside the map is clipped
+        int clipped = map.addSpawnRegion(-5, -5, 10, 10);
+        checkRegion("clipped", map, clipped, 0, 0, 5, 5, rand);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // random adds and removes give the same set as a HashSet
+    private static void checkTileSet() {
+        final int capacity = 100;
+        TileSet set = new TileSet(capacity);
+        HashSet<Integer> model = new HashSet<Integer>();
+        Random rand = new Random(1);
+        String error = null;
+        for (int i = 0; i < 10000 && error == null; i++) {
+            int tile = rand.nextInt(capacity);
+            boolean changed = rand.nextBoolean() ? set.add(tile) != model.add(tile)
+                                                 : set.remove(tile) != model.remove(tile);
+            if (changed) {
+                error = "step " + i + ": add/remove of " + tile + " returned another result";
+            } else if (set.size() != model.size()) {
+                error = "step " + i + ": size " + set.size() + ", expected " + model.size();
+            }
+        }
+        for (int tile = 0; tile < capacity && error == null; tile++) {
+            if (set.contains(tile) != model.contains(tile)) {
+                error = "contains(" + tile + ")";
+            }
+        }
+        HashSet<Integer> picked = new HashSet<Integer>();
+        for (int i = 0; i < PICKS && error == null; i++) {
+            int tile = set.pick(rand);
+            if (!model.contains(tile)) {
+                error = "picked " + tile + ", which is not in the set";
+            }
+            picked.add(tile);
+        }
+        if (error == null && !picked.equals(model)) {
+            error = "picked " + picked.size() + " of " + model.size() + " tiles";
+        }
+        if (error == null && new TileSet(4).pick(rand) != -1) {
+            error = "picked from an empty set";
+        }
+        report("tile set: " + set.size() + " tiles", error);
+    }
+
+    private static void checkRegion(String name, Map map, int region,
+                                     int x0, int y0, int width, int height, Random rand) {
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (int y = y0; y < y0 + height; y++) {
+            for (int x = x0; x < x0 + width; x++) {
+                if (map.isWalkable(x, y) && map.checkEvent(x, y) == null) {
+                    expected.add(y * map.getCol() + x);
+                }
+            }
+        }
+        String error = null;
+        if (map.getFreeTileCount(region) != expected.size()) {
+            error = map.getFreeTileCount(region) + " free tiles, expected " + expected.size();
+        }
+        for (int i = 0; i < PICKS && error == null; i++) {
+            int tile = map.pickFreeTile(region, rand);
+            if (!expected.contains(tile)) {
+                error = "picked (" + tile % map.getCol() + ", " + tile / map.getCol()
+                        + "), which is not free";
+            }
+        }
+        report("region, " + name + ": " + expected.size() + " free tiles", error);
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
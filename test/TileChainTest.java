@@ -0,0 +1,196 @@
+import java.util.*;
+
+/**
+ * Checks the events and characters chained on each tile of a Map
+ * (checkEvent / checkCharacter and nextInTile) against the event and
+ * character lists while they are added, moved and removed at random,
+ * and that Interactions dispatches the hero's action along the chains.
+ *
+ * Run from the project root after compiling the game classes:
+ *   java -Djava.awt.headless=true -cp test/classes:. TileChainTest
+ */
+public class TileChainTest implements Common {
+    private static final int STEPS = 3000;
+    // steps between full checks of the map
+    private static final int CHECK_PERIOD = 50;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        GameConfig config = new GameConfig();
+        config.headless = true;
+        config.seed = 1;
+        MainPanel panel = new MainPanel(config);
+
+        checkRandomChanges(new Map("map/castle.map", "event/castle.evt", "castle", panel));
+        checkInteractions(new Map("map/castle.map", "event/castle.evt", "castle", panel));
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // a few tiles only, so that several events and characters share tiles
+    private static void checkRandomChanges(Map map) {
+        Random rand = new Random(1);
+        int[] tiles = new int[8];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = rand.nextInt(map.getRow() * map.getCol());
+        }
+        String error = check(map);
+        int step;
+        for (step = 0; step < STEPS && error == null; step++) {
+            int tile = tiles[rand.nextInt(tiles.length)];
+            int x = tile % map.getCol();
+            int y = tile / map.getCol();
+            ArrayList<Character> characters = map.getCharacters();
+            ArrayList<Event> events = map.getEvents();
+            switch (rand.nextInt(6)) {
+            case 0:
+                map.addCharacter(new Character(x, y, 0, DOWN, 0, map));
+                break;
+            case 1:
+                if (!characters.isEmpty()) {
+                    map.removeCharacter(characters.get(rand.nextInt(characters.size())));
+                }
+                break;
+            case 2:
+                if (!characters.isEmpty()) {
+                    characters.get(rand.nextInt(characters.size())).setPosition(x, y, DOWN);
+                }
+                break;
+            case 3:
+                map.addEvent(new TreasureEvent(x, y, "ITEM " + step));
+                break;
+            case 4:
+                map.addEvent(new DoorEvent(x, y));
+                break;
+            case 5:
+                if (!events.isEmpty()) {
+                    map.removeEvent(events.get(rand.nextInt(events.size())));
+                }
+                break;
+            }
+            if (step % CHECK_PERIOD == 0) {
+                error = check(map);
+            }
+        }
+        if (error == null) {
+            // all events at once, as when a game is loaded
+            map.restoreEvents(new int[] {0}, new Event[] {new TreasureEvent(1, 1, "RESTORED")});
+            error = check(map);
+        }
+        report("random changes: " + step + " steps, " + map.getEvents().size() + " events, "
+               + map.getCharacters().size() + " characters", error);
+    }
+
+    // every tile chains exactly the events and characters on it, and
+    // isHit() agrees with them
+    private static String check(Map map) {
+        int col = map.getCol();
+        int size = map.getRow() * col;
+        ArrayList<HashSet<Object>> expected = new ArrayList<HashSet<Object>>(size);
+        boolean[] hit = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            expected.add(new HashSet<Object>());
+        }
+        for (Event e : map.getEvents()) {
+            expected.get(e.y * col + e.x).add(e);
+            hit[e.y * col + e.x] |= e.isHit;
+        }
+        for (Character c : map.getCharacters()) {
+            expected.get(c.getY() * col + c.getX()).add(c);
+            hit[c.getY() * col + c.getX()] = true;
+        }
+
+        for (int y = 0; y < map.getRow(); y++) {
+            for (int x = 0; x < col; x++) {
+                HashSet<Object> chained = new HashSet<Object>();
+                int n = 0;
+                for (Event e = map.checkEvent(x, y); e != null && n <= size; e = e.nextInTile, n++) {
+                    chained.add(e);
+                }
+                for (Character c = map.checkCharacter(x, y); c != null && n <= size;
+                        c = c.nextInTile, n++) {
+                    chained.add(c);
+                }
+                HashSet<Object> objects = expected.get(y * col + x);
+                if (n != chained.size() || !chained.equals(objects)) {
+                    return "(" + x + ", " + y + "): " + n + " chained, expected " + objects.size();
+                }
+                int tile = map.getTileAt(x, y);
+                boolean isHitTile = tile == 1 || tile == 2 || tile == 4 || tile == 5;
+                if (map.isHit(x, y) != (isHitTile || hit[y * col + x])) {
+                    return "(" + x + ", " + y + "): isHit " + map.isHit(x, y);
+                }
+            }
+        }
+        if (map.checkEvent(-1, 0) != null || map.checkCharacter(col, 0) != null) {
+            return "found something outside the map";
+        }
+        return null;
+    }
+
+    private static void checkInteractions(Map map) {
+        ArrayList<Object> handled = new ArrayList<Object>();
+        Interactions interactions = new Interactions();
+        // doors do not handle the action, so the next event on the tile gets it
+        interactions.register(DoorEvent.class, (door, hero, m) -> false);
+        interactions.register(TreasureEvent.class, (t, hero, m) -> handled.add(t));
+        interactions.register(Character.class, (c, hero, m) -> handled.add(c));
+
+        int[] tile = freeRow(map);
+        int x = tile[0], y = tile[1];
+        Character hero = new Character(x, y, 0, RIGHT, 0, map);
+
+        String error = null;
+        if (interactions.interact(hero, map)) {
+            error = "handled nothing";
+        }
+
+        // a door on a treasure in front of the hero
+        TreasureEvent treasure = new TreasureEvent(x + 1, y, "FRONT");
+        map.addEvent(treasure);
+        map.addEvent(new DoorEvent(x + 1, y));
+        Character npc = new Character(x + 1, y, 0, LEFT, 0, map);
+        map.addCharacter(npc);
+        if (error == null && (!interactions.interact(hero, map) || handled.get(handled.size() - 1) != treasure)) {
+            error = "the treasure in front was not handled: " + handled;
+        }
+
+        // the event under the hero comes first
+        TreasureEvent under = new TreasureEvent(x, y, "UNDER");
+        map.addEvent(under);
+        if (error == null && (!interactions.interact(hero, map) || handled.get(handled.size() - 1) != under)) {
+            error = "the treasure under the hero was not handled: " + handled;
+        }
+
+        // only the character is left
+        map.removeEvent(under);
+        map.removeEvent(treasure);
+        if (error == null && (!interactions.interact(hero, map) || handled.get(handled.size() - 1) != npc)) {
+            error = "the character in front was not handled: " + handled;
+        }
+        report("interactions", error);
+    }
+
+    // a tile with a free tile on its right
+    private static int[] freeRow(Map map) {
+        for (int y = 1; y < map.getRow() - 1; y++) {
+            for (int x = 1; x < map.getCol() - 2; x++) {
+                if (map.isWalkable(x, y) && map.isWalkable(x + 1, y)
+                        && map.checkEvent(x, y) == null && map.checkEvent(x + 1, y) == null
+                        && map.checkCharacter(x, y) == null && map.checkCharacter(x + 1, y) == null) {
+                    return new int[] {x, y};
+                }
+            }
+        }
+        throw new IllegalStateException("no free tiles");
+    }
+
+    private static void report(String name, String error) {
+        System.out.println(name + " " + (error == null ? "OK" : "NG: " + error));
+        if (error != null) {
+            failures++;
+        }
+    }
+}
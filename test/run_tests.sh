@@ -24,4 +24,60 @@ javac RPGTest.java
 # Run the tests
 java RPGTest
 
+# Compile the game and check that a steady-state frame does not allocate
+cd ..
+mkdir -p test/classes
+javac -encoding UTF-8 -Xlint:none -d test/classes *.java \
+  test/AllocationTest.java test/PerfTest.java test/PipelineTest.java test/RenderTest.java \
+  test/ScriptTest.java test/RewindTest.java test/EventBusTest.java test/MetricsTest.java \
+  test/NearestWalkableTest.java test/SpawnRegionTest.java test/TileChainTest.java test/SaveGameTest.java \
+  test/AutoSaverTest.java test/ReplayTest.java test/HistogramTest.java test/JfrEventTest.java \
+  || exit 1
+java -Djava.awt.headless=true -cp test/classes:. AllocationTest || exit 1
+
+# Check that rendering on another thread does not change the game
+java -Djava.awt.headless=true -cp test/classes:. PipelineTest || exit 1
+
+# Check that redrawing only the changed parts gives the same pixels
+java -Djava.awt.headless=true -cp test/classes:. RenderTest || exit 1
+
+# Check the nearest walkable tile against a search of every tile
+java -Djava.awt.headless=true -cp test/classes:. NearestWalkableTest || exit 1
+
+# Check the free tiles of the spawn regions
+java -Djava.awt.headless=true -cp test/classes:. SpawnRegionTest || exit 1
+
+# Check the events and characters chained on each tile
+java -Djava.awt.headless=true -cp test/classes:. TileChainTest || exit 1
+
+# Check the event script compiler and engine, and the errors of broken .evt files
+java -Djava.awt.headless=true -cp test/classes:. ScriptTest || exit 1
+
+# Check that the event bus delivers, keeps or counts every event
+java -Djava.awt.headless=true -cp test/classes:. EventBusTest || exit 1
+
+# Check that a saved game gives back the same world
+java -Djava.awt.headless=true -cp test/classes:. SaveGameTest || exit 1
+
+# Check that a snapshot keeps its tiles and the autosave writes the last one
+java -Djava.awt.headless=true -cp test/classes:. AutoSaverTest || exit 1
+
+# Check that a recorded session replays to the same world
+java -Djava.awt.headless=true -cp test/classes:. ReplayTest || exit 1
+
+# Check that the rewind buffer gives back what was captured
+java -Djava.awt.headless=true -cp test/classes:. RewindTest || exit 1
+
+# Check the percentiles of the histograms against sorted values
+java -Djava.awt.headless=true -cp test/classes:. HistogramTest || exit 1
+
+# Check the values of the flight recorder events
+java -Djava.awt.headless=true -cp test/classes:. JfrEventTest || exit 1
+
+# Check that /metrics is in the Prometheus text format
+java -Djava.awt.headless=true -cp test/classes:. MetricsTest || exit 1
+
+# Check that the performance has not regressed from test/perf_baseline.properties
+java -Djava.awt.headless=true -cp test/classes:. PerfTest || exit 1
+
 echo "Test execution complete. Results are in $LOG_PATH/test_log.txt" 
\ No newline at end of file